@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads ASN.1 BER encoded elements from a buffer without copying it.
+ * Constructed elements are read as nested decoders sharing the same content; strings are decoded straight from the
+ * buffer.
+ */
+final class BerDecoder {
+
+    private final ByteBuffer buffer;
+
+    BerDecoder(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    int peekTag() {
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    BerDecoder readSequence(final int expectedTag) throws BerException {
+        return new BerDecoder(readContent(expectedTag));
+    }
+
+    BerDecoder readSequence() throws BerException {
+        return readSequence(BerEncoder.SEQUENCE);
+    }
+
+    long readInteger(final int expectedTag) throws BerException {
+        final ByteBuffer content = readContent(expectedTag);
+        if (!content.hasRemaining() || content.remaining() > 8) {
+            throw new BerException("Invalid integer length " + content.remaining());
+        }
+        long value = content.get();
+        while (content.hasRemaining()) {
+            value = (value << 8) | (content.get() & 0xFF);
+        }
+        return value;
+    }
+
+    int readInteger() throws BerException {
+        return (int) readInteger(BerEncoder.INTEGER);
+    }
+
+    int readEnumerated() throws BerException {
+        return (int) readInteger(BerEncoder.ENUMERATED);
+    }
+
+    boolean readBoolean() throws BerException {
+        final ByteBuffer content = readContent(BerEncoder.BOOLEAN);
+        return content.hasRemaining() && content.get() != 0;
+    }
+
+    String readString(final int expectedTag) throws BerException {
+        return StandardCharsets.UTF_8.decode(readContent(expectedTag)).toString();
+    }
+
+    String readString() throws BerException {
+        return readString(BerEncoder.OCTET_STRING);
+    }
+
+    byte[] readBytes(final int expectedTag) throws BerException {
+        final ByteBuffer content = readContent(expectedTag);
+        final byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+
+    byte[] readBytes() throws BerException {
+        return readBytes(BerEncoder.OCTET_STRING);
+    }
+
+    void skip() throws BerException {
+        readContent(peekTag());
+    }
+
+    /**
+     * @return the content of the next element, as a view on the underlying buffer
+     */
+    ByteBuffer readContent(final int expectedTag) throws BerException {
+        if (!buffer.hasRemaining()) {
+            throw new BerException("Unexpected end of element, expecting tag 0x" + Integer.toHexString(expectedTag));
+        }
+        final int tag = buffer.get() & 0xFF;
+        if (tag != expectedTag) {
+            throw new BerException(
+                    "Unexpected tag 0x" + Integer.toHexString(tag) + ", expecting 0x" + Integer.toHexString(expectedTag));
+        }
+        final int length = readLength(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BerException("Invalid element length " + length);
+        }
+        final ByteBuffer content = buffer.slice();
+        content.limit(length);
+        buffer.position(buffer.position() + length);
+        return content;
+    }
+
+    /**
+     * Tells whether the buffer holds a complete element from its position, without moving it.
+     *
+     * @param maxSize the largest size of element accepted, the content of a larger one is not waited for
+     * @return the size of the element including its header when it is complete, -1 when its header is incomplete,
+     *         or -(size + 1) when only part of its content is available
+     */
+    static int completeElementSize(final ByteBuffer buffer, final int maxSize) throws BerException {
+        final ByteBuffer view = buffer.duplicate();
+        if (view.remaining() < 2) {
+            return -1;
+        }
+        view.get();
+        final int first = view.get(view.position()) & 0xFF;
+        if (first > 0x80 && view.remaining() < 1 + (first & 0x7F)) {
+            return -1;
+        }
+        final int length = readLength(view);
+        if (length < 0) {
+            throw new BerException("Invalid element length");
+        }
+        if (length > maxSize - (view.position() - buffer.position())) {
+            throw new BerException("Element length " + length + " exceeds the limit of " + maxSize + " bytes");
+        }
+        final int size = view.position() - buffer.position() + length;
+        return view.remaining() >= length ? size : -(size + 1);
+    }
+
+    private static int readLength(final ByteBuffer buffer) throws BerException {
+        final int first = buffer.get() & 0xFF;
+        if (first < 0x80) {
+            return first;
+        }
+        final int size = first & 0x7F;
+        if (size == 0 || size > 4) {
+            throw new BerException("Unsupported length encoding 0x" + Integer.toHexString(first));
+        }
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            length = (length << 8) | (buffer.get() & 0xFF);
+        }
+        return length;
+    }
+
+    static final class BerException extends IOException {
+
+        private static final long serialVersionUID = -2217440457431853587L;
+
+        BerException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Writes ASN.1 BER encoded elements into a growable buffer.
+ * Constructed elements are opened with {@link #beginSequence(int)} and closed with {@link #endSequence()}; their
+ * definite length is written once their content is known, using the shortest form.
+ */
+final class BerEncoder {
+
+    static final int BOOLEAN = 0x01;
+    static final int INTEGER = 0x02;
+    static final int OCTET_STRING = 0x04;
+    static final int NULL = 0x05;
+    static final int ENUMERATED = 0x0A;
+    static final int SEQUENCE = 0x30;
+    static final int SET = 0x31;
+
+    private byte[] data;
+    private int position;
+    private final Deque<Integer> sequences = new ArrayDeque<>();
+
+    BerEncoder() {
+        this(256);
+    }
+
+    BerEncoder(final int capacity) {
+        data = new byte[capacity];
+    }
+
+    BerEncoder beginSequence(final int tag) {
+        ensureCapacity(2);
+        data[position++] = (byte) tag;
+        // one byte is reserved for the length, endSequence() makes room if more are needed
+        sequences.push(position++);
+        return this;
+    }
+
+    BerEncoder endSequence() {
+        final int lengthOffset = sequences.pop();
+        final int length = position - lengthOffset - 1;
+        final int lengthSize = lengthSize(length);
+        if (lengthSize > 1) {
+            ensureCapacity(lengthSize - 1);
+            System.arraycopy(data, lengthOffset + 1, data, lengthOffset + lengthSize, length);
+            position += lengthSize - 1;
+        }
+        writeLength(lengthOffset, length);
+        return this;
+    }
+
+    BerEncoder writeBoolean(final int tag, final boolean value) {
+        writeHeader(tag, 1);
+        data[position++] = (byte) (value ? 0xFF : 0x00);
+        return this;
+    }
+
+    BerEncoder writeBoolean(final boolean value) {
+        return writeBoolean(BOOLEAN, value);
+    }
+
+    BerEncoder writeInteger(final int tag, final long value) {
+        int size = 1;
+        while (size < 8 && (value >> (size * 8 - 1)) != 0 && (value >> (size * 8 - 1)) != -1) {
+            size++;
+        }
+        writeHeader(tag, size);
+        for (int i = size - 1; i >= 0; i--) {
+            data[position++] = (byte) (value >> (i * 8));
+        }
+        return this;
+    }
+
+    BerEncoder writeInteger(final long value) {
+        return writeInteger(INTEGER, value);
+    }
+
+    BerEncoder writeEnumerated(final int value) {
+        return writeInteger(ENUMERATED, value);
+    }
+
+    BerEncoder writeOctetString(final int tag, final byte[] value) {
+        writeHeader(tag, value.length);
+        System.arraycopy(value, 0, data, position, value.length);
+        position += value.length;
+        return this;
+    }
+
+    BerEncoder writeOctetString(final int tag, final String value) {
+        return writeOctetString(tag, value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    BerEncoder writeOctetString(final String value) {
+        return writeOctetString(OCTET_STRING, value);
+    }
+
+    BerEncoder writeNull(final int tag) {
+        writeHeader(tag, 0);
+        return this;
+    }
+
+    /**
+     * Copies already encoded elements.
+     */
+    BerEncoder writeEncoded(final byte[] encoded) {
+        ensureCapacity(encoded.length);
+        System.arraycopy(encoded, 0, data, position, encoded.length);
+        position += encoded.length;
+        return this;
+    }
+
+    int size() {
+        return position;
+    }
+
+    byte[] toByteArray() {
+        if (!sequences.isEmpty()) {
+            throw new IllegalStateException("Unclosed BER sequence");
+        }
+        return Arrays.copyOf(data, position);
+    }
+
+    ByteBuffer toByteBuffer() {
+        if (!sequences.isEmpty()) {
+            throw new IllegalStateException("Unclosed BER sequence");
+        }
+        return ByteBuffer.wrap(data, 0, position);
+    }
+
+    private void writeHeader(final int tag, final int length) {
+        final int lengthSize = lengthSize(length);
+        ensureCapacity(1 + lengthSize + length);
+        data[position++] = (byte) tag;
+        writeLength(position, length);
+        position += lengthSize;
+    }
+
+    private static int lengthSize(final int length) {
+        if (length < 0x80) {
+            return 1;
+        } else if (length < 0x100) {
+            return 2;
+        } else if (length < 0x10000) {
+            return 3;
+        } else if (length < 0x1000000) {
+            return 4;
+        }
+        return 5;
+    }
+
+    private void writeLength(final int offset, final int length) {
+        final int lengthSize = lengthSize(length);
+        if (lengthSize == 1) {
+            data[offset] = (byte) length;
+        } else {
+            data[offset] = (byte) (0x80 | (lengthSize - 1));
+            for (int i = 1; i < lengthSize; i++) {
+                data[offset + i] = (byte) (length >> ((lengthSize - 1 - i) * 8));
+            }
+        }
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (position + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, position + extra));
+        }
+    }
+}
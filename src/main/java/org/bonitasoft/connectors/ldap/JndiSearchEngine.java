@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.ExtendedRequest;
+import javax.naming.ldap.ExtendedResponse;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.StartTlsRequest;
+import javax.naming.ldap.StartTlsResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search engine based on the default JRE LDAP implementation.
+ */
+class JndiSearchEngine implements LdapSearchEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JndiSearchEngine.class);
+
+    private static final String DELETE_OLD_RDN = "java.naming.ldap.deleteRDN";
+    private static final Pattern RESULT_CODE = Pattern.compile("error code (\\d+)");
+
+    private final LdapConnectionSettings settings;
+
+    private LdapContext ctx;
+
+    private StartTlsResponse response;
+
+    JndiSearchEngine(final LdapConnectionSettings settings) {
+        this.settings = settings;
+    }
+
+    private Hashtable<String, String> getEnvironment() {
+        final Hashtable<String, String> environment = new Hashtable<>();
+        environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        environment.put(Context.PROVIDER_URL, "ldap://" + settings.getHost() + ":" + settings.getPort());
+        if (LdapProtocol.LDAPS.equals(settings.getProtocol())) {
+            environment.put(Context.SECURITY_PROTOCOL, "ssl");
+        }
+        if (!LdapProtocol.TLS.equals(settings.getProtocol()) && settings.isAuthenticated()) {
+            environment.put(Context.SECURITY_AUTHENTICATION, "simple");
+            environment.put(Context.SECURITY_PRINCIPAL, settings.getUserName());
+            environment.put(Context.SECURITY_CREDENTIALS, settings.getPassword());
+        } else {
+            environment.put(Context.SECURITY_AUTHENTICATION, "none");
+        }
+        environment.put("java.naming.ldap.derefAliases", settings.getDerefAliases().toString().toLowerCase());
+        environment.put(Context.REFERRAL, settings.getReferralHandling());
+        return environment;
+    }
+
+    @Override
+    public void open() throws NamingException, IOException {
+        final LdapSpan connectSpan = LdapTracing.startSpan(LdapTracing.CONNECT, settings);
+        try {
+            // the simple bind of a non TLS connection is part of the connection
+            ctx = new InitialLdapContext(getEnvironment(), null);
+        } catch (final NamingException | RuntimeException e) {
+            LdapTracing.fail(connectSpan, e);
+            throw e;
+        } finally {
+            connectSpan.close();
+        }
+        if (LdapProtocol.TLS.equals(settings.getProtocol())) {
+            final LdapSpan tlsSpan = LdapTracing.startSpan(LdapTracing.START_TLS, settings);
+            try {
+                final StartTlsRequest request = new StartTlsRequest();
+                response = (StartTlsResponse) ctx.extendedOperation(request);
+                response.negotiate();
+            } catch (final IOException | NamingException | RuntimeException e) {
+                LdapTracing.fail(tlsSpan, e);
+                throw e;
+            } finally {
+                tlsSpan.close();
+            }
+            if (settings.isAuthenticated()) {
+                ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+                ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, settings.getUserName());
+                ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, settings.getPassword());
+            }
+        }
+    }
+
+    @Override
+    public LdapSearchOutcome search(final LdapSearchRequest request, final LdapEntryHandler handler)
+            throws NamingException, IOException {
+        final SearchControls ctls = new SearchControls();
+        ctls.setTimeLimit(request.getTimeLimit() * 1000);
+        ctls.setCountLimit(request.getSizeLimit());
+        ctls.setReturningAttributes(request.getAttributes());
+        ctls.setSearchScope(request.getScope().value());
+        if (request.isPaged()) {
+            return doPagedSearch(request, ctls, handler);
+        }
+        return doNonPagedSearch(request, ctls, handler);
+    }
+
+    private LdapSearchOutcome doNonPagedSearch(final LdapSearchRequest request, final SearchControls ctls,
+            final LdapEntryHandler handler) throws NamingException, IOException {
+        long entries = 0;
+        final LdapSpan span = LdapTracing.startPage(settings, request, 1);
+        try {
+            final NamingEnumeration<SearchResult> answer = ctx.search(request.getBaseObject(), request.getFilter(),
+                    ctls);
+            long count = request.getSizeLimit();
+            // count is useful in case of the size-limit is defined
+            // the search method does not care about size-limit. It returns all entries
+            // which match with the filter.
+            if (count == 0) {
+                count = Long.MAX_VALUE;
+            }
+            while (count > 0 && answer.hasMore()) {
+                final SearchResult sr = answer.next();
+                count--;
+                entries++;
+                handler.handleEntry(sr.getNameInNamespace(), toAttributes(sr));
+            }
+            span.setAttribute(LdapTracing.RESULT_CODE, 0);
+        } catch (final IOException | NamingException | RuntimeException e) {
+            LdapTracing.fail(span, e);
+            throw e;
+        } finally {
+            span.setAttribute(LdapTracing.ENTRY_COUNT, entries).close();
+        }
+        return new LdapSearchOutcome(entries, 1);
+    }
+
+    private LdapSearchOutcome doPagedSearch(final LdapSearchRequest request, final SearchControls ctls,
+            final LdapEntryHandler handler) throws NamingException, IOException {
+        final int pageSize = (int) request.getPageSize();
+        byte[] cookie = request.getCookie();
+        long entries = 0;
+        int pages = 0;
+        ctx.setRequestControls(new Control[] { cookie == null ? new PagedResultsControl(pageSize, Control.NONCRITICAL)
+                : new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
+        try {
+            do {
+                pages++;
+                long pageEntries = 0;
+                final LdapSpan span = LdapTracing.startPage(settings, request, pages);
+                try {
+                    final NamingEnumeration<SearchResult> answer = ctx.search(request.getBaseObject(),
+                            request.getFilter(), ctls);
+                    while (answer.hasMoreElements()) {
+                        final SearchResult sr = answer.next();
+                        pageEntries++;
+                        handler.handleEntry(sr.getNameInNamespace(), toAttributes(sr));
+                    }
+                    span.setAttribute(LdapTracing.RESULT_CODE, 0);
+                } catch (final IOException | NamingException | RuntimeException e) {
+                    LdapTracing.fail(span, e);
+                    throw e;
+                } finally {
+                    entries += pageEntries;
+                    span.setAttribute(LdapTracing.ENTRY_COUNT, pageEntries).close();
+                }
+                cookie = getCookie(ctx.getResponseControls());
+                ctx.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
+            } while (cookie != null && !request.isPageLimitReached(pages));
+        } finally {
+            ctx.setRequestControls(null);
+        }
+        return new LdapSearchOutcome(entries, pages, cookie);
+    }
+
+    private static byte[] getCookie(final Control[] controls) {
+        byte[] cookie = null;
+        if (controls != null) {
+            for (final Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    cookie = ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        return cookie;
+    }
+
+    static List<LdapAttribute> toAttributes(final SearchResult sr) throws NamingException {
+        return toAttributes(sr.getAttributes());
+    }
+
+    private static List<LdapAttribute> toAttributes(final Attributes attribs) throws NamingException {
+        final NamingEnumeration<? extends Attribute> enume = attribs.getAll();
+        final List<LdapAttribute> elements = new ArrayList<>();
+        while (enume.hasMore()) {
+            final Attribute attribute = enume.next();
+            final NamingEnumeration<?> all = attribute.getAll();
+            while (all.hasMore()) {
+                final Object key = all.next();
+                String value;
+                if (key instanceof byte[]) {
+                    value = new String((byte[]) key, StandardCharsets.UTF_8);
+                } else {
+                    value = key.toString();
+                }
+                elements.add(new LdapAttribute(attribute.getID(), value));
+            }
+        }
+        return elements;
+    }
+
+    @Override
+    public List<List<LdapAttribute>> read(final List<String> dns, final String[] attributes)
+            throws NamingException, IOException {
+        final List<List<LdapAttribute>> entries = new ArrayList<>(dns.size());
+        // JNDI waits for the response of each request, so reads cannot be pipelined
+        for (final String dn : dns) {
+            try {
+                entries.add(toAttributes(ctx.getAttributes(new LdapName(dn), attributes)));
+            } catch (final NameNotFoundException e) {
+                entries.add(null);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public List<LdapWriteResult> write(final List<LdapWriteOperation> operations, final boolean transactional,
+            final boolean stopOnError) throws NamingException, IOException {
+        final LdapWriteBatch batch = new LdapWriteBatch(operations, transactional, stopOnError);
+        byte[] transactionId = null;
+        if (transactional) {
+            transactionId = ctx.extendedOperation(new TransactionRequest(LdapWriteBatch.START_TRANSACTION_OID, null))
+                    .getEncodedValue();
+            ctx.setRequestControls(new Control[] { LdapWriteBatch.transactionSpecification(transactionId) });
+        }
+        try {
+            // JNDI waits for the response of each request, so operations cannot be pipelined
+            for (int i = 0; i < operations.size() && !batch.isStopped(); i++) {
+                try {
+                    apply(operations.get(i));
+                    batch.record(i, LdapWriteResult.SUCCESS, "");
+                } catch (final CommunicationException | ServiceUnavailableException e) {
+                    throw e;
+                } catch (final NamingException e) {
+                    batch.record(i, resultCode(e), e.getMessage());
+                }
+            }
+        } finally {
+            ctx.setRequestControls(null);
+        }
+        if (transactional) {
+            final boolean commit = !batch.hasFailure();
+            try {
+                ctx.extendedOperation(new TransactionRequest(LdapWriteBatch.END_TRANSACTION_OID,
+                        LdapWriteBatch.endTransactionValue(commit, transactionId)));
+            } catch (final CommunicationException | ServiceUnavailableException e) {
+                throw e;
+            } catch (final NamingException e) {
+                if (commit) {
+                    batch.failAll(resultCode(e), e.getMessage());
+                } else {
+                    LOGGER.debug("Error aborting the LDAP transaction", e);
+                }
+            }
+            if (!commit) {
+                batch.rollBack();
+            }
+        }
+        return batch.getResults();
+    }
+
+    private void apply(final LdapWriteOperation operation) throws NamingException {
+        switch (operation.getType()) {
+            case ADD:
+                final Attributes attributes = new BasicAttributes(true);
+                for (final Map.Entry<String, List<Object>> values : operation.getAttributes().entrySet()) {
+                    attributes.put(toAttribute(values.getKey(), values.getValue()));
+                }
+                ctx.bind(operation.getDn(), null, attributes);
+                break;
+            case DELETE:
+                ctx.unbind(operation.getDn());
+                break;
+            case MODIFY:
+                final ModificationItem[] items = operation.getModifications().stream()
+                        .map(modification -> new ModificationItem(toModificationOperation(modification.getType()),
+                                toAttribute(modification.getAttribute(), modification.getValues())))
+                        .toArray(ModificationItem[]::new);
+                ctx.modifyAttributes(operation.getDn(), items);
+                break;
+            default:
+                final LdapName name = new LdapName(operation.getDn());
+                final LdapName newName = operation.getNewSuperior() == null
+                        ? (LdapName) name.getPrefix(Math.max(0, name.size() - 1))
+                        : new LdapName(operation.getNewSuperior());
+                newName.add(operation.getNewRdn());
+                ctx.addToEnvironment(DELETE_OLD_RDN, String.valueOf(operation.isDeleteOldRdn()));
+                try {
+                    ctx.rename(name, newName);
+                } finally {
+                    ctx.removeFromEnvironment(DELETE_OLD_RDN);
+                }
+                break;
+        }
+    }
+
+    private static Attribute toAttribute(final String name, final List<Object> values) {
+        final Attribute attribute = new BasicAttribute(name);
+        values.forEach(attribute::add);
+        return attribute;
+    }
+
+    private static int toModificationOperation(final LdapWriteOperation.Modification.Type type) {
+        switch (type) {
+            case ADD:
+                return DirContext.ADD_ATTRIBUTE;
+            case DELETE:
+                return DirContext.REMOVE_ATTRIBUTE;
+            default:
+                return DirContext.REPLACE_ATTRIBUTE;
+        }
+    }
+
+    /**
+     * @return the LDAP result code found in the message of a JNDI exception, 80 (other) if there is none
+     */
+    static int resultCode(final NamingException e) {
+        final Matcher matcher = e.getMessage() == null ? null : RESULT_CODE.matcher(e.getMessage());
+        return matcher != null && matcher.find() ? Integer.parseInt(matcher.group(1)) : LdapWriteResult.OTHER;
+    }
+
+    @Override
+    public boolean authenticate(final String dn, final String password) throws NamingException, IOException {
+        if (LdapProtocol.TLS.equals(settings.getProtocol())) {
+            // reconnecting would drop the TLS layer negotiated on the current connection, so the user gets its own
+            final JndiSearchEngine userEngine = new JndiSearchEngine(new LdapConnectionSettings(settings.getHost(),
+                    settings.getPort(), settings.getProtocol(), dn, password, settings.getDerefAliases(),
+                    settings.getReferralHandling()));
+            try {
+                userEngine.open();
+                userEngine.ctx.getAttributes("", new String[] { "1.1" });
+                return true;
+            } catch (final AuthenticationException e) {
+                return false;
+            } finally {
+                userEngine.close();
+            }
+        }
+        ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+        ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+        ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+        final LdapSpan span = LdapTracing.startSpan(LdapTracing.BIND, settings);
+        try {
+            // JNDI cannot bind on an opened context: it binds again on a new connection
+            ctx.reconnect(null);
+            span.setAttribute(LdapTracing.RESULT_CODE, 0);
+            return true;
+        } catch (final AuthenticationException e) {
+            span.setAttribute(LdapTracing.RESULT_CODE, resultCode(e));
+            return false;
+        } catch (final NamingException | RuntimeException e) {
+            LdapTracing.fail(span, e);
+            throw e;
+        } finally {
+            span.close();
+            restoreIdentity();
+        }
+    }
+
+    /**
+     * Puts back the credentials of the engine in the environment after a user bind, so that a pooled context does
+     * not keep the principal and the password of the last user. An authenticated engine binds again with its own
+     * credentials, an anonymous one binds anonymously on its next bind or reconnection.
+     */
+    private void restoreIdentity() throws NamingException {
+        if (settings.isAuthenticated()) {
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, settings.getUserName());
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, settings.getPassword());
+            ctx.reconnect(null);
+        } else {
+            ctx.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+            ctx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "none");
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return ctx != null;
+    }
+
+    @Override
+    public void close() {
+        if (response != null) {
+            try {
+                response.close();
+            } catch (final IOException e) {
+                LOGGER.error("Error closing the StartTlsResponse", e);
+            }
+            response = null;
+        }
+        if (ctx != null) {
+            try {
+                ctx.close();
+            } catch (final NamingException e) {
+                LOGGER.error("Error closing the LDAP context", e);
+            }
+            ctx = null;
+        }
+    }
+
+    /**
+     * An extended request with a raw value, whose response is returned as is.
+     */
+    private static final class TransactionRequest implements ExtendedRequest {
+
+        private static final long serialVersionUID = -5062437934683012212L;
+
+        private final String id;
+        private final byte[] value;
+
+        private TransactionRequest(final String id, final byte[] value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        @Override
+        public String getID() {
+            return id;
+        }
+
+        @Override
+        public byte[] getEncodedValue() {
+            return value;
+        }
+
+        @Override
+        public ExtendedResponse createExtendedResponse(final String responseId, final byte[] berValue,
+                final int offset, final int length) {
+            final byte[] responseValue = berValue == null ? null : Arrays.copyOfRange(berValue, offset, offset + length);
+            return new ExtendedResponse() {
+
+                private static final long serialVersionUID = 2316178498210263457L;
+
+                @Override
+                public String getID() {
+                    return responseId;
+                }
+
+                @Override
+                public byte[] getEncodedValue() {
+                    return responseValue;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the addresses the NIO engine connects to, so that opening a connection does not wait for a name resolution
+ * once the address was resolved, by a warm-up or a previous connection. An address is resolved again once older than
+ * the time to live, or after a connection to it failed.
+ * <p>
+ * The JNDI engine resolves the host itself, through the cache of the JVM.
+ */
+final class LdapAddressCache {
+
+    static final long TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Map<String, Resolved> ADDRESSES = new ConcurrentHashMap<>();
+
+    private LdapAddressCache() {
+    }
+
+    static InetAddress resolve(final String host) throws UnknownHostException {
+        final String key = host.toLowerCase(Locale.ROOT);
+        final long now = System.currentTimeMillis();
+        final Resolved cached = ADDRESSES.get(key);
+        if (cached != null && now - cached.resolvedAt <= TIME_TO_LIVE) {
+            return cached.address;
+        }
+        final InetAddress address = InetAddress.getByName(host);
+        ADDRESSES.put(key, new Resolved(address, now));
+        return address;
+    }
+
+    static void evict(final String host) {
+        ADDRESSES.remove(host.toLowerCase(Locale.ROOT));
+    }
+
+    static int size() {
+        return ADDRESSES.size();
+    }
+
+    static void clear() {
+        ADDRESSES.clear();
+    }
+
+    private static final class Resolved {
+
+        private final InetAddress address;
+        private final long resolvedAt;
+
+        private Resolved(final InetAddress address, final long resolvedAt) {
+            this.address = address;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
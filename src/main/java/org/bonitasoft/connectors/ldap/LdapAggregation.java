@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * The aggregates of the AGGREGATE output mode, computed as the entries are read.
+ * <ul>
+ * <li>COUNT: the number of entries, as a Long</li>
+ * <li>GROUP_COUNT: the number of entries per value of the attribute, as a Map sorted by value</li>
+ * <li>DISTINCT: the sorted distinct values of the attribute, as a List</li>
+ * <li>MIN, MAX: the lowest or highest value of the attribute, compared as integers when both values are integers
+ * and as strings ignoring case otherwise, which suits generalized times</li>
+ * </ul>
+ */
+public enum LdapAggregation {
+    COUNT, GROUP_COUNT, DISTINCT, MIN, MAX
+}
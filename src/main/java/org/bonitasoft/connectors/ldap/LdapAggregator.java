@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Computes an aggregate of the entries of a search as they are read, without keeping the entries: the memory used
+ * only depends on the number of distinct values of the attribute.
+ * An entry counts once for each value of a multi-valued attribute, and entries without the attribute are ignored,
+ * except by COUNT.
+ */
+abstract class LdapAggregator implements LdapEntryHandler {
+
+    protected final String attribute;
+
+    protected LdapAggregator(final String attribute) {
+        this.attribute = attribute;
+    }
+
+    /**
+     * @param attribute the aggregated attribute, ignored by COUNT
+     */
+    static LdapAggregator create(final LdapAggregation aggregation, final String attribute) {
+        switch (aggregation) {
+            case GROUP_COUNT:
+                return new GroupCount(attribute);
+            case DISTINCT:
+                return new Distinct(attribute);
+            case MIN:
+                return new Extremum(attribute, -1);
+            case MAX:
+                return new Extremum(attribute, 1);
+            default:
+                return new Count();
+        }
+    }
+
+    @Override
+    public void handleEntry(final String dn, final List<LdapAttribute> attributes) {
+        for (final LdapAttribute element : attributes) {
+            if (element.getValue() != null && attribute.equalsIgnoreCase(element.getName())) {
+                handleValue(element.getValue());
+            }
+        }
+    }
+
+    protected abstract void handleValue(String value);
+
+    /**
+     * @return the aggregate of the entries handled so far
+     */
+    abstract Serializable getResult();
+
+    private static final class Count extends LdapAggregator {
+
+        private long count;
+
+        Count() {
+            super(null);
+        }
+
+        @Override
+        public void handleEntry(final String dn, final List<LdapAttribute> attributes) {
+            count++;
+        }
+
+        @Override
+        protected void handleValue(final String value) {
+            // entries are counted whatever their attributes
+        }
+
+        @Override
+        Serializable getResult() {
+            return count;
+        }
+    }
+
+    private static final class GroupCount extends LdapAggregator {
+
+        private final TreeMap<String, Long> counts = new TreeMap<>();
+
+        GroupCount(final String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        protected void handleValue(final String value) {
+            counts.merge(value, 1L, Long::sum);
+        }
+
+        @Override
+        Serializable getResult() {
+            return counts;
+        }
+    }
+
+    private static final class Distinct extends LdapAggregator {
+
+        private final TreeSet<String> values = new TreeSet<>();
+
+        Distinct(final String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        protected void handleValue(final String value) {
+            values.add(value);
+        }
+
+        @Override
+        Serializable getResult() {
+            return new ArrayList<>(values);
+        }
+    }
+
+    private static final class Extremum extends LdapAggregator {
+
+        private final int sign;
+        private String extremum;
+
+        /**
+         * @param sign -1 to keep the lowest value, 1 to keep the highest one
+         */
+        Extremum(final String attribute, final int sign) {
+            super(attribute);
+            this.sign = sign;
+        }
+
+        @Override
+        protected void handleValue(final String value) {
+            if (extremum == null || sign * LdapEntrySorter.compareValues(value, extremum) > 0) {
+                extremum = value;
+            }
+        }
+
+        @Override
+        Serializable getResult() {
+            return extremum;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.ldap.LdapName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies the credentials of a user with a bind, without reading any entry.
+ * A login that is not a DN is resolved with the user filter on a connection of the operations pool, authenticated
+ * with the connector credentials, and the DN found is cached. A DN given as login must be in the search scope and
+ * match the user filter, whatever the value of the login placeholder. The bind then runs on a connection of the bind
+ * pool.
+ */
+final class LdapAuthenticator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapAuthenticator.class);
+
+    static final String LOGIN_PLACEHOLDER = "{0}";
+    private static final String NO_ATTRIBUTES = "1.1";
+
+    private final LdapEngine engine;
+    private final LdapConnectionSettings settings;
+    private final long negativeCacheTtl;
+
+    LdapAuthenticator(final LdapEngine engine, final LdapConnectionSettings settings) {
+        this(engine, settings, 0);
+    }
+
+    /**
+     * @param negativeCacheTtl the milliseconds an unknown login is remembered as such, 0 to look it up every time
+     */
+    LdapAuthenticator(final LdapEngine engine, final LdapConnectionSettings settings, final long negativeCacheTtl) {
+        this.engine = engine;
+        this.settings = settings;
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    /**
+     * @param userFilter the filter template finding the entry of the user, where {0} stands for the login
+     * @return the DN of the user if the credentials are valid, null if the login is unknown or the password wrong
+     */
+    String authenticate(final String baseObject, final LdapScope scope, final String userFilter, final String login,
+            final String password) throws NamingException, IOException {
+        if (password == null || password.isEmpty()) {
+            // a simple bind without password is an unauthenticated bind, which servers accept
+            return null;
+        }
+        if (isDn(login)) {
+            return isUser(baseObject, scope, userFilter, login) && bind(login, password) ? login : null;
+        }
+        final LdapFilter filter = LdapFilterTemplate.compile(userFilter).bind(login);
+        final LdapSearchRequest request = new LdapSearchRequest(baseObject, filter.toString(), scope,
+                new String[] { NO_ATTRIBUTES }, 2, 0, 0);
+        request.setParsedFilter(filter);
+        final String key = LdapDnCache.key(settings, request);
+        final String cachedDn = LdapDnCache.get(key);
+        if (cachedDn == null && negativeCacheTtl > 0
+                && LdapNegativeCache.isMissing(LdapNegativeCache.searchKey(settings, request))) {
+            LOGGER.debug("No entry matched {} recently", request.getFilter());
+            return null;
+        }
+        final String dn = cachedDn != null ? cachedDn : resolve(request);
+        if (dn == null) {
+            return null;
+        }
+        if (bind(dn, password)) {
+            LdapDnCache.put(key, dn);
+            return dn;
+        }
+        if (cachedDn != null) {
+            // the entry may have been renamed since it was cached
+            LdapDnCache.remove(key);
+            final String currentDn = resolve(request);
+            if (currentDn != null && !currentDn.equalsIgnoreCase(cachedDn) && bind(currentDn, password)) {
+                LdapDnCache.put(key, currentDn);
+                return currentDn;
+            }
+        }
+        return null;
+    }
+
+    static boolean isDn(final String login) {
+        if (login.indexOf('=') < 0) {
+            return false;
+        }
+        try {
+            new LdapName(login);
+            return true;
+        } catch (final NamingException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the DN is in the search scope and its entry matches the other assertions of the user filter
+     */
+    private boolean isUser(final String baseObject, final LdapScope scope, final String userFilter, final String dn)
+            throws NamingException, IOException {
+        final LdapName name = new LdapName(dn);
+        final LdapName base = new LdapName(baseObject == null ? "" : baseObject);
+        final boolean inScope;
+        switch (scope) {
+            case BASE:
+                inScope = name.equals(base);
+                break;
+            case ONELEVEL:
+                inScope = name.size() == base.size() + 1 && name.startsWith(base);
+                break;
+            default:
+                inScope = name.startsWith(base);
+                break;
+        }
+        if (!inScope) {
+            LOGGER.debug("{} is not in the {} scope of {}, the user cannot be authenticated", dn, scope, baseObject);
+            return false;
+        }
+        final LdapFilter filter = LdapFilterTemplate.compile(userFilter).presentParameters();
+        if (filter == null) {
+            LOGGER.debug("The user filter {} cannot be checked against a DN login", userFilter);
+            return false;
+        }
+        final LdapSearchRequest request = new LdapSearchRequest(dn, filter.toString(), LdapScope.BASE,
+                new String[] { NO_ATTRIBUTES }, 1, 0, 0);
+        request.setParsedFilter(filter);
+        final List<String> dns = new ArrayList<>(1);
+        try (LdapConnectionPool.Lease lease = LdapConnectionPool.OPERATIONS.acquire(engine, settings)) {
+            try {
+                lease.getEngine().search(request, (entryDn, attributes) -> dns.add(entryDn));
+            } catch (final NameNotFoundException e) {
+                LOGGER.debug("No entry {}", dn);
+            } catch (final IOException | NamingException e) {
+                lease.invalidate();
+                throw e;
+            }
+        }
+        if (dns.isEmpty()) {
+            LOGGER.debug("{} does not match {}, the user cannot be authenticated", dn, filter);
+        }
+        return !dns.isEmpty();
+    }
+
+    /**
+     * @return the DN of the only entry matching the user filter, null if there is none or several
+     */
+    private String resolve(final LdapSearchRequest request) throws NamingException, IOException {
+        final List<String> dns = new ArrayList<>(2);
+        try (LdapConnectionPool.Lease lease = LdapConnectionPool.OPERATIONS.acquire(engine, settings)) {
+            try {
+                lease.getEngine().search(request, (dn, attributes) -> dns.add(dn));
+            } catch (final SizeLimitExceededException e) {
+                LOGGER.debug("More than one entry matches {}", request.getFilter());
+            } catch (final IOException | NamingException e) {
+                lease.invalidate();
+                throw e;
+            }
+        }
+        if (dns.isEmpty()) {
+            LdapNegativeCache.put(LdapNegativeCache.searchKey(settings, request), negativeCacheTtl);
+        }
+        if (dns.size() != 1) {
+            LOGGER.debug("{} entries match {}, the user cannot be authenticated", dns.size(), request.getFilter());
+            return null;
+        }
+        return dns.get(0);
+    }
+
+    /**
+     * @return the settings of the connections verifying user credentials, which are opened without binding
+     */
+    static LdapConnectionSettings bindSettings(final LdapConnectionSettings settings) {
+        return new LdapConnectionSettings(settings.getHost(), settings.getPort(), settings.getProtocol(), null, null,
+                settings.getDerefAliases(), settings.getReferralHandling());
+    }
+
+    private boolean bind(final String dn, final String password) throws NamingException, IOException {
+        try (LdapConnectionPool.Lease lease = LdapConnectionPool.BINDS.acquire(engine, bindSettings(settings))) {
+            try {
+                return lease.getEngine().authenticate(dn, password);
+            } catch (final IOException | NamingException e) {
+                lease.invalidate();
+                throw e;
+            }
+        }
+    }
+}
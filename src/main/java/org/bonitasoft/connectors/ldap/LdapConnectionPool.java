@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps opened engines between connector executions, so that consecutive operations on the same directory with the
+ * same credentials reuse an authenticated connection. An engine idle for a while is checked with a read of the root
+ * DSE before being lent, since the server may have dropped its connection in the meantime; a recently used one is lent
+ * as it is, and invalidated by its borrower on a connection error. Engines left idle longer than the idle timeout are
+ * closed the next time the pool is used.
+ */
+final class LdapConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapConnectionPool.class);
+
+    static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    static final int MAX_IDLE_PER_KEY = 8;
+    static final long VALIDATION_IDLE_TIME = TimeUnit.SECONDS.toMillis(30);
+
+    private static final List<String> ROOT_DSE = Collections.singletonList("");
+    private static final String[] NO_ATTRIBUTES = { "1.1" };
+
+    /**
+     * The engines running searches and updates, authenticated with the connector credentials.
+     */
+    static final LdapConnectionPool OPERATIONS = new LdapConnectionPool("operations", VALIDATION_IDLE_TIME);
+
+    /**
+     * The engines verifying user credentials. Their identity changes with every bind, so they are never used for
+     * anything else.
+     */
+    static final LdapConnectionPool BINDS = new LdapConnectionPool("binds", VALIDATION_IDLE_TIME);
+
+    private final String name;
+    private final long validationIdleTime;
+    private final Map<Key, Deque<Idle>> idle = new ConcurrentHashMap<>();
+
+    /**
+     * @param validationIdleTime the milliseconds an engine can stay idle before it is checked again
+     */
+    LdapConnectionPool(final String name, final long validationIdleTime) {
+        this.name = name;
+        this.validationIdleTime = validationIdleTime;
+    }
+
+    /**
+     * Borrows an idle engine, or opens a new one if there is none.
+     */
+    Lease acquire(final LdapEngine engine, final LdapConnectionSettings settings)
+            throws NamingException, IOException {
+        evictExpired();
+        final Key key = new Key(engine, settings);
+        final Deque<Idle> engines = idle.get(key);
+        if (engines != null) {
+            Idle candidate;
+            while ((candidate = engines.pollFirst()) != null) {
+                if (isAlive(candidate)) {
+                    return new Lease(this, key, candidate.engine);
+                }
+                candidate.engine.close();
+            }
+            removeIfEmpty(key);
+        }
+        return new Lease(this, key, open(engine, settings));
+    }
+
+    private boolean isAlive(final Idle candidate) {
+        if (!candidate.engine.isOpen()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - candidate.releasedAt <= validationIdleTime) {
+            return true;
+        }
+        try {
+            candidate.engine.read(ROOT_DSE, NO_ATTRIBUTES);
+            return true;
+        } catch (final NamingException | IOException | RuntimeException e) {
+            LOGGER.debug("Discarding a broken idle LDAP connection of the {} pool", name, e);
+            return false;
+        }
+    }
+
+    private void removeIfEmpty(final Key key) {
+        idle.computeIfPresent(key, (k, engines) -> engines.isEmpty() ? null : engines);
+    }
+
+    /**
+     * Opens engines until the given number of them are idle for these settings, within the idle limit per settings.
+     *
+     * @return the number of engines opened
+     */
+    int prewarm(final LdapEngine engine, final LdapConnectionSettings settings, final int count)
+            throws NamingException, IOException {
+        evictExpired();
+        final Key key = new Key(engine, settings);
+        final Deque<Idle> engines = idle.get(key);
+        final int missing = Math.min(count, MAX_IDLE_PER_KEY) - (engines == null ? 0 : engines.size());
+        for (int i = 0; i < missing; i++) {
+            release(key, open(engine, settings));
+        }
+        return Math.max(missing, 0);
+    }
+
+    private static LdapSearchEngine open(final LdapEngine engine, final LdapConnectionSettings settings)
+            throws NamingException, IOException {
+        final LdapSearchEngine searchEngine = engine.createSearchEngine(settings);
+        try {
+            searchEngine.open();
+        } catch (final NamingException | IOException | RuntimeException e) {
+            searchEngine.close();
+            throw e;
+        }
+        return searchEngine;
+    }
+
+    int idleCount() {
+        return idle.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * Closes every idle engine.
+     */
+    void clear() {
+        idle.forEach((key, engines) -> {
+            Idle candidate;
+            while ((candidate = engines.pollFirst()) != null) {
+                candidate.engine.close();
+            }
+            removeIfEmpty(key);
+        });
+    }
+
+    private void release(final Key key, final LdapSearchEngine engine) {
+        final AtomicBoolean kept = new AtomicBoolean();
+        if (engine.isOpen()) {
+            // added while holding the key, so that an emptied deque is not removed from the map in the meantime
+            idle.compute(key, (k, current) -> {
+                final Deque<Idle> engines = current == null ? new ConcurrentLinkedDeque<>() : current;
+                if (engines.size() < MAX_IDLE_PER_KEY) {
+                    // most recently used first, so that the least used engines expire
+                    engines.addFirst(new Idle(engine));
+                    kept.set(true);
+                }
+                return engines.isEmpty() ? null : engines;
+            });
+        }
+        if (!kept.get()) {
+            engine.close();
+        }
+    }
+
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<Key, Deque<Idle>> entry : idle.entrySet()) {
+            final Deque<Idle> engines = entry.getValue();
+            final Iterator<Idle> iterator = engines.descendingIterator();
+            while (iterator.hasNext()) {
+                final Idle candidate = iterator.next();
+                if (now - candidate.releasedAt > IDLE_TIMEOUT && engines.removeFirstOccurrence(candidate)) {
+                    LOGGER.debug("Closing an idle LDAP connection of the {} pool", name);
+                    candidate.engine.close();
+                }
+            }
+            removeIfEmpty(entry.getKey());
+        }
+    }
+
+    /**
+     * An engine borrowed from the pool, given back when the lease is closed.
+     */
+    static final class Lease implements Closeable {
+
+        private final LdapConnectionPool pool;
+        private final Key key;
+        private final LdapSearchEngine engine;
+        private boolean invalid;
+
+        private Lease(final LdapConnectionPool pool, final Key key, final LdapSearchEngine engine) {
+            this.pool = pool;
+            this.key = key;
+            this.engine = engine;
+        }
+
+        LdapSearchEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Closes the engine instead of giving it back, after an error that may have left its connection unusable.
+         */
+        void invalidate() {
+            invalid = true;
+        }
+
+        @Override
+        public void close() {
+            if (invalid) {
+                engine.close();
+            } else {
+                pool.release(key, engine);
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final LdapEngine engine;
+        private final LdapConnectionSettings settings;
+
+        private Key(final LdapEngine engine, final LdapConnectionSettings settings) {
+            this.engine = engine;
+            this.settings = settings;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return engine == other.engine && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(engine, settings);
+        }
+    }
+
+    private static final class Idle {
+
+        private final LdapSearchEngine engine;
+        private final long releasedAt = System.currentTimeMillis();
+
+        private Idle(final LdapSearchEngine engine) {
+            this.engine = engine;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.Objects;
+
+/**
+ * Everything needed to open a connection to a directory service.
+ */
+public final class LdapConnectionSettings {
+
+    private final String host;
+    private final int port;
+    private final LdapProtocol protocol;
+    private final String userName;
+    private final String password;
+    private final LdapDereferencingAlias derefAliases;
+    private final String referralHandling;
+
+    public LdapConnectionSettings(final String host, final int port, final LdapProtocol protocol, final String userName,
+            final String password, final LdapDereferencingAlias derefAliases, final String referralHandling) {
+        this.host = host;
+        this.port = port;
+        this.protocol = protocol;
+        this.userName = userName;
+        this.password = password;
+        this.derefAliases = derefAliases;
+        this.referralHandling = referralHandling;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public LdapProtocol getProtocol() {
+        return protocol;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public LdapDereferencingAlias getDerefAliases() {
+        return derefAliases;
+    }
+
+    public String getReferralHandling() {
+        return referralHandling;
+    }
+
+    /**
+     * @return true when a simple bind must be done with the user name and password
+     */
+    boolean isAuthenticated() {
+        return userName != null && password != null;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LdapConnectionSettings)) {
+            return false;
+        }
+        final LdapConnectionSettings other = (LdapConnectionSettings) obj;
+        return port == other.port && Objects.equals(host, other.host) && protocol == other.protocol
+                && Objects.equals(userName, other.userName) && Objects.equals(password, other.password)
+                && derefAliases == other.derefAliases && Objects.equals(referralHandling, other.referralHandling);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port, protocol, userName, password, derefAliases, referralHandling);
+    }
+
+    @Override
+    public String toString() {
+        return protocol + "://" + host + ":" + port + (userName != null ? " as " + userName : "");
+    }
+}
@@ -19,28 +19,17 @@ package org.bonitasoft.connectors.ldap;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
-import javax.naming.Context;
-import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
-import javax.naming.directory.SearchControls;
-import javax.naming.directory.SearchResult;
-import javax.naming.ldap.Control;
-import javax.naming.ldap.InitialLdapContext;
-import javax.naming.ldap.LdapContext;
-import javax.naming.ldap.PagedResultsControl;
-import javax.naming.ldap.PagedResultsResponseControl;
-import javax.naming.ldap.StartTlsRequest;
-import javax.naming.ldap.StartTlsResponse;
 
+import org.bonitasoft.engine.bpm.document.DocumentValue;
 import org.bonitasoft.engine.connector.AbstractConnector;
 import org.bonitasoft.engine.connector.ConnectorException;
 import org.bonitasoft.engine.connector.ConnectorValidationException;
@@ -48,7 +37,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This connector provides an LDAP service of querying directory service. This connector does the search operation.
+ * This connector provides an LDAP service of querying directory service. This connector does the search operation,
+ * and can apply batches of updates.
  *
  * @author Matthieu Chaffotte
  */
@@ -56,6 +46,11 @@ public class LdapConnector extends AbstractConnector {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(LdapConnector.class);
 
+    /**
+     * The attribute list asking the server to return no attribute (RFC 4511).
+     */
+    private static final String NO_ATTRIBUTES = "1.1";
+
     // Input
     public static final String HOST_PARAMETER = "host";
     public static final String PORT_PARAMETER = "port";
@@ -68,12 +63,61 @@ public class LdapConnector extends AbstractConnector {
     public static final String ATTRIBUTES_PARAMETER = "attributes";
     public static final String SIZE_LIMIT_PARAMETER = "sizeLimit";
     public static final String PAGE_SIZE_PARAMETER = "pageSize";
+    public static final String SEARCH_STRATEGY_PARAMETER = "searchStrategy";
     public static final String TIME_LIMIT_PARAMETER = "timeLimit";
     public static final String REFERRAL_HANDLING_PARAMETER = "referralHandling";
     public static final String DEREF_ALIASES_PARAMETER = "derefAliases";
+    public static final String ENGINE_PARAMETER = "engine";
+    public static final String MAX_PAGES_PARAMETER = "maxPages";
+    public static final String PREFETCH_PAGES_PARAMETER = "prefetchPages";
+    public static final String NEGATIVE_CACHE_TTL_PARAMETER = "negativeCacheTtl";
+    public static final String RESUME_TOKEN_PARAMETER = "resumeToken";
+    public static final String OUTPUT_MODE_PARAMETER = "outputMode";
+    public static final String EXPORT_FORMAT_PARAMETER = "exportFormat";
+    public static final String EXPORT_FILE_PARAMETER = "exportFile";
+    public static final String EXPORT_COLUMNS_PARAMETER = "exportColumns";
+    public static final String EXPORT_COMPRESSED_PARAMETER = "exportCompressed";
+    public static final String EXPORT_TO_DOCUMENT_PARAMETER = "exportToDocument";
+    public static final String COMPRESS_OUTPUT_PARAMETER = "compressOutput";
+    public static final String RESULT_MEMORY_BUDGET_PARAMETER = "resultMemoryBudget";
+    public static final String RESULT_MEMORY_POLICY_PARAMETER = "resultMemoryPolicy";
+    public static final String AGGREGATION_PARAMETER = "aggregation";
+    public static final String AGGREGATE_ATTRIBUTE_PARAMETER = "aggregateAttribute";
+    public static final String INDEX_ATTRIBUTES_PARAMETER = "indexAttributes";
+    public static final String INDEX_DUPLICATES_PARAMETER = "indexDuplicates";
+    public static final String INDEX_IGNORE_CASE_PARAMETER = "indexIgnoreCase";
+    public static final String FINGERPRINT_FILE_PARAMETER = "fingerprintFile";
+    public static final String FINGERPRINT_ATTRIBUTES_PARAMETER = "fingerprintAttributes";
+    public static final String OPERATION_PARAMETER = "operation";
+    public static final String CHANGES_PARAMETER = "changes";
+    public static final String TRANSACTIONAL_PARAMETER = "transactional";
+    public static final String STOP_ON_ERROR_PARAMETER = "stopOnError";
+    public static final String AUTHENTICATION_LOGIN_PARAMETER = "authenticationLogin";
+    public static final String AUTHENTICATION_PASSWORD_PARAMETER = "authenticationPassword";
+    public static final String AUTHENTICATION_FILTER_PARAMETER = "authenticationFilter";
+    public static final String FILTER_PARAMETERS_PARAMETER = "filterParameters";
+    public static final String INDEXED_ATTRIBUTES_PARAMETER = "indexedAttributes";
+    public static final String SORT_ATTRIBUTES_PARAMETER = "sortAttributes";
+    public static final String DEDUPLICATE_PARAMETER = "deduplicate";
+    public static final String SORT_MEMORY_BUDGET_PARAMETER = "sortMemoryBudget";
+    public static final String REFERENCE_ATTRIBUTES_PARAMETER = "referenceAttributes";
+    public static final String REFERENCED_ENTRY_ATTRIBUTES_PARAMETER = "referencedEntryAttributes";
 
     // Output
     public static final String LDAP_ATTRIBUTE_LIST_OUTPUT = "ldapAttributeList";
+    public static final String CONTINUATION_TOKEN_OUTPUT = "continuationToken";
+    public static final String SEARCH_PLAN_OUTPUT = "searchPlan";
+    public static final String EXPORTED_ENTRY_COUNT_OUTPUT = "exportedEntryCount";
+    public static final String EXPORT_DOCUMENT_OUTPUT = "exportDocument";
+    public static final String AGGREGATE_OUTPUT = "aggregate";
+    public static final String LDAP_INDEX_OUTPUT = "ldapIndex";
+    public static final String ADDED_DNS_OUTPUT = "addedDns";
+    public static final String MODIFIED_DNS_OUTPUT = "modifiedDns";
+    public static final String REMOVED_DNS_OUTPUT = "removedDns";
+    public static final String TRUNCATED_OUTPUT = "truncated";
+    public static final String WRITE_RESULTS_OUTPUT = "writeResults";
+    public static final String AUTHENTICATED_OUTPUT = "authenticated";
+    public static final String AUTHENTICATED_DN_OUTPUT = "authenticatedDn";
 
     /**
      * The host name of the directory service.
@@ -103,15 +147,138 @@ public class LdapConnector extends AbstractConnector {
     private String baseObject;
     private LdapScope scope = LdapScope.BASE;
     private String filter;
+
+    /**
+     * When set, the filter is a template where {0}, {1}... stand for these parameters, which need no escaping.
+     */
+    private List<?> filterParameters;
+
+    /**
+     * The attributes indexed by the server, to warn about filters that make it read every entry.
+     */
+    private String[] indexedAttributes;
+
+    /**
+     * Client side sort of the entries read by an execution, by attributes prefixed with - for a descending order,
+     * spilling to temporary files beyond the memory budget in megabytes. Without sort attributes, deduplicate sorts
+     * by DN.
+     */
+    private String[] sortAttributes;
+    private boolean deduplicate;
+    private Long sortMemoryBudget = 64L;
     private LdapDereferencingAlias derefAliases = LdapDereferencingAlias.ALWAYS;
     private String[] attributes;
     private Long sizeLimit = 0l;
     private Long pageSize = 0l;
+    private LdapSearchStrategy searchStrategy = LdapSearchStrategy.MANUAL;
     private Integer timeLimit = 0;
     private String referralHandling = "ignore";
 
+    /**
+     * The protocol engine running the operations.
+     */
+    private LdapEngine engine = LdapEngine.JNDI;
+
+    /**
+     * The number of pages a paged search reads per execution, 0 to read them all.
+     */
+    private Long maxPages = 0L;
+
+    /**
+     * The number of pages a paged search reads ahead of their handling, 0 to read each page once the previous one is
+     * handled.
+     */
+    private Long prefetchPages = 0L;
+
+    /**
+     * The seconds a search or a DN lookup that found nothing is answered without going to the server, 0 to always go.
+     */
+    private Long negativeCacheTtl = 0L;
+
+    /**
+     * The continuation token returned by a previous execution, to read the next pages of its search.
+     */
+    private String resumeToken;
+
+    private LdapOutputMode outputMode = LdapOutputMode.LIST;
+
+    /**
+     * The EXPORT output mode settings: the entries are written to the export file, or to a temporary file when only
+     * a document is wanted. The CSV columns default to the searched attributes.
+     */
+    private LdapExportFormat exportFormat = LdapExportFormat.LDIF;
+    private String exportFile;
+    private String[] exportColumns;
+    private boolean exportCompressed;
+    private boolean exportToDocument;
+
+    /**
+     * Deflate the ldapAttributeList output when it is serialized, which trades some CPU for a smaller process
+     * variable.
+     */
+    private boolean compressOutput;
+
+    /**
+     * The estimated size in megabytes the ldapAttributeList output may reach, 0 for no limit, and what to do beyond.
+     */
+    private Long resultMemoryBudget = 0L;
+    private LdapMemoryPolicy resultMemoryPolicy = LdapMemoryPolicy.FAIL;
+
+    /**
+     * The AGGREGATE output mode settings: only the aggregated attribute is read, and no attribute at all to count.
+     */
+    private LdapAggregation aggregation = LdapAggregation.COUNT;
+    private String aggregateAttribute;
+
+    /**
+     * The attributes whose values key the entries in the INDEX output mode.
+     */
+    private String[] indexAttributes;
+    private LdapIndexDuplicates indexDuplicates = LdapIndexDuplicates.FIRST;
+    private boolean indexIgnoreCase;
+
+    /**
+     * The file keeping the fingerprints of the entries between the runs of the DIFF output mode.
+     */
+    private String fingerprintFile;
+
+    /**
+     * The attributes making the fingerprint of an entry, null for all of the read ones.
+     */
+    private String[] fingerprintAttributes;
+
+    private LdapOperation operation = LdapOperation.SEARCH;
+
+    /**
+     * The WRITE operation settings: the LDIF change records to apply, on a pooled connection.
+     */
+    private String changes;
+    private boolean transactional;
+    private boolean stopOnError;
+
+    /**
+     * The AUTHENTICATE operation settings: the login is either a DN or the value the authentication filter looks
+     * for under the base object, in place of {0}.
+     */
+    private String authenticationLogin;
+    private String authenticationPassword;
+    private String authenticationFilter = "(uid={0})";
+
+    /**
+     * The attributes holding DNs, such as manager or member, to replace by attributes of the referenced entries in
+     * the LIST output mode.
+     */
+    private String[] referenceAttributes;
+    private String[] referencedEntryAttributes = { "cn" };
+
     // output
-    private List<List<LdapAttribute>> result = new ArrayList<>();
+    private List<List<LdapAttribute>> result = new LdapEntryList();
+
+    private long handledEntries;
+
+    private long resultSize;
+
+    private LdapSpilledEntryList spilledResult;
 
     private String getHost() {
         return host;
@@ -149,6 +316,26 @@ public class LdapConnector extends AbstractConnector {
         return filter;
     }
 
+    public List<?> getFilterParameters() {
+        return filterParameters;
+    }
+
+    public String[] getIndexedAttributes() {
+        return indexedAttributes;
+    }
+
+    public String[] getSortAttributes() {
+        return sortAttributes;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    public long getSortMemoryBudget() {
+        return sortMemoryBudget;
+    }
+
     public LdapDereferencingAlias getDerefAliases() {
         return derefAliases;
     }
@@ -165,6 +352,10 @@ public class LdapConnector extends AbstractConnector {
         return pageSize;
     }
 
+    public LdapSearchStrategy getSearchStrategy() {
+        return searchStrategy;
+    }
+
     public int getTimeLimit() {
         return timeLimit;
     }
@@ -177,6 +368,129 @@ public class LdapConnector extends AbstractConnector {
         return referralHandling;
     }
 
+    public LdapEngine getEngine() {
+        return engine;
+    }
+
+    public long getMaxPages() {
+        return maxPages;
+    }
+
+    public long getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    public long getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public LdapOutputMode getOutputMode() {
+        return outputMode;
+    }
+
+    public LdapExportFormat getExportFormat() {
+        return exportFormat;
+    }
+
+    public String getExportFile() {
+        return exportFile;
+    }
+
+    public String[] getExportColumns() {
+        if (exportColumns == null) {
+            return getAttributes();
+        }
+        return exportColumns;
+    }
+
+    public boolean isExportCompressed() {
+        return exportCompressed;
+    }
+
+    public boolean isExportToDocument() {
+        return exportToDocument;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    public long getResultMemoryBudget() {
+        return resultMemoryBudget;
+    }
+
+    public LdapMemoryPolicy getResultMemoryPolicy() {
+        return resultMemoryPolicy;
+    }
+
+    public LdapAggregation getAggregation() {
+        return aggregation;
+    }
+
+    public String getAggregateAttribute() {
+        return aggregateAttribute;
+    }
+
+    public String[] getIndexAttributes() {
+        return indexAttributes;
+    }
+
+    public LdapIndexDuplicates getIndexDuplicates() {
+        return indexDuplicates;
+    }
+
+    public boolean isIndexIgnoreCase() {
+        return indexIgnoreCase;
+    }
+
+    public String getFingerprintFile() {
+        return fingerprintFile;
+    }
+
+    public String[] getFingerprintAttributes() {
+        return fingerprintAttributes;
+    }
+
+    public LdapOperation getOperation() {
+        return operation;
+    }
+
+    public String getChanges() {
+        return changes;
+    }
+
+    public boolean isTransactional() {
+        return transactional;
+    }
+
+    public boolean isStopOnError() {
+        return stopOnError;
+    }
+
+    public String getAuthenticationLogin() {
+        return authenticationLogin;
+    }
+
+    public String getAuthenticationPassword() {
+        return authenticationPassword;
+    }
+
+    public String getAuthenticationFilter() {
+        return authenticationFilter;
+    }
+
+    public String[] getReferenceAttributes() {
+        return referenceAttributes;
+    }
+
+    public String[] getReferencedEntryAttributes() {
+        return referencedEntryAttributes;
+    }
+
     public void setHost(final String host) {
         this.host = host;
     }
@@ -241,6 +555,41 @@ public class LdapConnector extends AbstractConnector {
         this.filter = filter;
     }
 
+    public void setFilterParameters(final List<?> filterParameters) {
+        this.filterParameters = filterParameters;
+    }
+
+    public void setIndexedAttributes(final String indexedAttributes) {
+        if (indexedAttributes == null || "".equals(indexedAttributes.trim())) {
+            this.indexedAttributes = null;
+        } else {
+            this.indexedAttributes = Stream.of(indexedAttributes.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
+    public void setSortAttributes(final String sortAttributes) {
+        if (sortAttributes == null || "".equals(sortAttributes.trim())) {
+            this.sortAttributes = null;
+        } else {
+            this.sortAttributes = Stream.of(sortAttributes.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
+    public void setDeduplicate(final Boolean deduplicate) {
+        this.deduplicate = Boolean.TRUE.equals(deduplicate);
+    }
+
+    public void setSortMemoryBudget(final Long sortMemoryBudget) {
+        this.sortMemoryBudget = 64L;
+        if (sortMemoryBudget != null) {
+            this.sortMemoryBudget = sortMemoryBudget;
+        }
+    }
+
     public void setDerefAliases(final LdapDereferencingAlias derefAliases) {
         this.derefAliases = derefAliases;
     }
@@ -294,6 +643,17 @@ public class LdapConnector extends AbstractConnector {
         }
     }
 
+    public void setSearchStrategy(final LdapSearchStrategy searchStrategy) {
+        this.searchStrategy = searchStrategy;
+    }
+
+    public void setSearchStrategy(final String searchStrategy) {
+        this.searchStrategy = LdapSearchStrategy.MANUAL;
+        if (searchStrategy != null && !searchStrategy.isEmpty()) {
+            this.searchStrategy = LdapSearchStrategy.valueOf(searchStrategy.toUpperCase());
+        }
+    }
+
     /**
      * Sets the time-limit during a search in seconds.
      * @param timeLimit, the search time limit in seconds
@@ -318,6 +678,225 @@ public class LdapConnector extends AbstractConnector {
         this.referralHandling = referralHandling;
     }
 
+    public void setEngine(final LdapEngine engine) {
+        this.engine = engine;
+    }
+
+    public void setEngine(final String engine) {
+        this.engine = LdapEngine.JNDI;
+        if (engine != null && engine.toUpperCase().equals(LdapEngine.NIO.toString())) {
+            this.engine = LdapEngine.NIO;
+        }
+    }
+
+    public void setMaxPages(final long maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    public void setMaxPages(final Long maxPages) {
+        if (maxPages == null) {
+            setMaxPages(0L);
+        } else {
+            setMaxPages(maxPages.longValue());
+        }
+    }
+
+    public void setPrefetchPages(final Long prefetchPages) {
+        this.prefetchPages = 0L;
+        if (prefetchPages != null) {
+            this.prefetchPages = prefetchPages;
+        }
+    }
+
+    public void setNegativeCacheTtl(final Long negativeCacheTtl) {
+        this.negativeCacheTtl = 0L;
+        if (negativeCacheTtl != null) {
+            this.negativeCacheTtl = negativeCacheTtl;
+        }
+    }
+
+    public void setResumeToken(final String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    public void setOutputMode(final LdapOutputMode outputMode) {
+        this.outputMode = outputMode;
+    }
+
+    public void setOutputMode(final String outputMode) {
+        this.outputMode = LdapOutputMode.LIST;
+        if (outputMode != null && !outputMode.isEmpty()) {
+            this.outputMode = LdapOutputMode.valueOf(outputMode.toUpperCase());
+        }
+    }
+
+    public void setExportFormat(final LdapExportFormat exportFormat) {
+        this.exportFormat = exportFormat;
+    }
+
+    public void setExportFormat(final String exportFormat) {
+        this.exportFormat = LdapExportFormat.LDIF;
+        if (exportFormat != null && !exportFormat.isEmpty()) {
+            this.exportFormat = LdapExportFormat.valueOf(exportFormat.toUpperCase());
+        }
+    }
+
+    public void setExportFile(final String exportFile) {
+        this.exportFile = exportFile;
+    }
+
+    public void setExportColumns(final String exportColumns) {
+        if (exportColumns == null || "".equals(exportColumns.trim())) {
+            this.exportColumns = null;
+        } else {
+            this.exportColumns = Stream.of(exportColumns.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
+    public void setExportCompressed(final Boolean exportCompressed) {
+        this.exportCompressed = Boolean.TRUE.equals(exportCompressed);
+    }
+
+    public void setExportToDocument(final Boolean exportToDocument) {
+        this.exportToDocument = Boolean.TRUE.equals(exportToDocument);
+    }
+
+    public void setCompressOutput(final Boolean compressOutput) {
+        this.compressOutput = Boolean.TRUE.equals(compressOutput);
+    }
+
+    public void setResultMemoryBudget(final Long resultMemoryBudget) {
+        this.resultMemoryBudget = 0L;
+        if (resultMemoryBudget != null) {
+            this.resultMemoryBudget = resultMemoryBudget;
+        }
+    }
+
+    public void setResultMemoryPolicy(final LdapMemoryPolicy resultMemoryPolicy) {
+        this.resultMemoryPolicy = resultMemoryPolicy;
+    }
+
+    public void setResultMemoryPolicy(final String resultMemoryPolicy) {
+        this.resultMemoryPolicy = LdapMemoryPolicy.FAIL;
+        if (resultMemoryPolicy != null && !resultMemoryPolicy.isEmpty()) {
+            this.resultMemoryPolicy = LdapMemoryPolicy.valueOf(resultMemoryPolicy.toUpperCase());
+        }
+    }
+
+    public void setAggregation(final LdapAggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
+    public void setAggregation(final String aggregation) {
+        this.aggregation = LdapAggregation.COUNT;
+        if (aggregation != null && !aggregation.isEmpty()) {
+            this.aggregation = LdapAggregation.valueOf(aggregation.toUpperCase());
+        }
+    }
+
+    public void setAggregateAttribute(final String aggregateAttribute) {
+        this.aggregateAttribute = aggregateAttribute == null || aggregateAttribute.trim().isEmpty() ? null
+                : aggregateAttribute.trim();
+    }
+
+    public void setIndexAttributes(final String indexAttributes) {
+        if (indexAttributes == null || "".equals(indexAttributes.trim())) {
+            this.indexAttributes = null;
+        } else {
+            this.indexAttributes = Stream.of(indexAttributes.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
+    public void setIndexDuplicates(final LdapIndexDuplicates indexDuplicates) {
+        this.indexDuplicates = indexDuplicates;
+    }
+
+    public void setIndexDuplicates(final String indexDuplicates) {
+        this.indexDuplicates = LdapIndexDuplicates.FIRST;
+        if (indexDuplicates != null && !indexDuplicates.isEmpty()) {
+            this.indexDuplicates = LdapIndexDuplicates.valueOf(indexDuplicates.toUpperCase());
+        }
+    }
+
+    public void setIndexIgnoreCase(final Boolean indexIgnoreCase) {
+        this.indexIgnoreCase = Boolean.TRUE.equals(indexIgnoreCase);
+    }
+
+    public void setFingerprintFile(final String fingerprintFile) {
+        this.fingerprintFile = fingerprintFile;
+    }
+
+    public void setFingerprintAttributes(final String fingerprintAttributes) {
+        if (fingerprintAttributes == null || "".equals(fingerprintAttributes.trim())) {
+            this.fingerprintAttributes = null;
+        } else {
+            this.fingerprintAttributes = Stream.of(fingerprintAttributes.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
+    public void setOperation(final LdapOperation operation) {
+        this.operation = operation;
+    }
+
+    public void setOperation(final String operation) {
+        this.operation = LdapOperation.SEARCH;
+        if (operation != null && !operation.isEmpty()) {
+            this.operation = LdapOperation.valueOf(operation.toUpperCase());
+        }
+    }
+
+    public void setChanges(final String changes) {
+        this.changes = changes;
+    }
+
+    public void setTransactional(final Boolean transactional) {
+        this.transactional = Boolean.TRUE.equals(transactional);
+    }
+
+    public void setStopOnError(final Boolean stopOnError) {
+        this.stopOnError = Boolean.TRUE.equals(stopOnError);
+    }
+
+    public void setAuthenticationLogin(final String authenticationLogin) {
+        this.authenticationLogin = authenticationLogin;
+    }
+
+    public void setAuthenticationPassword(final String authenticationPassword) {
+        this.authenticationPassword = authenticationPassword;
+    }
+
+    public void setAuthenticationFilter(final String authenticationFilter) {
+        this.authenticationFilter = "(uid={0})";
+        if (authenticationFilter != null && !authenticationFilter.trim().isEmpty()) {
+            this.authenticationFilter = authenticationFilter.trim();
+        }
+    }
+
+    public void setReferenceAttributes(final String referenceAttributes) {
+        if (referenceAttributes == null || "".equals(referenceAttributes.trim())) {
+            this.referenceAttributes = null;
+        } else {
+            this.referenceAttributes = Stream.of(referenceAttributes.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
+    public void setReferencedEntryAttributes(final String referencedEntryAttributes) {
+        this.referencedEntryAttributes = new String[] { "cn" };
+        if (referencedEntryAttributes != null && !"".equals(referencedEntryAttributes.trim())) {
+            this.referencedEntryAttributes = Stream.of(referencedEntryAttributes.split(","))
+                    .map(String::trim)
+                    .toArray(String[]::new);
+        }
+    }
+
     @Override
     public void setInputParameters(Map<String, Object> parameters) {
         setHost((String) parameters.get(HOST_PARAMETER));
@@ -328,152 +907,479 @@ public class LdapConnector extends AbstractConnector {
         setBaseObject((String) parameters.get(BASE_OBJECT_PARAMETER));
         setScope((String) parameters.get(SCOPE_PARAMETER));
         setFilter((String) parameters.get(FILTER_PARAMETER));
+        setFilterParameters((List<?>) parameters.get(FILTER_PARAMETERS_PARAMETER));
+        setIndexedAttributes((String) parameters.get(INDEXED_ATTRIBUTES_PARAMETER));
+        setSortAttributes((String) parameters.get(SORT_ATTRIBUTES_PARAMETER));
+        setDeduplicate((Boolean) parameters.get(DEDUPLICATE_PARAMETER));
+        setSortMemoryBudget((Long) parameters.get(SORT_MEMORY_BUDGET_PARAMETER));
         setAttributes((String) parameters.get(ATTRIBUTES_PARAMETER));
         setSizeLimit((Long) parameters.get(SIZE_LIMIT_PARAMETER));
         setPageSize((Long) parameters.get(PAGE_SIZE_PARAMETER));
+        setSearchStrategy((String) parameters.get(SEARCH_STRATEGY_PARAMETER));
         setTimeLimit((Long) parameters.get(TIME_LIMIT_PARAMETER));
         setReferralHandling((String) parameters.get(REFERRAL_HANDLING_PARAMETER));
         setDerefAliases((String) parameters.get(DEREF_ALIASES_PARAMETER));
+        setEngine((String) parameters.get(ENGINE_PARAMETER));
+        setMaxPages((Long) parameters.get(MAX_PAGES_PARAMETER));
+        setPrefetchPages((Long) parameters.get(PREFETCH_PAGES_PARAMETER));
+        setNegativeCacheTtl((Long) parameters.get(NEGATIVE_CACHE_TTL_PARAMETER));
+        setResumeToken((String) parameters.get(RESUME_TOKEN_PARAMETER));
+        setOutputMode((String) parameters.get(OUTPUT_MODE_PARAMETER));
+        setExportFormat((String) parameters.get(EXPORT_FORMAT_PARAMETER));
+        setExportFile((String) parameters.get(EXPORT_FILE_PARAMETER));
+        setExportColumns((String) parameters.get(EXPORT_COLUMNS_PARAMETER));
+        setExportCompressed((Boolean) parameters.get(EXPORT_COMPRESSED_PARAMETER));
+        setExportToDocument((Boolean) parameters.get(EXPORT_TO_DOCUMENT_PARAMETER));
+        setCompressOutput((Boolean) parameters.get(COMPRESS_OUTPUT_PARAMETER));
+        setResultMemoryBudget((Long) parameters.get(RESULT_MEMORY_BUDGET_PARAMETER));
+        setResultMemoryPolicy((String) parameters.get(RESULT_MEMORY_POLICY_PARAMETER));
+        setAggregation((String) parameters.get(AGGREGATION_PARAMETER));
+        setAggregateAttribute((String) parameters.get(AGGREGATE_ATTRIBUTE_PARAMETER));
+        setIndexAttributes((String) parameters.get(INDEX_ATTRIBUTES_PARAMETER));
+        setIndexDuplicates((String) parameters.get(INDEX_DUPLICATES_PARAMETER));
+        setIndexIgnoreCase((Boolean) parameters.get(INDEX_IGNORE_CASE_PARAMETER));
+        setFingerprintFile((String) parameters.get(FINGERPRINT_FILE_PARAMETER));
+        setFingerprintAttributes((String) parameters.get(FINGERPRINT_ATTRIBUTES_PARAMETER));
+        setOperation((String) parameters.get(OPERATION_PARAMETER));
+        setChanges((String) parameters.get(CHANGES_PARAMETER));
+        setTransactional((Boolean) parameters.get(TRANSACTIONAL_PARAMETER));
+        setStopOnError((Boolean) parameters.get(STOP_ON_ERROR_PARAMETER));
+        setAuthenticationLogin((String) parameters.get(AUTHENTICATION_LOGIN_PARAMETER));
+        setAuthenticationPassword((String) parameters.get(AUTHENTICATION_PASSWORD_PARAMETER));
+        setAuthenticationFilter((String) parameters.get(AUTHENTICATION_FILTER_PARAMETER));
+        setReferenceAttributes((String) parameters.get(REFERENCE_ATTRIBUTES_PARAMETER));
+        setReferencedEntryAttributes((String) parameters.get(REFERENCED_ENTRY_ATTRIBUTES_PARAMETER));
+    }
+
+    LdapConnectionSettings getConnectionSettings() {
+        return new LdapConnectionSettings(getHost(), getPort(), getProtocol(), getUserName(), getPassword(),
+                getDerefAliases(), getReferralHandling());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the filter is a template that cannot be bound to the filter parameters
+     */
+    LdapSearchRequest getSearchRequest() {
+        final LdapFilter boundFilter = getFilterParameters() != null ? bindFilter() : null;
+        final LdapSearchRequest request = new LdapSearchRequest(getBaseObject(),
+                boundFilter != null ? boundFilter.toString() : getFilter(), getScope(), getSearchedAttributes(),
+                getSizeLimit(), getTimeLimit(), getPageSize());
+        request.setParsedFilter(boundFilter);
+        request.setMaxPages((int) getMaxPages());
+        return request;
     }
 
-    private Hashtable<String, String> getEnvironment() {
-        final Hashtable<String, String> environment = new Hashtable<>();
-        environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        environment.put(Context.PROVIDER_URL, "ldap://" + getHost() + ":" + getPort());
-        if (getProtocol().equals(LdapProtocol.LDAPS)) {
-            environment.put(Context.SECURITY_PROTOCOL, "ssl");
+    /**
+     * @return the attributes to read: only the aggregated one in the AGGREGATE output mode, none to count
+     */
+    private String[] getSearchedAttributes() {
+        if (!LdapOutputMode.AGGREGATE.equals(getOutputMode())) {
+            return getAttributes();
         }
-        if (!LdapProtocol.TLS.equals(getProtocol()) && getUserName() != null && getPassword() != null) {
-            environment.put(Context.SECURITY_AUTHENTICATION, "simple");
-            environment.put(Context.SECURITY_PRINCIPAL, getUserName());
-            environment.put(Context.SECURITY_CREDENTIALS, getPassword());
-        } else {
-            environment.put(Context.SECURITY_AUTHENTICATION, "none");
+        if (LdapAggregation.COUNT.equals(getAggregation())) {
+            return new String[] { NO_ATTRIBUTES };
         }
-        environment.put("java.naming.ldap.derefAliases", getDerefAliases().toString().toLowerCase());
-        environment.put(Context.REFERRAL, getReferralHandling());
-        return environment;
+        return new String[] { getAggregateAttribute() };
     }
 
-    @Override
-    protected void executeBusinessLogic() throws ConnectorException {
-        final Hashtable<String, String> env = getEnvironment();
-        final LdapContext ctx;
+    private LdapFilter bindFilter() {
         try {
-            ctx = new InitialLdapContext(env, null);
+            return LdapFilterTemplate.compile(getFilter()).bind(getFilterParameters());
         } catch (final NamingException e) {
-            throw new ConnectorException(e);
+            throw new IllegalArgumentException("filter is not a valid filter template: " + e.getMessage(), e);
+        }
+    }
+
+    private LdapContinuationToken getContinuationToken() {
+        if (resumeToken == null || resumeToken.trim().isEmpty()) {
+            return null;
         }
+        return LdapContinuationToken.decode(resumeToken.trim());
+    }
 
-        StartTlsResponse response = null;
+    @Override
+    protected void executeBusinessLogic() throws ConnectorException {
+        result = new LdapEntryList(isCompressOutput());
+        resultSize = 0;
+        spilledResult = null;
         try {
-            if (LdapProtocol.TLS.equals(getProtocol())) {
-                final StartTlsRequest request = new StartTlsRequest();
-                response = (StartTlsResponse) ctx.extendedOperation(request);
-                response.negotiate();
-                if (getUserName() != null && getPassword() != null) {
-                    ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
-                    ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, getUserName());
-                    ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, getPassword());
-                }
-            }
-            final SearchControls ctls = new SearchControls();
-            ctls.setTimeLimit(getTimeLimit() * 1000);
-            ctls.setCountLimit(getSizeLimit());
-            ctls.setReturningAttributes(getAttributes());
-            ctls.setSearchScope(getScope().value());
-            if (getPageSize() > 0) {
-                doPagedSearch(ctx, ctls);
+            if (LdapOperation.WRITE.equals(getOperation())) {
+                write();
+            } else if (LdapOperation.AUTHENTICATE.equals(getOperation())) {
+                authenticate();
+            } else if (LdapOutputMode.EXPORT.equals(getOutputMode())) {
+                export();
+            } else if (LdapOutputMode.AGGREGATE.equals(getOutputMode())) {
+                aggregate();
+            } else if (LdapOutputMode.INDEX.equals(getOutputMode())) {
+                index();
+            } else if (LdapOutputMode.DIFF.equals(getOutputMode())) {
+                diff();
             } else {
-                doNonPagedSearch(ctx, ctls);
+                list();
             }
             setOutputParameter(LDAP_ATTRIBUTE_LIST_OUTPUT, result);
-        } catch(IOException | NamingException e) {
+        } catch (IOException | NamingException e) {
             throw new ConnectorException(e);
-        } finally {
-            if (response != null) {
-                try {
-                    response.close();
-                } catch (final IOException e) {
-                    LOGGER.error("Error closing the StartTlsResponse", e);
+        }
+    }
+
+    /**
+     * Collects the entries in the ldapAttributeList output, within the result memory budget, and sets the truncated
+     * output.
+     */
+    private void list() throws IOException, NamingException {
+        boolean truncated = false;
+        try {
+            search(this::addSearchResult);
+        } catch (final LdapMemoryBudgetExceededException e) {
+            if (!LdapMemoryPolicy.TRUNCATE.equals(getResultMemoryPolicy())) {
+                throw e;
+            }
+            LOGGER.warn("{} The result is truncated.", e.getMessage());
+            truncated = true;
+        }
+        if (getReferenceAttributes() != null) {
+            final LdapSpan span = LdapTracing.startSpan(LdapTracing.CONVERT)
+                    .setAttribute(LdapTracing.ENTRY_COUNT, result.size());
+            try {
+                new LdapReferenceResolver(getEngine(), getConnectionSettings(), getReferenceAttributes(),
+                        getReferencedEntryAttributes(), getNegativeCacheTtl() * 1000).resolve(result,
+                                this::addReferencedSize);
+            } catch (final LdapMemoryBudgetExceededException e) {
+                if (!LdapMemoryPolicy.TRUNCATE.equals(getResultMemoryPolicy())) {
+                    LdapTracing.fail(span, e);
+                    throw e;
                 }
+                LOGGER.warn("{} The result is truncated.", e.getMessage());
+                truncated = true;
+            } catch (final IOException | NamingException | RuntimeException e) {
+                LdapTracing.fail(span, e);
+                throw e;
+            } finally {
+                span.close();
             }
+        }
+        setOutputParameter(TRUNCATED_OUTPUT, truncated);
+    }
 
+    /**
+     * Runs the search, and hands the entries to the handler in the order the server sends them, or sorted if asked
+     * for.
+     */
+    private LdapSearchOutcome search(final LdapEntryHandler handler) throws IOException, NamingException {
+        if (getSortAttributes() == null && !isDeduplicate()) {
+            return searchPages(handler);
+        }
+        try (LdapEntrySorter sorter = new LdapEntrySorter(
+                getSortAttributes() != null ? getSortAttributes() : new String[0], isDeduplicate(),
+                getSortMemoryBudget() * 1024 * 1024)) {
+            final LdapSearchOutcome outcome = searchPages(sorter);
+            final LdapSpan span = LdapTracing.startSpan(LdapTracing.CONVERT)
+                    .setAttribute(LdapTracing.ENTRY_COUNT, outcome.getEntryCount());
             try {
-                ctx.close();
-            } catch (final NamingException e) {
-                LOGGER.error("Error closing the LDAP context", e);
+                sorter.sortTo(handler);
+            } catch (final IOException | RuntimeException e) {
+                LdapTracing.fail(span, e);
+                throw e;
+            } finally {
+                span.close();
             }
+            return outcome;
         }
-
     }
 
-    private void addSearchResult(SearchResult sr) throws NamingException {
-        final Attributes attribs = sr.getAttributes();
-        final NamingEnumeration<? extends Attribute> enume = attribs.getAll();
-        final List<LdapAttribute> elements = new ArrayList<>();
-        while (enume.hasMore()) {
-            final Attribute attribute = enume.next();
-            final NamingEnumeration<?> all = attribute.getAll();
-            while (all.hasMore()) {
-                final Object key = all.next();
-                String value;
-                if (key instanceof byte[]) {
-                    value = new String((byte[]) key, StandardCharsets.UTF_8);
+    /**
+     * Runs the search, resuming it if a continuation token is given, and sets the continuationToken output.
+     */
+    private LdapSearchOutcome searchPages(final LdapEntryHandler handler) throws IOException, NamingException {
+        final LdapSearchRequest request = getSearchRequest();
+        if (getIndexedAttributes() != null
+                && !LdapFilterTemplate.isIndexed(request.getParsedFilter(), getIndexedAttributes())) {
+            LOGGER.warn("The filter {} cannot be resolved with the indexes of {}: the server may read every entry "
+                    + "under {}", request.getFilter(), String.join(",", getIndexedAttributes()), request.getBaseObject());
+        }
+        final LdapContinuationToken token = getContinuationToken();
+        // a resumed search goes on where it stopped, whatever the misses recorded meanwhile
+        final String missKey = token == null && getNegativeCacheTtl() > 0
+                ? LdapNegativeCache.searchKey(getConnectionSettings(), request)
+                : null;
+        handledEntries = 0;
+        if (missKey != null && LdapNegativeCache.isMissing(missKey)) {
+            LOGGER.debug("The search {} under {} found nothing recently", request.getFilter(), request.getBaseObject());
+            setOutputParameter(CONTINUATION_TOKEN_OUTPUT, null);
+            return new LdapSearchOutcome(0, 0);
+        }
+        final LdapEntryHandler countingHandler = (dn, attributes) -> {
+            handledEntries++;
+            handler.handleEntry(dn, attributes);
+        };
+        // a search left unfinished keeps its engine in the session registry, any other gives it back to the pool
+        LdapConnectionPool.Lease lease = null;
+        LdapSearchEngine searchEngine = null;
+        boolean parked = false;
+        try {
+            LdapSearchOutcome outcome = null;
+            if (token != null) {
+                request.setCookie(token.getCookie());
+                searchEngine = LdapSessionRegistry.take(token.getSessionId(),
+                        LdapSessionRegistry.identity(getConnectionSettings()));
+                if (searchEngine != null) {
+                    outcome = resumeSearch(searchEngine, request, token, countingHandler);
+                }
+                if (outcome == null) {
+                    LOGGER.warn("Paging session {} not available, resuming the search on a new connection: "
+                            + "the server may reject a cookie issued on another connection", token.getSessionId());
+                }
+            }
+            if (outcome == null) {
+                lease = LdapConnectionPool.OPERATIONS.acquire(getEngine(), getConnectionSettings());
+                searchEngine = lease.getEngine();
+                if (LdapSearchStrategy.AUTO.equals(getSearchStrategy())) {
+                    outcome = searchWithPlan(searchEngine, request, countingHandler);
                 } else {
-                    value = key.toString();
+                    outcome = runSearch(searchEngine, request, countingHandler);
                 }
-                elements.add(new LdapAttribute(attribute.getID(), value));
             }
+            if (missKey != null && outcome.isComplete() && handledEntries == 0) {
+                LdapNegativeCache.put(missKey, getNegativeCacheTtl() * 1000);
+            }
+            String continuationToken = null;
+            if (!outcome.isComplete()) {
+                final String sessionId = token != null ? token.getSessionId() : LdapSessionRegistry.newSessionId();
+                LdapSessionRegistry.park(sessionId, LdapSessionRegistry.identity(getConnectionSettings()),
+                        searchEngine);
+                parked = true;
+                continuationToken = new LdapContinuationToken(sessionId,
+                        LdapContinuationToken.server(getConnectionSettings()), LdapContinuationToken.fingerprint(request),
+                        outcome.getCookie()).encode();
+            }
+            setOutputParameter(CONTINUATION_TOKEN_OUTPUT, continuationToken);
+            return outcome;
+        } catch (final IOException | NamingException | RuntimeException e) {
+            if (lease != null) {
+                // the search may have been left half read on the connection
+                lease.invalidate();
+            }
+            throw e;
+        } finally {
+            if (!parked && lease != null) {
+                lease.close();
+            } else if (!parked && searchEngine != null) {
+                searchEngine.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the search as planned from the previous executions of the same search, and sets the searchPlan output.
+     */
+    private LdapSearchOutcome searchWithPlan(final LdapSearchEngine searchEngine, final LdapSearchRequest request,
+            final LdapEntryHandler handler) throws IOException, NamingException {
+        // the filter template rather than the bound filter, so that the executions with other parameters count
+        final String query = String.join("|", LdapContinuationToken.server(getConnectionSettings()), getBaseObject(),
+                getScope().name(), getFilter());
+        final LdapSearchPlanner.Plan plan = LdapSearchPlanner.plan(searchEngine, getConnectionSettings(), query,
+                request);
+        LOGGER.debug("Search plan of {}: {}", getFilter(), plan);
+        setOutputParameter(SEARCH_PLAN_OUTPUT, plan.toString());
+        final long start = System.nanoTime();
+        final LdapSearchOutcome outcome = runSearch(searchEngine, request.copy(request.getAttributes(),
+                plan.getPageSize()), handler);
+        LdapSearchPlanner.record(query, outcome.getEntryCount(), System.nanoTime() - start);
+        return outcome;
+    }
+
+    /**
+     * Runs the search on the engine, reading the pages ahead of the handler if asked for.
+     */
+    private LdapSearchOutcome runSearch(final LdapSearchEngine searchEngine, final LdapSearchRequest request,
+            final LdapEntryHandler handler) throws IOException, NamingException {
+        if (getPrefetchPages() > 0 && request.isPaged()) {
+            return new LdapPagePrefetcher(searchEngine, request, (int) Math.min(getPrefetchPages(), Integer.MAX_VALUE))
+                    .search(handler);
+        }
+        return searchEngine.search(request, handler);
+    }
+
+    /**
+     * Reads the next pages on the connection kept by the previous execution.
+     *
+     * @return the outcome, or null if the connection is not usable anymore and nothing was read
+     */
+    private LdapSearchOutcome resumeSearch(final LdapSearchEngine searchEngine, final LdapSearchRequest request,
+            final LdapContinuationToken token, final LdapEntryHandler handler) throws IOException, NamingException {
+        try {
+            return runSearch(searchEngine, request, handler);
+        } catch (final IOException | NamingException e) {
+            if (handledEntries > 0) {
+                throw e;
+            }
+            // the server may have closed the connection kept since the previous execution
+            LOGGER.debug("Paging session {} is not usable anymore", token.getSessionId(), e);
+            searchEngine.close();
+            return null;
         }
-        if (!elements.isEmpty()) {
-            result.add(elements);
+    }
+
+    /**
+     * Writes the entries to the export file as they are read, and to a document if asked for.
+     */
+    private void export() throws IOException, NamingException {
+        final boolean temporary = exportFile == null || exportFile.trim().isEmpty();
+        final String extension = getExportFormat().getExtension() + (isExportCompressed() ? ".gz" : "");
+        final Path file = temporary ? Files.createTempFile("ldap-export", "." + extension)
+                : Paths.get(exportFile.trim());
+        try {
+            final boolean resumed = getContinuationToken() != null;
+            final LdapExportWriter writer = LdapExportWriter.open(file, getExportFormat(), getExportColumns(),
+                    isExportCompressed(), resumed);
+            try (writer) {
+                search(writer);
+            }
+            setOutputParameter(EXPORTED_ENTRY_COUNT_OUTPUT, writer.getEntryCount());
+            if (isExportToDocument()) {
+                final String fileName = temporary ? "ldap-export." + extension : file.getFileName().toString();
+                setOutputParameter(EXPORT_DOCUMENT_OUTPUT, new DocumentValue(Files.readAllBytes(file),
+                        isExportCompressed() ? "application/gzip" : getExportFormat().getMimeType(), fileName));
+            }
+        } finally {
+            if (temporary) {
+                Files.deleteIfExists(file);
+            }
         }
     }
 
-    private void doNonPagedSearch(LdapContext ctx, SearchControls ctls) throws NamingException {
-        final NamingEnumeration<SearchResult> answer = ctx.search(getBaseObject(), getFilter(), ctls);
-        long count = getSizeLimit();
-        // count is useful in case of the size-limit is defined
-        // the search method does not care about size-limit. It returns all entries
-        // which match with the filter.
-        if (count == 0) {
-            count = Long.MAX_VALUE;
+    /**
+     * Computes the aggregate as the entries are read and sets the aggregate output.
+     */
+    private void aggregate() throws IOException, NamingException {
+        final LdapAggregator aggregator = LdapAggregator.create(getAggregation(), getAggregateAttribute());
+        search(aggregator);
+        setOutputParameter(AGGREGATE_OUTPUT, aggregator.getResult());
+    }
+
+    /**
+     * Indexes the entries by their key values as they are read and sets the ldapIndex output.
+     */
+    private void index() throws IOException, NamingException {
+        final LdapIndexBuilder builder = new LdapIndexBuilder(getIndexAttributes(), getIndexDuplicates(),
+                isIndexIgnoreCase());
+        search(builder);
+        if (builder.getDuplicateCount() > 0) {
+            LOGGER.warn("{} keys of {} are shared by several entries, the {} policy applied",
+                    builder.getDuplicateCount(), String.join(",", getIndexAttributes()), getIndexDuplicates());
         }
-        result = new ArrayList<>();
-        while (count > 0 && answer.hasMore()) {
-            final SearchResult sr = answer.next();
-            count--;
-            addSearchResult(sr);
+        setOutputParameter(LDAP_INDEX_OUTPUT, builder.getIndex());
+    }
+
+    /**
+     * Compares the fingerprints of the entries with those of the previous run as they are read, replaces the
+     * fingerprint file and sets the addedDns, modifiedDns and removedDns outputs.
+     */
+    private void diff() throws IOException, NamingException {
+        try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(Paths.get(getFingerprintFile().trim()),
+                getFingerprintAttributes())) {
+            search(diff);
+            diff.finish();
+            LOGGER.debug("{} entries added, {} modified and {} removed since the previous run",
+                    diff.getAdded().size(), diff.getModified().size(), diff.getRemoved().size());
+            setOutputParameter(ADDED_DNS_OUTPUT, diff.getAdded());
+            setOutputParameter(MODIFIED_DNS_OUTPUT, diff.getModified());
+            setOutputParameter(REMOVED_DNS_OUTPUT, diff.getRemoved());
         }
     }
 
-    private void doPagedSearch(LdapContext ctx, SearchControls ctls) throws NamingException, IOException {
-        result = new ArrayList<>();
-        byte[] cookie = null;
-        ctx.setRequestControls(new Control[] {new PagedResultsControl((int) getPageSize(), Control.NONCRITICAL)});
-        do {
-            NamingEnumeration<SearchResult> answer = ctx.search(getBaseObject(), getFilter(), ctls);
-            while (answer.hasMoreElements()) {
-                final SearchResult sr = answer.next();
-                addSearchResult(sr);
+    /**
+     * Applies the change records on a pooled connection and sets the writeResults output.
+     */
+    private void write() throws IOException, NamingException {
+        final List<LdapWriteOperation> operations = LdapWriteOperation.parse(getChanges());
+        final List<LdapWriteResult> results;
+        try (LdapConnectionPool.Lease lease = LdapConnectionPool.OPERATIONS.acquire(getEngine(), getConnectionSettings())) {
+            try {
+                results = lease.getEngine().write(operations, isTransactional(), isStopOnError());
+            } catch (final IOException | NamingException e) {
+                lease.invalidate();
+                throw e;
             }
-            Control[] controls = ctx.getResponseControls();
-            if (controls != null) {
-                for (Control control : controls) {
-                    if (control instanceof PagedResultsResponseControl) {
-                        PagedResultsResponseControl prrc = (PagedResultsResponseControl) control;
-                        cookie = prrc.getCookie();
-                    }
-                }
+        }
+        final long failures = results.stream().filter(writeResult -> !writeResult.isSuccess()).count();
+        if (failures < results.size()) {
+            // an added or renamed entry may match the searches and DNs that found nothing
+            LdapNegativeCache.invalidate(getConnectionSettings().getHost(), getConnectionSettings().getPort());
+        }
+        if (failures > 0) {
+            LOGGER.warn("{} of the {} LDAP write operations failed", failures, results.size());
+        }
+        setOutputParameter(WRITE_RESULTS_OUTPUT, new ArrayList<>(results));
+    }
+
+    /**
+     * Verifies the credentials of the user and sets the authenticated and authenticatedDn outputs.
+     */
+    private void authenticate() throws IOException, NamingException {
+        final String dn = new LdapAuthenticator(getEngine(), getConnectionSettings(), getNegativeCacheTtl() * 1000)
+                .authenticate(getBaseObject(), getScope(), getAuthenticationFilter(),
+                        getAuthenticationLogin().trim(), getAuthenticationPassword());
+        setOutputParameter(AUTHENTICATED_OUTPUT, dn != null);
+        setOutputParameter(AUTHENTICATED_DN_OUTPUT, dn);
+    }
+
+    private void addSearchResult(final String dn, final List<LdapAttribute> elements) throws IOException {
+        if (elements.isEmpty()) {
+            return;
+        }
+        if (spilledResult != null) {
+            spilledResult.append(elements);
+            return;
+        }
+        if (!addResultSize(LdapEntryList.estimateSize(elements))) {
+            final String message = String.format("The search result exceeds the memory budget of %d MB after %d "
+                    + "entries.", getResultMemoryBudget(), result.size());
+            if (!LdapMemoryPolicy.SPILL.equals(getResultMemoryPolicy())) {
+                throw new LdapMemoryBudgetExceededException(message);
             }
-            ctx.setRequestControls(new Control[] { new PagedResultsControl((int) getPageSize(), cookie, Control.CRITICAL) });
-        } while (cookie != null);
+            LOGGER.info("{} The entries are moved to a temporary file.", message);
+            spillResult();
+            spilledResult.append(elements);
+            return;
+        }
+        result.add(elements);
+    }
+
+    private void addReferencedSize(final long size) throws LdapMemoryBudgetExceededException {
+        if (!addResultSize(size)) {
+            throw new LdapMemoryBudgetExceededException(String.format("The search result exceeds the memory budget "
+                    + "of %d MB once the referenced entries are inserted.", getResultMemoryBudget()));
+        }
+    }
+
+    /**
+     * Counts the estimated size of what is added to the result against the result memory budget.
+     *
+     * @return false if the result no longer fits in the budget
+     */
+    private boolean addResultSize(final long size) {
+        if (getResultMemoryBudget() <= 0) {
+            return true;
+        }
+        resultSize += size;
+        return resultSize <= getResultMemoryBudget() * 1024 * 1024;
+    }
+
+    private void spillResult() throws IOException {
+        spilledResult = new LdapSpilledEntryList(isCompressOutput());
+        for (final List<LdapAttribute> entry : result) {
+            spilledResult.append(entry);
+        }
+        result = spilledResult;
     }
 
     @Override
     public void validateInputParameters() throws ConnectorValidationException {
         final List<String> errors = new ArrayList<>();
+        boolean validFilter = true;
         if (host == null || host.length() == 0) {
             errors.add("host cannot be empty!");
         }
@@ -488,12 +1394,50 @@ public class LdapConnector extends AbstractConnector {
             }
         }
 
-        if (baseObject == null || baseObject.length() == 0) {
-            errors.add("baseObject cannot be empty!");
-        }
+        if (operation == null) {
+            errors.add("operation cannot be null");
+        } else if (LdapOperation.WRITE.equals(operation)) {
+            if (changes == null || changes.trim().isEmpty()) {
+                errors.add("changes cannot be empty for a WRITE operation");
+            } else {
+                try {
+                    LdapWriteOperation.parse(changes);
+                } catch (final IllegalArgumentException e) {
+                    errors.add(e.getMessage());
+                }
+            }
+        } else if (LdapOperation.AUTHENTICATE.equals(operation)) {
+            if (authenticationLogin == null || authenticationLogin.trim().isEmpty()) {
+                errors.add("authenticationLogin cannot be empty for an AUTHENTICATE operation");
+            } else if (!LdapAuthenticator.isDn(authenticationLogin.trim())) {
+                if (baseObject == null || baseObject.length() == 0) {
+                    errors.add("baseObject cannot be empty to find the entry of a login that is not a DN");
+                }
+                if (!authenticationFilter.contains(LdapAuthenticator.LOGIN_PLACEHOLDER)) {
+                    errors.add("authenticationFilter must contain {0}, replaced by the login");
+                } else {
+                    try {
+                        LdapFilterTemplate.compile(authenticationFilter);
+                    } catch (final NamingException e) {
+                        errors.add("authenticationFilter is not a valid filter template: " + e.getMessage());
+                    }
+                }
+            }
+        } else {
+            if (baseObject == null || baseObject.length() == 0) {
+                errors.add("baseObject cannot be empty!");
+            }
 
-        if (filter == null || filter.length() == 0) {
-            errors.add("filter cannot be empty!");
+            if (filter == null || filter.length() == 0) {
+                errors.add("filter cannot be empty!");
+            } else if (filterParameters != null) {
+                try {
+                    bindFilter();
+                } catch (final IllegalArgumentException e) {
+                    validFilter = false;
+                    errors.add(e.getMessage());
+                }
+            }
         }
 
         if (port < 0) {
@@ -516,6 +1460,12 @@ public class LdapConnector extends AbstractConnector {
             }
         }
 
+        if (engine == null) {
+            errors.add("engine cannot be null");
+        } else if (LdapEngine.NIO.equals(engine) && protocol != null && !LdapProtocol.LDAP.equals(protocol)) {
+            errors.add("the NIO engine only supports the LDAP protocol");
+        }
+
         if (scope == null) {
             errors.add("scope cannot be null");
         } else {
@@ -546,10 +1496,123 @@ public class LdapConnector extends AbstractConnector {
             errors.add("timeLimit cannot be null or negative");
         }
 
+        if (maxPages == null || maxPages < 0) {
+            errors.add("maxPages cannot be negative");
+        } else if (maxPages > 0 && (pageSize == null || pageSize <= 0)) {
+            errors.add("maxPages requires a pageSize greater than 0");
+        }
+
+        if (prefetchPages == null || prefetchPages < 0) {
+            errors.add("prefetchPages cannot be negative");
+        }
+        if (negativeCacheTtl == null || negativeCacheTtl < 0) {
+            errors.add("negativeCacheTtl cannot be negative");
+        }
+
+        if (searchStrategy == null) {
+            errors.add("searchStrategy cannot be null");
+        } else if (LdapSearchStrategy.AUTO.equals(searchStrategy) && ((maxPages != null && maxPages > 0)
+                || (resumeToken != null && !resumeToken.trim().isEmpty()))) {
+            errors.add("maxPages and resumeToken require the MANUAL search strategy");
+        }
+
+        if (resumeToken != null && !resumeToken.trim().isEmpty() && validFilter) {
+            try {
+                final LdapContinuationToken token = getContinuationToken();
+                if (!token.getServer().equals(LdapContinuationToken.server(getConnectionSettings()))) {
+                    errors.add("resumeToken was issued by another server");
+                } else if (!token.getSearchFingerprint().equals(LdapContinuationToken.fingerprint(getSearchRequest()))) {
+                    errors.add("resumeToken was issued for another search");
+                }
+            } catch (final IllegalArgumentException e) {
+                errors.add("resumeToken is not a valid continuation token");
+            }
+        }
+
+        if (outputMode == null) {
+            errors.add("outputMode cannot be null");
+        } else if (LdapOutputMode.EXPORT.equals(outputMode)) {
+            if (exportFormat == null) {
+                errors.add("exportFormat cannot be null");
+            } else if (LdapExportFormat.CSV.equals(exportFormat) && getExportColumns() == null) {
+                errors.add("exportColumns or attributes must be set to export CSV");
+            }
+            if ((exportFile == null || exportFile.trim().isEmpty()) && !exportToDocument) {
+                errors.add("exportFile cannot be empty unless the export goes to a document");
+            }
+        } else if (LdapOutputMode.AGGREGATE.equals(outputMode)) {
+            if (aggregation == null) {
+                errors.add("aggregation cannot be null");
+            } else if (!LdapAggregation.COUNT.equals(aggregation) && aggregateAttribute == null) {
+                errors.add("aggregateAttribute cannot be empty for a " + aggregation + " aggregation");
+            }
+        } else if (LdapOutputMode.INDEX.equals(outputMode)) {
+            if (indexAttributes == null) {
+                errors.add("indexAttributes cannot be empty in the INDEX output mode");
+            } else if (attributes != null) {
+                for (final String indexAttribute : indexAttributes) {
+                    if (Stream.of(attributes).noneMatch(indexAttribute::equalsIgnoreCase)) {
+                        errors.add(String.format("the index attribute %s must be one of the attributes",
+                                indexAttribute));
+                    }
+                }
+            }
+            if (indexDuplicates == null) {
+                errors.add("indexDuplicates cannot be null");
+            }
+        } else if (LdapOutputMode.DIFF.equals(outputMode)) {
+            if (fingerprintFile == null || fingerprintFile.trim().isEmpty()) {
+                errors.add("fingerprintFile cannot be empty in the DIFF output mode");
+            }
+            if (fingerprintAttributes != null && attributes != null) {
+                for (final String fingerprintAttribute : fingerprintAttributes) {
+                    if (Stream.of(attributes).noneMatch(fingerprintAttribute::equalsIgnoreCase)) {
+                        errors.add(String.format("the fingerprint attribute %s must be one of the attributes",
+                                fingerprintAttribute));
+                    }
+                }
+            }
+            // an entry missing from a partial search would be reported as removed
+            if ((maxPages != null && maxPages > 0) || (resumeToken != null && !resumeToken.trim().isEmpty())) {
+                errors.add("maxPages and resumeToken cannot be used in the DIFF output mode");
+            }
+        }
+
+        if (sortMemoryBudget == null || sortMemoryBudget <= 0) {
+            errors.add("sortMemoryBudget must be greater than 0");
+        }
+        if ((sortAttributes != null || deduplicate) && LdapOutputMode.AGGREGATE.equals(outputMode)) {
+            errors.add("the entries cannot be sorted or deduplicated in the AGGREGATE output mode");
+        }
+
+        if (resultMemoryBudget == null || resultMemoryBudget < 0) {
+            errors.add("resultMemoryBudget cannot be negative");
+        }
+        if (resultMemoryPolicy == null) {
+            errors.add("resultMemoryPolicy cannot be null");
+        } else if (LdapMemoryPolicy.SPILL.equals(resultMemoryPolicy) && referenceAttributes != null) {
+            errors.add("referenceAttributes cannot be dereferenced in a result spilled to disk");
+        }
+
+        if (referenceAttributes != null && outputMode != null && !LdapOutputMode.LIST.equals(outputMode)) {
+            errors.add("referenceAttributes are only dereferenced in the LIST output mode");
+        }
+
+        if (referenceAttributes != null && attributes != null) {
+            for (final String referenceAttribute : referenceAttributes) {
+                if (Stream.of(attributes).noneMatch(referenceAttribute::equalsIgnoreCase)) {
+                    errors.add(String.format("the reference attribute %s must be one of the attributes",
+                            referenceAttribute));
+                }
+            }
+        }
+
         if (getReferralHandling() == null) {
             errors.add("referralHandling is null!");
         } else if (!getReferralHandling().equals("ignore") && !getReferralHandling().equals("follow")) {
             errors.add("referralHandling must be either ignore or follow!");
+        } else if (getReferralHandling().equals("follow") && LdapEngine.NIO.equals(engine)) {
+            errors.add("the NIO engine does not follow referrals, referralHandling must be ignore");
         }
         final String derefAliasesInput = (String) getInputParameter(DEREF_ALIASES_PARAMETER);
         if (derefAliasesInput != null && !derefAliasesInput.isEmpty()) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Lets a paged search stopped after some pages be resumed by a later connector execution.
+ * It holds the paging cookie, the session keeping the connection the cookie was issued on, the server and a
+ * fingerprint of the search so that a token cannot be used for another search.
+ */
+final class LdapContinuationToken {
+
+    private static final String VERSION = "1";
+    private static final String SEPARATOR = "|";
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    private final String sessionId;
+    private final String server;
+    private final String searchFingerprint;
+    private final byte[] cookie;
+
+    LdapContinuationToken(final String sessionId, final String server, final String searchFingerprint,
+            final byte[] cookie) {
+        this.sessionId = sessionId;
+        this.server = server;
+        this.searchFingerprint = searchFingerprint;
+        this.cookie = cookie;
+    }
+
+    String getSessionId() {
+        return sessionId;
+    }
+
+    String getServer() {
+        return server;
+    }
+
+    String getSearchFingerprint() {
+        return searchFingerprint;
+    }
+
+    byte[] getCookie() {
+        return cookie;
+    }
+
+    static String server(final LdapConnectionSettings settings) {
+        return settings.getHost() + ":" + settings.getPort();
+    }
+
+    /**
+     * @return a value identifying the search criteria a cookie is bound to: the first 128 bits of a SHA-256 hash of
+     *         the criteria, each of them followed by a zero byte so that no two criteria run together
+     */
+    static String fingerprint(final LdapSearchRequest request) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, request.getBaseObject());
+            update(digest, request.getFilter());
+            update(digest, String.valueOf(request.getScope()));
+            if (request.getAttributes() == null) {
+                digest.update((byte) 1);
+            } else {
+                for (final String attribute : request.getAttributes()) {
+                    update(digest, attribute);
+                }
+            }
+            update(digest, Long.toString(request.getPageSize()));
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Arrays.copyOf(digest.digest(), FINGERPRINT_LENGTH));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    String encode() {
+        final String token = String.join(SEPARATOR, VERSION, sessionId, server, searchFingerprint,
+                Base64.getEncoder().encodeToString(cookie));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+     */
+    static LdapContinuationToken decode(final String token) {
+        final String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        final String[] parts = decoded.split("\\" + SEPARATOR, -1);
+        if (parts.length != 5 || !VERSION.equals(parts[0])) {
+            throw new IllegalArgumentException("Unsupported continuation token");
+        }
+        return new LdapContinuationToken(parts[1], parts[2], parts[3], Base64.getDecoder().decode(parts[4]));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the DN the user filter resolved a login to, so that verifying the credentials of a known user takes a
+ * single bind. The least recently used DNs are dropped beyond the maximum size, and every DN expires after its time
+ * to live so that renamed entries are eventually found again.
+ */
+final class LdapDnCache {
+
+    static final long TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(10);
+    static final int MAX_SIZE = 10_000;
+
+    private static final Map<String, Cached> CACHE = new LinkedHashMap<String, Cached>(256, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Cached> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private LdapDnCache() {
+    }
+
+    /**
+     * @return the key of a DN resolution: the server, and the search finding the entry of the user
+     */
+    static String key(final LdapConnectionSettings settings, final LdapSearchRequest request) {
+        return LdapContinuationToken.server(settings) + '|' + request.getBaseObject() + '|' + request.getScope() + '|'
+                + request.getFilter();
+    }
+
+    static synchronized String get(final String key) {
+        final Cached cached = CACHE.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.resolvedAt > TIME_TO_LIVE) {
+            CACHE.remove(key);
+            return null;
+        }
+        return cached.dn;
+    }
+
+    static synchronized void put(final String key, final String dn) {
+        CACHE.put(key, new Cached(dn));
+    }
+
+    static synchronized void remove(final String key) {
+        CACHE.remove(key);
+    }
+
+    static synchronized int size() {
+        return CACHE.size();
+    }
+
+    static synchronized void clear() {
+        CACHE.clear();
+    }
+
+    private static final class Cached {
+
+        private final String dn;
+        private final long resolvedAt = System.currentTimeMillis();
+
+        private Cached(final String dn) {
+            this.dn = dn;
+        }
+    }
+}
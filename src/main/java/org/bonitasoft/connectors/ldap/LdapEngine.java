@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * The protocol engines able to run the connector operations.
+ * <ul>
+ * <li>JNDI: the default JRE LDAP implementation</li>
+ * <li>NIO: a lightweight BER client multiplexing operations on a single socket (plain LDAP only)</li>
+ * </ul>
+ */
+public enum LdapEngine {
+
+    JNDI {
+
+        @Override
+        LdapSearchEngine createSearchEngine(final LdapConnectionSettings settings) {
+            return new JndiSearchEngine(settings);
+        }
+    },
+    NIO {
+
+        @Override
+        LdapSearchEngine createSearchEngine(final LdapConnectionSettings settings) {
+            return new NioSearchEngine(settings);
+        }
+    };
+
+    abstract LdapSearchEngine createSearchEngine(LdapConnectionSettings settings);
+}
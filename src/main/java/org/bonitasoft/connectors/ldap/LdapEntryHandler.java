@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the entries of a search as they are read from the directory service.
+ */
+@FunctionalInterface
+public interface LdapEntryHandler {
+
+    /**
+     * @param dn the distinguished name of the entry
+     * @param attributes one element per attribute value, multi-valued attributes are repeated
+     */
+    void handleEntry(String dn, List<LdapAttribute> attributes) throws IOException;
+}
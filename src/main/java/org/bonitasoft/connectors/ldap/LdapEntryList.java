@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The ldapAttributeList output. It behaves as any list of entries, but serializes to a compact binary form when the
+ * engine stores it in a process variable: attribute names are written once in a string table and referenced by
+ * index, lengths are written as varints and the whole payload can be deflated.
+ */
+public class LdapEntryList extends ArrayList<List<LdapAttribute>> implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int COMPRESSED = 0x01;
+
+    /**
+     * The estimated memory used by a list of attributes and by an attribute, besides their strings.
+     */
+    private static final long ENTRY_OVERHEAD = 32;
+    private static final long ATTRIBUTE_OVERHEAD = 64;
+
+    private boolean compressed;
+
+    /**
+     * Required by {@link Externalizable}.
+     */
+    public LdapEntryList() {
+        super();
+    }
+
+    /**
+     * @param compressed true to deflate the serialized form
+     */
+    public LdapEntryList(final boolean compressed) {
+        super();
+        this.compressed = compressed;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + size() * 64);
+        try (DataOutputStream data = new DataOutputStream(compressed
+                ? new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED), 8192)
+                : bytes)) {
+            writeEntries(data);
+        }
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(compressed ? COMPRESSED : 0);
+        out.writeInt(bytes.size());
+        bytes.writeTo(new ObjectOutputAdapter(out));
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported LDAP entry list format: " + version);
+        }
+        compressed = (in.readUnsignedByte() & COMPRESSED) != 0;
+        final byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        final InputStream bytes = new ByteArrayInputStream(payload);
+        try (DataInputStream data = new DataInputStream(compressed ? new InflaterInputStream(bytes) : bytes)) {
+            readEntries(data);
+        }
+    }
+
+    private void writeEntries(final DataOutputStream out) throws IOException {
+        final Map<String, Integer> names = new HashMap<>();
+        writeVarInt(out, size());
+        for (final List<LdapAttribute> entry : this) {
+            writeVarInt(out, entry.size());
+            for (final LdapAttribute attribute : entry) {
+                // a known name is written as its index, a new one as the next index followed by the name
+                final Integer index = names.get(attribute.getName());
+                if (index == null) {
+                    writeVarInt(out, names.size());
+                    writeString(out, attribute.getName());
+                    names.put(attribute.getName(), names.size());
+                } else {
+                    writeVarInt(out, index);
+                }
+                writeString(out, attribute.getValue());
+            }
+        }
+    }
+
+    private void readEntries(final DataInputStream in) throws IOException {
+        final List<String> names = new ArrayList<>();
+        final int entryCount = readVarInt(in);
+        clear();
+        ensureCapacity(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            final int attributeCount = readVarInt(in);
+            final List<LdapAttribute> entry = new ArrayList<>(attributeCount);
+            for (int j = 0; j < attributeCount; j++) {
+                final int index = readVarInt(in);
+                if (index == names.size()) {
+                    names.add(readString(in));
+                } else if (index > names.size()) {
+                    throw new InvalidObjectException("Invalid attribute name index: " + index);
+                }
+                entry.add(new LdapAttribute(names.get(index), readString(in)));
+            }
+            add(entry);
+        }
+    }
+
+    /**
+     * @return the estimated heap size of an entry, counting two bytes per character
+     */
+    static long estimateSize(final List<LdapAttribute> entry) {
+        long size = ENTRY_OVERHEAD;
+        for (final LdapAttribute attribute : entry) {
+            size += ATTRIBUTE_OVERHEAD + 2L * attribute.getName().length()
+                    + (attribute.getValue() == null ? 0 : 2L * attribute.getValue().length());
+        }
+        return size;
+    }
+
+    /**
+     * Writes an unsigned int on 1 to 5 bytes, 7 bits at a time.
+     */
+    static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+
+    /**
+     * Writes the UTF-8 length plus one, so that 0 stands for null, followed by the UTF-8 bytes.
+     */
+    static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        final int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class ObjectOutputAdapter extends OutputStream {
+
+        private final ObjectOutput out;
+
+        ObjectOutputAdapter(final ObjectOutput out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+}
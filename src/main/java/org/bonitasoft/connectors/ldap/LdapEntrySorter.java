@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts the entries of a search by some of their attributes, for servers without the server side sort control.
+ * Entries are buffered until their estimated size reaches the memory budget, then the buffer is sorted and written
+ * to a temporary file as a run. The runs are merged when the sorted entries are read. An entry returned more than
+ * once can be kept only in its first received copy, whatever its attributes are in the others.
+ * <p>
+ * An attribute is compared on its first value: integers as numbers and before any other value, other values ignoring
+ * case. Entries without the attribute come last, and entries with equal keys are ordered by DN.
+ */
+final class LdapEntrySorter implements LdapEntryHandler, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapEntrySorter.class);
+
+    private static final Pattern INTEGER = Pattern.compile("[-+]?\\d+");
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final String DESCENDING = "-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The estimated memory used by a buffered entry besides its attributes.
+     */
+    private static final long ENTRY_OVERHEAD = 64;
+
+    /**
+     * The estimated memory used by a received DN besides its characters, when deduplicating.
+     */
+    private static final long DN_OVERHEAD = 48;
+
+    private final String[] sortAttributes;
+    private final boolean[] descending;
+    private final boolean deduplicate;
+    private final long memoryBudget;
+    private final Comparator<Entry> comparator;
+
+    private final List<Entry> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final Set<String> receivedDns = new HashSet<>();
+    private long bufferedBytes;
+    private long receivedDnBytes;
+
+    /**
+     * @param sortAttributes the attributes to sort by, in order, each prefixed with - to sort in descending order
+     * @param deduplicate true to return a single entry per DN
+     * @param memoryBudget the estimated size of the buffered entries and of the received DNs when deduplicating, in
+     *        bytes, beyond which the entries spill to disk
+     */
+    LdapEntrySorter(final String[] sortAttributes, final boolean deduplicate, final long memoryBudget) {
+        this.sortAttributes = new String[sortAttributes.length];
+        this.descending = new boolean[sortAttributes.length];
+        for (int i = 0; i < sortAttributes.length; i++) {
+            descending[i] = sortAttributes[i].startsWith(DESCENDING);
+            this.sortAttributes[i] = descending[i] ? sortAttributes[i].substring(1).trim() : sortAttributes[i];
+        }
+        this.deduplicate = deduplicate;
+        this.memoryBudget = memoryBudget;
+        this.comparator = this::compare;
+    }
+
+    @Override
+    public void handleEntry(final String dn, final List<LdapAttribute> attributes) throws IOException {
+        final Entry entry = new Entry(dn, attributes, keyOf(attributes));
+        if (deduplicate) {
+            if (!receivedDns.add(entry.normalizedDn)) {
+                return;
+            }
+            // the DNs stay in memory until the end, only the entries can spill
+            receivedDnBytes += DN_OVERHEAD + 2L * entry.normalizedDn.length();
+            if (receivedDnBytes >= memoryBudget) {
+                throw new LdapMemoryBudgetExceededException(String.format("The DNs of the %d entries to deduplicate "
+                        + "exceed the sort memory budget of %d bytes.", receivedDns.size(), memoryBudget));
+            }
+        }
+        buffer.add(entry);
+        bufferedBytes += entry.estimateSize();
+        if (bufferedBytes + receivedDnBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Hands the entries received so far to the handler, in order.
+     */
+    void sortTo(final LdapEntryHandler handler) throws IOException {
+        buffer.sort(comparator);
+        if (runs.isEmpty()) {
+            for (final Entry entry : buffer) {
+                handler.handleEntry(entry.dn, entry.attributes);
+            }
+            buffer.clear();
+            return;
+        }
+        spill();
+        LOGGER.debug("Merging {} sorted runs", runs.size());
+        final PriorityQueue<Run> queue = new PriorityQueue<>(runs.size(), (a, b) -> compare(a.current, b.current));
+        final List<Run> opened = new ArrayList<>(runs.size());
+        try {
+            for (final Path path : runs) {
+                final Run run = new Run(path);
+                opened.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            while (!queue.isEmpty()) {
+                final Run run = queue.poll();
+                handler.handleEntry(run.current.dn, run.current.attributes);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (final Run run : opened) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * @return the number of runs written to disk
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        buffer.sort(comparator);
+        final Path path = Files.createTempFile("ldap-sort", ".run");
+        runs.add(path);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE))) {
+            for (final Entry entry : buffer) {
+                LdapEntryList.writeString(out, entry.dn);
+                LdapEntryList.writeVarInt(out, entry.attributes.size());
+                for (final LdapAttribute attribute : entry.attributes) {
+                    LdapEntryList.writeString(out, attribute.getName());
+                    LdapEntryList.writeString(out, attribute.getValue());
+                }
+            }
+        }
+        LOGGER.debug("{} entries spilled to {}", buffer.size(), path);
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    private String[] keyOf(final List<LdapAttribute> attributes) {
+        final String[] key = new String[sortAttributes.length];
+        for (final LdapAttribute attribute : attributes) {
+            for (int i = 0; i < sortAttributes.length; i++) {
+                if (key[i] == null && sortAttributes[i].equalsIgnoreCase(attribute.getName())) {
+                    key[i] = attribute.getValue();
+                }
+            }
+        }
+        return key;
+    }
+
+    private int compare(final Entry entry, final Entry other) {
+        for (int i = 0; i < sortAttributes.length; i++) {
+            final String value = entry.key[i];
+            final String otherValue = other.key[i];
+            if (value == null || otherValue == null) {
+                if (value != otherValue) {
+                    return value == null ? 1 : -1;
+                }
+                continue;
+            }
+            final int compared = compareValues(value, otherValue);
+            if (compared != 0) {
+                return descending[i] ? -compared : compared;
+            }
+        }
+        return entry.normalizedDn.compareTo(other.normalizedDn);
+    }
+
+    /**
+     * Compares integers as numbers, and other values ignoring case first. Integers come before other values, so that
+     * the order stays transitive when both kinds are mixed.
+     */
+    static int compareValues(final String value, final String other) {
+        final boolean integer = INTEGER.matcher(value).matches();
+        if (integer != INTEGER.matcher(other).matches()) {
+            return integer ? -1 : 1;
+        }
+        int compared;
+        if (!integer) {
+            compared = value.compareToIgnoreCase(other);
+        } else if (value.length() <= MAX_LONG_DIGITS && other.length() <= MAX_LONG_DIGITS) {
+            compared = Long.compare(Long.parseLong(value), Long.parseLong(other));
+        } else {
+            compared = new BigInteger(value).compareTo(new BigInteger(other));
+        }
+        return compared != 0 ? compared : value.compareTo(other);
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() {
+        buffer.clear();
+        receivedDns.clear();
+        receivedDnBytes = 0;
+        for (final Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (final IOException e) {
+                LOGGER.warn("Error deleting the sort run {}", run, e);
+            }
+        }
+        runs.clear();
+    }
+
+    private final class Entry {
+
+        private final String dn;
+        private final String normalizedDn;
+        private final List<LdapAttribute> attributes;
+        private final String[] key;
+
+        Entry(final String dn, final List<LdapAttribute> attributes, final String[] key) {
+            this.dn = dn;
+            this.normalizedDn = dn == null ? "" : dn.toLowerCase(Locale.ROOT);
+            this.attributes = attributes;
+            this.key = key;
+        }
+
+        long estimateSize() {
+            return ENTRY_OVERHEAD + 4L * normalizedDn.length() + LdapEntryList.estimateSize(attributes);
+        }
+    }
+
+    private final class Run implements Closeable {
+
+        private final DataInputStream in;
+        private Entry current;
+
+        Run(final Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+        }
+
+        /**
+         * @return false when every entry of the run was read
+         */
+        boolean next() throws IOException {
+            final String dn;
+            try {
+                dn = LdapEntryList.readString(in);
+            } catch (final EOFException e) {
+                current = null;
+                return false;
+            }
+            final int count = LdapEntryList.readVarInt(in);
+            final List<LdapAttribute> attributes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                attributes.add(new LdapAttribute(LdapEntryList.readString(in), LdapEntryList.readString(in)));
+            }
+            current = new Entry(dn, attributes, keyOf(attributes));
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
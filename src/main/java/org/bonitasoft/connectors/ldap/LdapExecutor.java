@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+/**
+ * Runs LDAP operations concurrently with the calling thread, on virtual threads on Java 21 and later, on a bounded
+ * pool of platform threads before (see {@link LdapThreads}). The threads are shared by every connector execution.
+ */
+final class LdapExecutor {
+
+    static final LdapExecutor SHARED = new LdapExecutor(LdapThreads.newExecutor("ldap-worker"));
+
+    private final ExecutorService executor;
+
+    private LdapExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * An LDAP operation run by the executor.
+     */
+    @FunctionalInterface
+    interface Task<T> {
+
+        T call() throws IOException, NamingException;
+    }
+
+    <T> Future<T> submit(final Task<T> task) {
+        return executor.submit(task::call);
+    }
+
+    /**
+     * Runs the tasks, at most the given number of them at the same time, and waits for all of them. After the first
+     * failure, the tasks not started yet are skipped.
+     *
+     * @return the results, in the order of the tasks
+     */
+    <T> List<T> invokeAll(final List<Task<T>> tasks, final int parallelism) throws IOException, NamingException {
+        final Object[] results = new Object[tasks.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, tasks.size()); i++) {
+            workers.add(executor.submit(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < tasks.size()) {
+                    try {
+                        results[index] = tasks.get(index).call();
+                    } catch (final IOException | NamingException | RuntimeException e) {
+                        next.set(tasks.size());
+                        throw e;
+                    }
+                }
+                return null;
+            }));
+        }
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (final Future<Void> worker : workers) {
+            while (true) {
+                try {
+                    worker.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    // the workers use connections the caller closes afterwards, so they are waited for anyway
+                    interrupted = true;
+                    next.set(tasks.size());
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+        @SuppressWarnings("unchecked")
+        final List<T> list = (List<T>) Arrays.asList(results);
+        return list;
+    }
+
+    /**
+     * Throws the failure of a task as it was thrown by the task.
+     *
+     * @return the failure to throw if it is an IOException, or has to be wrapped in one
+     */
+    static IOException rethrow(final Throwable failure) throws NamingException {
+        if (failure instanceof NamingException) {
+            throw (NamingException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return failure instanceof IOException ? (IOException) failure : new IOException(failure);
+    }
+}
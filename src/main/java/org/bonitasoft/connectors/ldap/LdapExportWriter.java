@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the entries of a search to a file as they are read, so that exports run in constant memory.
+ */
+abstract class LdapExportWriter implements LdapEntryHandler, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final Writer writer;
+
+    private long entryCount;
+
+    protected LdapExportWriter(final Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Opens a writer on the given file.
+     *
+     * @param columns the attributes written as CSV columns, ignored by the other formats
+     * @param append true to add the entries at the end of an existing file, as when resuming a paged search
+     */
+    static LdapExportWriter open(final Path file, final LdapExportFormat format, final String[] columns,
+            final boolean compressed, final boolean append) throws IOException {
+        final boolean continued = append && Files.exists(file) && Files.size(file) > 0;
+        OutputStream out = append
+                ? Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newOutputStream(file);
+        if (compressed) {
+            // appended content becomes a new gzip member, which gzip readers concatenate
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        switch (format) {
+            case CSV:
+                return new Csv(writer, columns, !continued);
+            case JSON:
+                return new JsonLines(writer);
+            default:
+                return new Ldif(writer, !continued);
+        }
+    }
+
+    @Override
+    public void handleEntry(final String dn, final List<LdapAttribute> attributes) throws IOException {
+        writeEntry(dn, groupValues(attributes));
+        entryCount++;
+    }
+
+    protected abstract void writeEntry(String dn, Map<String, List<String>> values) throws IOException;
+
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the values of every attribute, in the order they were received
+     */
+    static Map<String, List<String>> groupValues(final List<LdapAttribute> attributes) {
+        final Map<String, List<String>> values = new LinkedHashMap<>();
+        for (final LdapAttribute attribute : attributes) {
+            values.computeIfAbsent(attribute.getName(), name -> new ArrayList<>(1)).add(attribute.getValue());
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * LDAP Data Interchange Format (RFC 2849).
+     */
+    static final class Ldif extends LdapExportWriter {
+
+        private static final int MAX_LINE_LENGTH = 76;
+
+        Ldif(final Writer writer, final boolean header) throws IOException {
+            super(writer);
+            if (header) {
+                writer.write("version: 1\n\n");
+            }
+        }
+
+        @Override
+        protected void writeEntry(final String dn, final Map<String, List<String>> values) throws IOException {
+            writeLine("dn", dn);
+            for (final Map.Entry<String, List<String>> attribute : values.entrySet()) {
+                for (final String value : attribute.getValue()) {
+                    writeLine(attribute.getKey(), value);
+                }
+            }
+            writer.write('\n');
+        }
+
+        private void writeLine(final String name, final String value) throws IOException {
+            final String line = isSafe(value) ? name + ": " + value
+                    : name + ":: " + Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+            writer.write(line, 0, Math.min(line.length(), MAX_LINE_LENGTH));
+            for (int i = MAX_LINE_LENGTH; i < line.length(); i += MAX_LINE_LENGTH - 1) {
+                writer.write("\n ");
+                writer.write(line, i, Math.min(line.length() - i, MAX_LINE_LENGTH - 1));
+            }
+            writer.write('\n');
+        }
+
+        private static boolean isSafe(final String value) {
+            if (value.isEmpty()) {
+                return true;
+            }
+            final char first = value.charAt(0);
+            if (first == ' ' || first == ':' || first == '<' || value.charAt(value.length() - 1) == ' ') {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == 0 || c == '\n' || c == '\r' || c > 127) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Comma separated values (RFC 4180), one line per entry with the DN as first column. The values of a
+     * multi-valued attribute are separated by '|'.
+     */
+    static final class Csv extends LdapExportWriter {
+
+        private final String[] columns;
+
+        Csv(final Writer writer, final String[] columns, final boolean header) throws IOException {
+            super(writer);
+            this.columns = columns;
+            if (header) {
+                writer.write("dn");
+                for (final String column : columns) {
+                    writer.write(',');
+                    writeField(column);
+                }
+                writer.write("\r\n");
+            }
+        }
+
+        @Override
+        protected void writeEntry(final String dn, final Map<String, List<String>> values) throws IOException {
+            writeField(dn);
+            for (final String column : columns) {
+                writer.write(',');
+                final List<String> columnValues = getIgnoreCase(values, column);
+                if (columnValues != null) {
+                    writeField(String.join("|", columnValues));
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        private static List<String> getIgnoreCase(final Map<String, List<String>> values, final String name) {
+            final List<String> found = values.get(name);
+            if (found != null) {
+                return found;
+            }
+            for (final Map.Entry<String, List<String>> entry : values.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        private void writeField(final String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                final char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (quote) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+    }
+
+    /**
+     * JSON lines, one object per entry: {"dn":"...","attributes":{"cn":["..."]}}.
+     */
+    static final class JsonLines extends LdapExportWriter {
+
+        JsonLines(final Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        protected void writeEntry(final String dn, final Map<String, List<String>> values) throws IOException {
+            writer.write("{\"dn\":");
+            writeString(dn);
+            writer.write(",\"attributes\":{");
+            boolean firstAttribute = true;
+            for (final Map.Entry<String, List<String>> attribute : values.entrySet()) {
+                if (!firstAttribute) {
+                    writer.write(',');
+                }
+                firstAttribute = false;
+                writeString(attribute.getKey());
+                writer.write(":[");
+                boolean firstValue = true;
+                for (final String value : attribute.getValue()) {
+                    if (!firstValue) {
+                        writer.write(',');
+                    }
+                    firstValue = false;
+                    writeString(value);
+                }
+                writer.write(']');
+            }
+            writer.write("}}\n");
+        }
+
+        private void writeString(final String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                        break;
+                }
+            }
+            writer.write('"');
+        }
+    }
+}
@@ -0,0 +1,917 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.naming.directory.InvalidSearchFilterException;
+
+/**
+ * A parsed LDAP search filter (RFC 4515), able to encode itself as the BER filter of a search request.
+ * A filter parsed as a template holds placeholders in its values, which {@link #bind(List)} replaces without going
+ * through the parser again: a bound value can never change the structure of the filter.
+ */
+abstract class LdapFilter {
+
+    private static final int AND = 0xA0;
+    private static final int OR = 0xA1;
+    private static final int NOT = 0xA2;
+    static final int EQUALITY = 0xA3;
+    private static final int SUBSTRINGS = 0xA4;
+    static final int GREATER_OR_EQUAL = 0xA5;
+    static final int LESS_OR_EQUAL = 0xA6;
+    private static final int PRESENT = 0x87;
+    static final int APPROX = 0xA8;
+    private static final int EXTENSIBLE = 0xA9;
+
+    static final int MAX_PARAMETERS = 64;
+
+    /**
+     * Parses a filter string. The enclosing parentheses may be omitted.
+     */
+    static LdapFilter parse(final String filter) throws InvalidSearchFilterException {
+        return parse(filter, false);
+    }
+
+    /**
+     * Parses a filter template, where {0} to {63} in a value stand for the parameters given when binding.
+     */
+    static LdapFilter parseTemplate(final String template) throws InvalidSearchFilterException {
+        return parse(template, true);
+    }
+
+    private static LdapFilter parse(final String filter, final boolean template) throws InvalidSearchFilterException {
+        if (filter == null || filter.trim().isEmpty()) {
+            throw new InvalidSearchFilterException("Empty filter");
+        }
+        String trimmed = filter.trim();
+        if (trimmed.charAt(0) != '(') {
+            trimmed = "(" + trimmed + ")";
+        }
+        final Parser parser = new Parser(trimmed, template);
+        final LdapFilter parsed = parser.parseFilter();
+        if (parser.position != trimmed.length()) {
+            throw new InvalidSearchFilterException("Unexpected characters at position " + parser.position + " in " + filter);
+        }
+        return parsed;
+    }
+
+    abstract void encode(BerEncoder encoder);
+
+    abstract void appendTo(StringBuilder builder);
+
+    /**
+     * @param parameters the UTF-8 values of the placeholders
+     * @return the filter with its placeholders replaced, this filter if it has none
+     */
+    abstract LdapFilter bind(List<byte[]> parameters);
+
+    /**
+     * @return the number of parameters needed to bind the filter, the highest placeholder index plus one
+     */
+    abstract int getParameterCount();
+
+    /**
+     * @return the filter with every assertion on a parameter replaced by a presence test of its attribute, so that
+     *         it matches whatever the parameters, or null if an assertion on a parameter names no attribute
+     */
+    abstract LdapFilter presentParameters();
+
+    /**
+     * @return an equivalent filter in a canonical form: lower case attribute descriptions, nested AND and OR
+     *         flattened, duplicates removed and the children sorted, so that equivalent filters print the same
+     */
+    abstract LdapFilter normalize();
+
+    /**
+     * @param indexedAttributes the lower case indexed attribute descriptions
+     * @return true if the server can select the candidate entries with its indexes instead of reading every entry
+     */
+    abstract boolean isIndexed(Set<String> indexedAttributes);
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        appendTo(builder);
+        return builder.toString();
+    }
+
+    static final class Composite extends LdapFilter {
+
+        private final int tag;
+        private final List<LdapFilter> children;
+
+        Composite(final int tag, final List<LdapFilter> children) {
+            this.tag = tag;
+            this.children = Collections.unmodifiableList(children);
+        }
+
+        boolean isAnd() {
+            return tag == AND;
+        }
+
+        List<LdapFilter> getChildren() {
+            return children;
+        }
+
+        @Override
+        void encode(final BerEncoder encoder) {
+            encoder.beginSequence(tag);
+            for (final LdapFilter child : children) {
+                child.encode(encoder);
+            }
+            encoder.endSequence();
+        }
+
+        @Override
+        void appendTo(final StringBuilder builder) {
+            builder.append('(').append(isAnd() ? '&' : '|');
+            for (final LdapFilter child : children) {
+                child.appendTo(builder);
+            }
+            builder.append(')');
+        }
+
+        @Override
+        LdapFilter bind(final List<byte[]> parameters) {
+            final List<LdapFilter> bound = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (final LdapFilter child : children) {
+                final LdapFilter boundChild = child.bind(parameters);
+                changed |= boundChild != child;
+                bound.add(boundChild);
+            }
+            return changed ? new Composite(tag, bound) : this;
+        }
+
+        @Override
+        LdapFilter presentParameters() {
+            final List<LdapFilter> present = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (final LdapFilter child : children) {
+                final LdapFilter presentChild = child.presentParameters();
+                if (presentChild == null) {
+                    return null;
+                }
+                changed |= presentChild != child;
+                present.add(presentChild);
+            }
+            return changed ? new Composite(tag, present) : this;
+        }
+
+        @Override
+        int getParameterCount() {
+            int count = 0;
+            for (final LdapFilter child : children) {
+                count = Math.max(count, child.getParameterCount());
+            }
+            return count;
+        }
+
+        @Override
+        LdapFilter normalize() {
+            final Map<String, LdapFilter> unique = new TreeMap<>();
+            for (final LdapFilter child : children) {
+                final LdapFilter normalized = child.normalize();
+                if (normalized instanceof Composite && ((Composite) normalized).tag == tag) {
+                    ((Composite) normalized).children.forEach(grandChild -> unique.putIfAbsent(grandChild.toString(),
+                            grandChild));
+                } else {
+                    unique.putIfAbsent(normalized.toString(), normalized);
+                }
+            }
+            if (unique.size() == 1) {
+                return unique.values().iterator().next();
+            }
+            return new Composite(tag, new ArrayList<>(unique.values()));
+        }
+
+        @Override
+        boolean isIndexed(final Set<String> indexedAttributes) {
+            if (children.isEmpty()) {
+                return false;
+            }
+            // an AND only needs one indexed child to select its candidates, an OR needs all of them
+            for (final LdapFilter child : children) {
+                if (child.isIndexed(indexedAttributes) == isAnd()) {
+                    return isAnd();
+                }
+            }
+            return !isAnd();
+        }
+    }
+
+    static final class Not extends LdapFilter {
+
+        private final LdapFilter child;
+
+        Not(final LdapFilter child) {
+            this.child = child;
+        }
+
+        LdapFilter getChild() {
+            return child;
+        }
+
+        @Override
+        void encode(final BerEncoder encoder) {
+            encoder.beginSequence(NOT);
+            child.encode(encoder);
+            encoder.endSequence();
+        }
+
+        @Override
+        void appendTo(final StringBuilder builder) {
+            builder.append("(!");
+            child.appendTo(builder);
+            builder.append(')');
+        }
+
+        @Override
+        LdapFilter bind(final List<byte[]> parameters) {
+            final LdapFilter bound = child.bind(parameters);
+            return bound != child ? new Not(bound) : this;
+        }
+
+        @Override
+        LdapFilter presentParameters() {
+            final LdapFilter present = child.presentParameters();
+            return present == null ? null : present != child ? new Not(present) : this;
+        }
+
+        @Override
+        int getParameterCount() {
+            return child.getParameterCount();
+        }
+
+        @Override
+        LdapFilter normalize() {
+            final LdapFilter normalized = child.normalize();
+            return normalized instanceof Not ? ((Not) normalized).child : new Not(normalized);
+        }
+
+        @Override
+        boolean isIndexed(final Set<String> indexedAttributes) {
+            return false;
+        }
+    }
+
+    static final class Comparison extends LdapFilter {
+
+        private final int tag;
+        private final String attribute;
+        private final Value value;
+
+        Comparison(final int tag, final String attribute, final Value value) {
+            this.tag = tag;
+            this.attribute = attribute;
+            this.value = value;
+        }
+
+        String getAttribute() {
+            return attribute;
+        }
+
+        @Override
+        void encode(final BerEncoder encoder) {
+            encoder.beginSequence(tag)
+                    .writeOctetString(attribute)
+                    .writeOctetString(BerEncoder.OCTET_STRING, value.getBytes())
+                    .endSequence();
+        }
+
+        @Override
+        void appendTo(final StringBuilder builder) {
+            builder.append('(').append(attribute);
+            switch (tag) {
+                case GREATER_OR_EQUAL:
+                    builder.append(">=");
+                    break;
+                case LESS_OR_EQUAL:
+                    builder.append("<=");
+                    break;
+                case APPROX:
+                    builder.append("~=");
+                    break;
+                default:
+                    builder.append('=');
+                    break;
+            }
+            value.appendTo(builder);
+            builder.append(')');
+        }
+
+        @Override
+        LdapFilter bind(final List<byte[]> parameters) {
+            final Value bound = value.bind(parameters);
+            return bound != value ? new Comparison(tag, attribute, bound) : this;
+        }
+
+        @Override
+        LdapFilter presentParameters() {
+            return getParameterCount() > 0 ? new Present(attribute) : this;
+        }
+
+        @Override
+        int getParameterCount() {
+            return value.getParameterCount();
+        }
+
+        @Override
+        LdapFilter normalize() {
+            return new Comparison(tag, attribute.toLowerCase(Locale.ROOT), value);
+        }
+
+        @Override
+        boolean isIndexed(final Set<String> indexedAttributes) {
+            return indexedAttributes.contains(attribute.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    static final class Present extends LdapFilter {
+
+        private final String attribute;
+
+        Present(final String attribute) {
+            this.attribute = attribute;
+        }
+
+        String getAttribute() {
+            return attribute;
+        }
+
+        @Override
+        void encode(final BerEncoder encoder) {
+            encoder.writeOctetString(PRESENT, attribute);
+        }
+
+        @Override
+        void appendTo(final StringBuilder builder) {
+            builder.append('(').append(attribute).append("=*)");
+        }
+
+        @Override
+        LdapFilter bind(final List<byte[]> parameters) {
+            return this;
+        }
+
+        @Override
+        LdapFilter presentParameters() {
+            return this;
+        }
+
+        @Override
+        int getParameterCount() {
+            return 0;
+        }
+
+        @Override
+        LdapFilter normalize() {
+            return new Present(attribute.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        boolean isIndexed(final Set<String> indexedAttributes) {
+            return indexedAttributes.contains(attribute.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    static final class Substrings extends LdapFilter {
+
+        private final String attribute;
+        private final Value initial;
+        private final List<Value> any;
+        private final Value last;
+
+        Substrings(final String attribute, final Value initial, final List<Value> any, final Value last) {
+            this.attribute = attribute;
+            this.initial = initial;
+            this.any = any;
+            this.last = last;
+        }
+
+        String getAttribute() {
+            return attribute;
+        }
+
+        boolean hasInitial() {
+            return initial != null;
+        }
+
+        @Override
+        void encode(final BerEncoder encoder) {
+            encoder.beginSequence(SUBSTRINGS).writeOctetString(attribute).beginSequence(BerEncoder.SEQUENCE);
+            if (initial != null) {
+                encoder.writeOctetString(0x80, initial.getBytes());
+            }
+            for (final Value part : any) {
+                encoder.writeOctetString(0x81, part.getBytes());
+            }
+            if (last != null) {
+                encoder.writeOctetString(0x82, last.getBytes());
+            }
+            encoder.endSequence().endSequence();
+        }
+
+        @Override
+        void appendTo(final StringBuilder builder) {
+            builder.append('(').append(attribute).append('=');
+            if (initial != null) {
+                initial.appendTo(builder);
+            }
+            builder.append('*');
+            for (final Value part : any) {
+                part.appendTo(builder);
+                builder.append('*');
+            }
+            if (last != null) {
+                last.appendTo(builder);
+            }
+            builder.append(')');
+        }
+
+        @Override
+        LdapFilter bind(final List<byte[]> parameters) {
+            final Value boundInitial = initial != null ? initial.bind(parameters) : null;
+            final Value boundLast = last != null ? last.bind(parameters) : null;
+            final List<Value> boundAny = new ArrayList<>(any.size());
+            boolean changed = boundInitial != initial || boundLast != last;
+            for (final Value part : any) {
+                final Value bound = part.bind(parameters);
+                changed |= bound != part;
+                boundAny.add(bound);
+            }
+            return changed ? new Substrings(attribute, boundInitial, boundAny, boundLast) : this;
+        }
+
+        @Override
+        LdapFilter presentParameters() {
+            return getParameterCount() > 0 ? new Present(attribute) : this;
+        }
+
+        @Override
+        int getParameterCount() {
+            int count = Math.max(initial != null ? initial.getParameterCount() : 0,
+                    last != null ? last.getParameterCount() : 0);
+            for (final Value part : any) {
+                count = Math.max(count, part.getParameterCount());
+            }
+            return count;
+        }
+
+        @Override
+        LdapFilter normalize() {
+            return new Substrings(attribute.toLowerCase(Locale.ROOT), initial, any, last);
+        }
+
+        @Override
+        boolean isIndexed(final Set<String> indexedAttributes) {
+            // most servers only use their indexes for substrings with a leading part
+            return hasInitial() && indexedAttributes.contains(attribute.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    static final class Extensible extends LdapFilter {
+
+        private final String attribute;
+        private final boolean dnAttributes;
+        private final String matchingRule;
+        private final Value value;
+
+        Extensible(final String attribute, final boolean dnAttributes, final String matchingRule, final Value value) {
+            this.attribute = attribute;
+            this.dnAttributes = dnAttributes;
+            this.matchingRule = matchingRule;
+            this.value = value;
+        }
+
+        String getAttribute() {
+            return attribute;
+        }
+
+        @Override
+        void encode(final BerEncoder encoder) {
+            encoder.beginSequence(EXTENSIBLE);
+            if (matchingRule != null) {
+                encoder.writeOctetString(0x81, matchingRule);
+            }
+            if (attribute != null) {
+                encoder.writeOctetString(0x82, attribute);
+            }
+            encoder.writeOctetString(0x83, value.getBytes());
+            if (dnAttributes) {
+                encoder.writeBoolean(0x84, true);
+            }
+            encoder.endSequence();
+        }
+
+        @Override
+        void appendTo(final StringBuilder builder) {
+            builder.append('(');
+            if (attribute != null) {
+                builder.append(attribute);
+            }
+            if (dnAttributes) {
+                builder.append(":dn");
+            }
+            if (matchingRule != null) {
+                builder.append(':').append(matchingRule);
+            }
+            builder.append(":=");
+            value.appendTo(builder);
+            builder.append(')');
+        }
+
+        @Override
+        LdapFilter bind(final List<byte[]> parameters) {
+            final Value bound = value.bind(parameters);
+            return bound != value ? new Extensible(attribute, dnAttributes, matchingRule, bound) : this;
+        }
+
+        @Override
+        LdapFilter presentParameters() {
+            if (getParameterCount() == 0) {
+                return this;
+            }
+            return attribute != null ? new Present(attribute) : null;
+        }
+
+        @Override
+        int getParameterCount() {
+            return value.getParameterCount();
+        }
+
+        @Override
+        LdapFilter normalize() {
+            return new Extensible(attribute != null ? attribute.toLowerCase(Locale.ROOT) : null, dnAttributes,
+                    matchingRule, value);
+        }
+
+        @Override
+        boolean isIndexed(final Set<String> indexedAttributes) {
+            return false;
+        }
+    }
+
+    /**
+     * The value of an assertion. The placeholders of a template are kept apart from its bytes, as the offsets they
+     * stand at and the parameters they stand for, so that no byte of a value can be taken for a placeholder.
+     */
+    static final class Value {
+
+        private static final int[] NONE = new int[0];
+
+        private final byte[] bytes;
+        private final int[] offsets;
+        private final int[] parameters;
+        private final boolean template;
+
+        private Value(final byte[] bytes, final int[] offsets, final int[] parameters, final boolean template) {
+            this.bytes = bytes;
+            this.offsets = offsets;
+            this.parameters = parameters;
+            this.template = template;
+        }
+
+        static Value of(final byte[] bytes) {
+            return new Value(bytes, NONE, NONE, false);
+        }
+
+        /**
+         * @throws IllegalStateException if the value still holds placeholders
+         */
+        byte[] getBytes() {
+            if (offsets.length > 0) {
+                throw new IllegalStateException("The filter template is not bound to its parameters");
+            }
+            return bytes;
+        }
+
+        int getParameterCount() {
+            int count = 0;
+            for (final int parameter : parameters) {
+                count = Math.max(count, parameter + 1);
+            }
+            return count;
+        }
+
+        /**
+         * @return the value with its placeholders replaced by the parameters, this value if it has none
+         */
+        Value bind(final List<byte[]> values) {
+            if (offsets.length == 0) {
+                return this;
+            }
+            final ByteArrayOutputStream bound = new ByteArrayOutputStream(bytes.length + 32);
+            int copied = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                bound.write(bytes, copied, offsets[i] - copied);
+                final byte[] parameter = values.get(parameters[i]);
+                bound.write(parameter, 0, parameter.length);
+                copied = offsets[i];
+            }
+            bound.write(bytes, copied, bytes.length - copied);
+            return of(bound.toByteArray());
+        }
+
+        /**
+         * Appends the value escaped, with its placeholders as {0}, {1}... and, in a template, the literal braces
+         * escaped so that they print differently.
+         */
+        void appendTo(final StringBuilder builder) {
+            int copied = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                escape(bytes, copied, offsets[i], template, builder);
+                builder.append('{').append(parameters[i]).append('}');
+                copied = offsets[i];
+            }
+            escape(bytes, copied, bytes.length, template, builder);
+        }
+    }
+
+    /**
+     * Appends a value using the RFC 4515 escaping, falling back to escaping every byte when it is not UTF-8.
+     */
+    static void escape(final byte[] value, final StringBuilder builder) {
+        escape(value, 0, value.length, false, builder);
+    }
+
+    private static void escape(final byte[] value, final int from, final int to, final boolean braces,
+            final StringBuilder builder) {
+        String text;
+        try {
+            text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(value, from, to - from))
+                    .toString();
+        } catch (final CharacterCodingException e) {
+            for (int i = from; i < to; i++) {
+                appendHex(value[i], builder);
+            }
+            return;
+        }
+        escape(text, braces, builder);
+    }
+
+    static void escape(final String value, final StringBuilder builder) {
+        escape(value, false, builder);
+    }
+
+    private static void escape(final String value, final boolean braces, final StringBuilder builder) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '*' || c == '(' || c == ')' || c == '\\' || c == 0 || (braces && c == '{')) {
+                appendHex((byte) c, builder);
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private static void appendHex(final byte b, final StringBuilder builder) {
+        builder.append('\\').append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+
+    private static final class Parser {
+
+        private final String filter;
+        private final boolean template;
+        private int position;
+
+        Parser(final String filter, final boolean template) {
+            this.filter = filter;
+            this.template = template;
+        }
+
+        LdapFilter parseFilter() throws InvalidSearchFilterException {
+            expect('(');
+            final LdapFilter parsed;
+            final char c = current();
+            if (c == '&' || c == '|') {
+                position++;
+                final List<LdapFilter> children = new ArrayList<>();
+                while (current() == '(') {
+                    children.add(parseFilter());
+                }
+                parsed = new Composite(c == '&' ? AND : OR, children);
+            } else if (c == '!') {
+                position++;
+                parsed = new Not(parseFilter());
+            } else {
+                parsed = parseItem();
+            }
+            expect(')');
+            return parsed;
+        }
+
+        private LdapFilter parseItem() throws InvalidSearchFilterException {
+            final int end = filter.indexOf(')', position);
+            if (end < 0) {
+                throw error("Missing closing parenthesis");
+            }
+            final String item = filter.substring(position, end);
+            position = end;
+            final int equals = item.indexOf('=');
+            if (equals <= 0) {
+                throw error("Invalid filter item " + item);
+            }
+            final char operator = item.charAt(equals - 1);
+            final String rawValue = item.substring(equals + 1);
+            if (operator == ':') {
+                return parseExtensible(item.substring(0, equals - 1), rawValue);
+            }
+            if (operator == '>' || operator == '<' || operator == '~') {
+                final String attribute = checkAttribute(item.substring(0, equals - 1));
+                final int tag = operator == '>' ? GREATER_OR_EQUAL : operator == '<' ? LESS_OR_EQUAL : APPROX;
+                return new Comparison(tag, attribute, unescape(rawValue));
+            }
+            final String attribute = checkAttribute(item.substring(0, equals));
+            if ("*".equals(rawValue)) {
+                return new Present(attribute);
+            }
+            final List<String> parts = splitOnWildcards(rawValue);
+            if (parts.size() > 1) {
+                return parseSubstrings(attribute, parts);
+            }
+            return new Comparison(EQUALITY, attribute, unescape(rawValue));
+        }
+
+        /**
+         * @return the parts of a value between its wildcards, still escaped: an escaped asterisk is not a wildcard
+         */
+        private static List<String> splitOnWildcards(final String rawValue) {
+            final List<String> parts = new ArrayList<>();
+            int start = 0;
+            int i = 0;
+            while (i < rawValue.length()) {
+                final char c = rawValue.charAt(i);
+                if (c == '\\') {
+                    i += i + 2 < rawValue.length() && isHex(rawValue.charAt(i + 1)) && isHex(rawValue.charAt(i + 2))
+                            ? 3
+                            : 2;
+                } else {
+                    if (c == '*') {
+                        parts.add(rawValue.substring(start, i));
+                        start = i + 1;
+                    }
+                    i++;
+                }
+            }
+            parts.add(rawValue.substring(Math.min(start, rawValue.length())));
+            return parts;
+        }
+
+        private LdapFilter parseSubstrings(final String attribute, final List<String> parts)
+                throws InvalidSearchFilterException {
+            final String head = parts.get(0);
+            final String tail = parts.get(parts.size() - 1);
+            final Value initial = head.isEmpty() ? null : unescape(head);
+            final Value last = tail.isEmpty() ? null : unescape(tail);
+            final List<Value> any = new ArrayList<>();
+            for (int i = 1; i < parts.size() - 1; i++) {
+                if (!parts.get(i).isEmpty()) {
+                    any.add(unescape(parts.get(i)));
+                }
+            }
+            return new Substrings(attribute, initial, any, last);
+        }
+
+        private LdapFilter parseExtensible(final String description, final String rawValue)
+                throws InvalidSearchFilterException {
+            final String[] parts = description.split(":", -1);
+            final String attribute = parts[0].isEmpty() ? null : checkAttribute(parts[0]);
+            boolean dnAttributes = false;
+            String matchingRule = null;
+            for (int i = 1; i < parts.length; i++) {
+                if ("dn".equalsIgnoreCase(parts[i])) {
+                    dnAttributes = true;
+                } else if (!parts[i].isEmpty()) {
+                    matchingRule = parts[i];
+                }
+            }
+            if (attribute == null && matchingRule == null) {
+                throw error("Extensible match needs an attribute or a matching rule");
+            }
+            return new Extensible(attribute, dnAttributes, matchingRule, unescape(rawValue));
+        }
+
+        private String checkAttribute(final String attribute) throws InvalidSearchFilterException {
+            final String trimmed = attribute.trim();
+            if (trimmed.isEmpty()) {
+                throw error("Missing attribute description");
+            }
+            for (int i = 0; i < trimmed.length(); i++) {
+                final char c = trimmed.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '-' && c != '.' && c != ';' && c != '_') {
+                    throw error("Invalid attribute description " + attribute);
+                }
+            }
+            return trimmed;
+        }
+
+        private Value unescape(final String value) throws InvalidSearchFilterException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+            final List<Integer> offsets = new ArrayList<>(0);
+            final List<Integer> parameters = new ArrayList<>(0);
+            int i = 0;
+            while (i < value.length()) {
+                final char c = value.charAt(i);
+                if (c == '\\') {
+                    if (i + 2 < value.length() && isHex(value.charAt(i + 1)) && isHex(value.charAt(i + 2))) {
+                        bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                        i += 3;
+                    } else if (i + 1 < value.length()) {
+                        // RFC 2254 style escaping of a single character
+                        writeUtf8(value.substring(i + 1, i + 2), bytes);
+                        i += 2;
+                    } else {
+                        throw error("Invalid escape sequence in " + value);
+                    }
+                } else if (template && c == '{') {
+                    final int end = value.indexOf('}', i);
+                    final int index = end > i + 1 && end <= i + 3 ? parseIndex(value.substring(i + 1, end)) : -1;
+                    if (index < 0) {
+                        throw error("Invalid placeholder in " + value + ", expecting {0} to {" + (MAX_PARAMETERS - 1)
+                                + "}");
+                    }
+                    offsets.add(bytes.size());
+                    parameters.add(index);
+                    i = end + 1;
+                } else {
+                    final int next = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                    writeUtf8(value.substring(i, next), bytes);
+                    i = next;
+                }
+            }
+            if (!template) {
+                return Value.of(bytes.toByteArray());
+            }
+            return new Value(bytes.toByteArray(), offsets.stream().mapToInt(Integer::intValue).toArray(),
+                    parameters.stream().mapToInt(Integer::intValue).toArray(), true);
+        }
+
+        private static int parseIndex(final String index) {
+            for (int i = 0; i < index.length(); i++) {
+                if (index.charAt(i) < '0' || index.charAt(i) > '9') {
+                    return -1;
+                }
+            }
+            final int parsed = Integer.parseInt(index);
+            return parsed < MAX_PARAMETERS ? parsed : -1;
+        }
+
+        private static void writeUtf8(final String text, final ByteArrayOutputStream bytes) {
+            final byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            bytes.write(encoded, 0, encoded.length);
+        }
+
+        private static boolean isHex(final char c) {
+            return Character.digit(c, 16) >= 0;
+        }
+
+        private char current() throws InvalidSearchFilterException {
+            if (position >= filter.length()) {
+                throw error("Unexpected end of filter");
+            }
+            return filter.charAt(position);
+        }
+
+        private void expect(final char expected) throws InvalidSearchFilterException {
+            if (current() != expected) {
+                throw error("Expecting '" + expected + "'");
+            }
+            position++;
+        }
+
+        private InvalidSearchFilterException error(final String message) {
+            return new InvalidSearchFilterException(message + " at position " + position + " in " + filter);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.naming.directory.InvalidSearchFilterException;
+
+/**
+ * A search filter parsed once and kept in a cache shared by the executions, either as is or as a template whose
+ * placeholders {0}, {1}... are bound to parameters. Parameters are inserted in the parsed filter as values, so they
+ * need no escaping and cannot change its structure: binding {@code *)(uid=*} looks for that exact value.
+ * Compiled filters are normalized, so that equivalent filters share the same instance and print the same.
+ */
+final class LdapFilterTemplate {
+
+    static final int MAX_SIZE = 1000;
+
+    private static final Map<String, LdapFilterTemplate> CACHE = new LinkedHashMap<String, LdapFilterTemplate>(64,
+            0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, LdapFilterTemplate> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private static final String TEMPLATE_KEY = "T|";
+    private static final String FILTER_KEY = "F|";
+
+    private final LdapFilter filter;
+    private final String normalized;
+    private final int parameterCount;
+
+    private LdapFilterTemplate(final LdapFilter filter) {
+        this.filter = filter;
+        this.normalized = filter.toString();
+        this.parameterCount = filter.getParameterCount();
+    }
+
+    /**
+     * @return the compiled template, where {0} to {63} in a value stand for parameters
+     */
+    static LdapFilterTemplate compile(final String template) throws InvalidSearchFilterException {
+        return get(TEMPLATE_KEY, template);
+    }
+
+    /**
+     * @return the parsed filter, where braces have no special meaning
+     */
+    static LdapFilter parse(final String filter) throws InvalidSearchFilterException {
+        return get(FILTER_KEY, filter).filter;
+    }
+
+    private static LdapFilterTemplate get(final String prefix, final String text) throws InvalidSearchFilterException {
+        final String key = prefix + (text == null ? "" : text.trim());
+        synchronized (CACHE) {
+            final LdapFilterTemplate cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final LdapFilter parsed = TEMPLATE_KEY.equals(prefix) ? LdapFilter.parseTemplate(text) : LdapFilter.parse(text);
+        final LdapFilterTemplate compiled = new LdapFilterTemplate(parsed.normalize());
+        synchronized (CACHE) {
+            // equivalent filters written differently share the first instance compiled
+            final LdapFilterTemplate shared = CACHE.computeIfAbsent(prefix + compiled.normalized, k -> compiled);
+            CACHE.put(key, shared);
+            return shared;
+        }
+    }
+
+    static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @return the normalized template
+     */
+    @Override
+    public String toString() {
+        return normalized;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a parameter used by the template is missing or null
+     */
+    LdapFilter bind(final String... parameters) {
+        return bind(Arrays.asList(parameters));
+    }
+
+    /**
+     * @throws IllegalArgumentException if a parameter used by the template is missing or null
+     */
+    LdapFilter bind(final List<?> parameters) {
+        if (parameters.size() < parameterCount) {
+            throw new IllegalArgumentException(String.format("The filter template needs %d parameters, %d given",
+                    parameterCount, parameters.size()));
+        }
+        if (parameterCount == 0) {
+            return filter;
+        }
+        final List<byte[]> values = new ArrayList<>(parameterCount);
+        for (int i = 0; i < parameterCount; i++) {
+            if (parameters.get(i) == null) {
+                throw new IllegalArgumentException(String.format("The filter parameter %d is null", i));
+            }
+            values.add(parameters.get(i).toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return filter.bind(values);
+    }
+
+    /**
+     * @return the filter matching whatever the parameters: every assertion on a parameter becomes a presence test, so
+     *         that only the other assertions select the entries. Null if a parameter is not asserted on an attribute.
+     */
+    LdapFilter presentParameters() {
+        return filter.presentParameters();
+    }
+
+    /**
+     * @param indexedAttributes the indexed attribute descriptions, in any case
+     * @return true if the server can select the entries matching the filter with its indexes
+     */
+    static boolean isIndexed(final LdapFilter filter, final String[] indexedAttributes) {
+        final Set<String> indexed = Stream.of(indexedAttributes)
+                .map(attribute -> attribute.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        return filter.isIndexed(indexed);
+    }
+}
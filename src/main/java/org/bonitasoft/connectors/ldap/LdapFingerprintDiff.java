@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+/**
+ * Compares the entries of a search with those of the previous run as they are read, so that a reconciliation only
+ * handles the entries that changed, even on servers without any change tracking.
+ * <p>
+ * Every entry is reduced to a fingerprint: a SHA-256 hash of its DN and of its attributes, with lowercased names and
+ * values sorted so that the order the server sends them in does not matter. The fingerprint file keeps one
+ * {@code <hash> <dn>} line per entry. It is read when the comparison starts, and replaced by the fingerprints of the
+ * current run once every entry has been read, so that a failed search leaves the previous one in place. An entry
+ * returned twice by the search is only compared and written the first time.
+ */
+final class LdapFingerprintDiff implements LdapEntryHandler, Closeable {
+
+    private static final String HEADER = "# LDAP entry fingerprints, version 1";
+    private static final int HASH_LENGTH = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path file;
+    private final Path next;
+    private final BufferedWriter writer;
+    private final String[] attributes;
+    private final MessageDigest digest;
+
+    /**
+     * The fingerprints of the previous run not seen yet, by normalized DN: those left once the search is over are
+     * the removed entries.
+     */
+    private final Map<String, Fingerprint> previous;
+
+    /**
+     * The normalized DNs of the current run.
+     */
+    private final Set<String> seen = new HashSet<>();
+
+    private final List<String> added = new ArrayList<>();
+    private final List<String> modified = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private boolean finished;
+
+    private LdapFingerprintDiff(final Path file, final String[] attributes, final Map<String, Fingerprint> previous)
+            throws IOException {
+        this.file = file;
+        this.attributes = attributes;
+        this.previous = previous;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final Path folder = file.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        next = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+        writer = Files.newBufferedWriter(next, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    /**
+     * Reads the fingerprints of the previous run, if any, and starts writing those of the current run next to them.
+     *
+     * @param attributes the attributes making the fingerprint of an entry, null for all of the read ones
+     */
+    static LdapFingerprintDiff open(final Path file, final String[] attributes) throws IOException {
+        return new LdapFingerprintDiff(file, attributes, read(file));
+    }
+
+    private static Map<String, Fingerprint> read(final Path file) throws IOException {
+        final Map<String, Fingerprint> fingerprints = new HashMap<>();
+        if (!Files.exists(file)) {
+            return fingerprints;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.length() < HASH_LENGTH + 2 || line.charAt(HASH_LENGTH) != ' ') {
+                    throw new IOException("Invalid line in the fingerprint file " + file + ": " + line);
+                }
+                final String dn = line.substring(HASH_LENGTH + 1);
+                fingerprints.put(normalize(dn), new Fingerprint(dn, line.substring(0, HASH_LENGTH)));
+            }
+        }
+        return fingerprints;
+    }
+
+    @Override
+    public void handleEntry(final String dn, final List<LdapAttribute> entry) throws IOException {
+        final String normalizedDn = normalize(dn);
+        if (!seen.add(normalizedDn)) {
+            return;
+        }
+        final String hash = hash(normalizedDn, entry);
+        final Fingerprint fingerprint = previous.remove(normalizedDn);
+        if (fingerprint == null) {
+            added.add(dn);
+        } else if (!fingerprint.hash.equals(hash)) {
+            modified.add(dn);
+        }
+        writer.write(hash);
+        writer.write(' ');
+        writer.write(dn);
+        writer.write('\n');
+    }
+
+    private String hash(final String normalizedDn, final List<LdapAttribute> entry) {
+        final List<String> values = new ArrayList<>(entry.size());
+        for (final LdapAttribute attribute : entry) {
+            if (isFingerprinted(attribute.getName())) {
+                values.add(attribute.getName().toLowerCase(Locale.ROOT) + '\u0000'
+                        + (attribute.getValue() == null ? "" : attribute.getValue()));
+            }
+        }
+        Collections.sort(values);
+        digest.reset();
+        digest.update(normalizedDn.getBytes(StandardCharsets.UTF_8));
+        for (final String value : values) {
+            digest.update((byte) 1);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        final byte[] bytes = digest.digest();
+        final char[] hex = new char[HASH_LENGTH];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private boolean isFingerprinted(final String name) {
+        if (attributes == null) {
+            return true;
+        }
+        for (final String attribute : attributes) {
+            if (attribute.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the DN as compared between runs, regardless of case, of the spaces around the separators, of the order
+     *         of the values of a multi-valued RDN and of the way special characters are escaped
+     */
+    static String normalize(final String dn) {
+        final LdapName name;
+        try {
+            name = new LdapName(dn);
+        } catch (final InvalidNameException | IllegalArgumentException e) {
+            // not a DN, compared as it is
+            return dn.trim().toLowerCase(Locale.ROOT);
+        }
+        final StringBuilder builder = new StringBuilder(dn.length());
+        for (int i = name.size() - 1; i >= 0; i--) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(normalize(name.getRdn(i)));
+        }
+        return builder.toString();
+    }
+
+    private static String normalize(final Rdn rdn) {
+        final List<String> values = new ArrayList<>(1);
+        try {
+            final NamingEnumeration<? extends Attribute> attributes = rdn.toAttributes().getAll();
+            while (attributes.hasMore()) {
+                final Attribute attribute = attributes.next();
+                final NamingEnumeration<?> attributeValues = attribute.getAll();
+                while (attributeValues.hasMore()) {
+                    values.add(attribute.getID().toLowerCase(Locale.ROOT) + '='
+                            + Rdn.escapeValue(attributeValues.next()).toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (final NamingException e) {
+            // the attributes of an RDN are in memory
+            throw new IllegalStateException(e);
+        }
+        Collections.sort(values);
+        return String.join("+", values);
+    }
+
+    /**
+     * Lists the removed entries and replaces the fingerprint file with the fingerprints of the current run.
+     */
+    void finish() throws IOException {
+        for (final Fingerprint fingerprint : previous.values()) {
+            removed.add(fingerprint.dn);
+        }
+        Collections.sort(removed);
+        previous.clear();
+        writer.close();
+        Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    List<String> getAdded() {
+        return added;
+    }
+
+    List<String> getModified() {
+        return modified;
+    }
+
+    List<String> getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            writer.close();
+            Files.deleteIfExists(next);
+        }
+    }
+
+    private static final class Fingerprint {
+
+        private final String dn;
+        private final String hash;
+
+        private Fingerprint(final String dn, final String hash) {
+            this.dn = dn;
+            this.hash = hash;
+        }
+    }
+}
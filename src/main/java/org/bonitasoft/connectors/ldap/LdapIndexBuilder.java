@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the ldapIndex output as the entries are read: every value of the key attributes maps to its entry, so that a
+ * process finds an entry by uid or mail without walking the whole list. An entry with several key values is indexed
+ * under each of them, and entries without any are left out.
+ * <p>
+ * The keys keep the order the entries are read in. Case insensitive keys are lowercased.
+ */
+final class LdapIndexBuilder implements LdapEntryHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapIndexBuilder.class);
+
+    private final String[] keyAttributes;
+    private final LdapIndexDuplicates duplicates;
+    private final boolean ignoreCase;
+    private final Map<String, Object> index = new LinkedHashMap<>();
+    private long duplicateCount;
+    private long unkeyedCount;
+
+    LdapIndexBuilder(final String[] keyAttributes, final LdapIndexDuplicates duplicates, final boolean ignoreCase) {
+        this.keyAttributes = keyAttributes;
+        this.duplicates = duplicates;
+        this.ignoreCase = ignoreCase;
+    }
+
+    @Override
+    public void handleEntry(final String dn, final List<LdapAttribute> attributes) throws IOException {
+        boolean keyed = false;
+        for (final LdapAttribute attribute : attributes) {
+            if (attribute.getValue() != null && isKey(attribute.getName())) {
+                keyed = true;
+                add(ignoreCase ? attribute.getValue().toLowerCase(Locale.ROOT) : attribute.getValue(), dn,
+                        attributes);
+            }
+        }
+        if (!keyed) {
+            unkeyedCount++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(final String key, final String dn, final List<LdapAttribute> entry) throws IOException {
+        if (LdapIndexDuplicates.LIST.equals(duplicates)) {
+            final List<List<LdapAttribute>> entries = (List<List<LdapAttribute>>) index.computeIfAbsent(key,
+                    k -> new ArrayList<List<LdapAttribute>>(1));
+            // an entry with the same value in two key attributes is listed once
+            if (entries.isEmpty() || entries.get(entries.size() - 1) != entry) {
+                entries.add(entry);
+            }
+            return;
+        }
+        final Object previous = index.putIfAbsent(key, entry);
+        if (previous == null || previous == entry) {
+            return;
+        }
+        duplicateCount++;
+        if (LdapIndexDuplicates.FAIL.equals(duplicates)) {
+            throw new IOException(String.format("The key %s of %s is already indexed for another entry", key, dn));
+        }
+        if (LdapIndexDuplicates.LAST.equals(duplicates)) {
+            index.put(key, entry);
+        }
+    }
+
+    private boolean isKey(final String name) {
+        for (final String keyAttribute : keyAttributes) {
+            if (keyAttribute.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index, mapping each key to an entry, or to the list of its entries with the LIST duplicates
+     */
+    Map<String, Object> getIndex() {
+        if (duplicateCount > 0 || unkeyedCount > 0) {
+            LOGGER.debug("{} duplicate keys, {} entries without a key", duplicateCount, unkeyedCount);
+        }
+        return index;
+    }
+
+    long getDuplicateCount() {
+        return duplicateCount;
+    }
+}
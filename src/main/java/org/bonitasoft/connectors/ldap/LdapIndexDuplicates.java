@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * What the INDEX output mode does with a key already indexed for another entry.
+ * <ul>
+ * <li>FIRST: keeps the first entry</li>
+ * <li>LAST: replaces it with the last entry</li>
+ * <li>LIST: indexes every entry, each key then maps to the list of its entries</li>
+ * <li>FAIL: stops the search with an error</li>
+ * </ul>
+ */
+public enum LdapIndexDuplicates {
+    FIRST, LAST, LIST, FAIL
+}
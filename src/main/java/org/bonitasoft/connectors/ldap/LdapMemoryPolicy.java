@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * What the LIST output mode does when the entries read exceed the result memory budget.
+ * <ul>
+ * <li>FAIL: stops the search and fails the execution</li>
+ * <li>TRUNCATE: stops the search and returns the entries read so far, with the truncated output set to true</li>
+ * <li>SPILL: moves the entries to a temporary file and keeps reading, the ldapAttributeList output then reads them
+ * from the file</li>
+ * </ul>
+ * SPILL only bounds the memory of the execution. Storing the output in a process variable serializes every entry, so
+ * the stored value is as large as the whole result, and each read of that variable writes the entries back to a new
+ * temporary file, deleted only once the list read is garbage collected. The EXPORT output mode suits results too
+ * large to be kept in a variable.
+ */
+public enum LdapMemoryPolicy {
+    FAIL, TRUNCATE, SPILL
+}
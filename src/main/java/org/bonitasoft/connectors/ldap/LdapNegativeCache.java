@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the searches and the DNs that found nothing, so that looking up an id missing from the directory again
+ * does not go to the server until the miss expires. A miss is kept for the time to live of the execution recording
+ * it, which is meant to be short since an entry added meanwhile stays unseen until then.
+ * <p>
+ * The misses are kept apart from the DNs cached by {@link LdapDnCache}, and the least recently used ones are dropped
+ * beyond their own maximum size. The misses of a server are invalidated when the connector writes to it; the
+ * {@link #invalidate(String, int)} and {@link #clear()} hooks let a process invalidate them after changing the
+ * directory by other means.
+ */
+public final class LdapNegativeCache {
+
+    static final int MAX_SIZE = 5_000;
+
+    private static final Map<String, Long> CACHE = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private LdapNegativeCache() {
+    }
+
+    /**
+     * @return the key of a search: the server and the account, since access controls may hide entries, and the
+     *         criteria of the search
+     */
+    static String searchKey(final LdapConnectionSettings settings, final LdapSearchRequest request) {
+        return prefix(settings) + "search|" + request.getBaseObject() + '|' + request.getScope() + '|'
+                + settings.getDerefAliases() + '|' + request.getFilter();
+    }
+
+    /**
+     * @return the key of a DN lookup, regardless of the case of the DN
+     */
+    static String dnKey(final LdapConnectionSettings settings, final String dn) {
+        return prefix(settings) + "dn|" + dn.toLowerCase(Locale.ROOT);
+    }
+
+    private static String prefix(final String host, final int port) {
+        return host + ":" + port + '|';
+    }
+
+    private static String prefix(final LdapConnectionSettings settings) {
+        return prefix(settings.getHost(), settings.getPort()) + settings.getUserName() + '|';
+    }
+
+    /**
+     * @return true if the key found nothing less than its time to live ago
+     */
+    static synchronized boolean isMissing(final String key) {
+        final Long expiresAt = CACHE.get(key);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= expiresAt) {
+            CACHE.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that the key found nothing, for the time to live in milliseconds.
+     */
+    static synchronized void put(final String key, final long timeToLive) {
+        if (timeToLive > 0) {
+            CACHE.put(key, System.currentTimeMillis() + timeToLive);
+        }
+    }
+
+    /**
+     * Forgets the misses recorded on a server, by every account.
+     */
+    public static synchronized void invalidate(final String host, final int port) {
+        final String prefix = prefix(host, port);
+        for (final Iterator<String> keys = CACHE.keySet().iterator(); keys.hasNext();) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every recorded miss.
+     */
+    public static synchronized void clear() {
+        CACHE.clear();
+    }
+
+    static synchronized int size() {
+        return CACHE.size();
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * What the connector does on the directory.
+ * <ul>
+ * <li>SEARCH: reads the entries matching the filter</li>
+ * <li>WRITE: applies a batch of LDIF change records</li>
+ * <li>AUTHENTICATE: verifies the credentials of a user with a bind</li>
+ * </ul>
+ */
+public enum LdapOperation {
+    SEARCH, WRITE, AUTHENTICATE
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * What the connector does with the entries it reads.
+ * <ul>
+ * <li>LIST: returns them in the ldapAttributeList output</li>
+ * <li>EXPORT: writes them to a file or a document as they are read</li>
+ * <li>AGGREGATE: only returns an aggregate of them in the aggregate output</li>
+ * <li>INDEX: returns them in the ldapIndex output, by the values of key attributes</li>
+ * <li>DIFF: only returns the DNs of the entries added, modified and removed since the previous run</li>
+ * </ul>
+ */
+public enum LdapOutputMode {
+    LIST, EXPORT, AGGREGATE, INDEX, DIFF
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.NamingException;
+
+/**
+ * Runs a paged search on a reader thread of the {@link LdapExecutor}, handing the entries over to the calling thread
+ * through a bounded queue, so that the next page is requested as soon as the cookie of the current one is received,
+ * while the current page is still being handled. The reader waits when the queue holds the given number of pages, so
+ * that a slow handler does not let the entries pile up in memory.
+ * <p>
+ * The engine is only used by the reader until the search ends: the calling thread gets it back once the reader
+ * stopped, even if the handler failed.
+ */
+final class LdapPagePrefetcher {
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private static final Entry END = new Entry(null, null);
+
+    private final LdapSearchEngine engine;
+    private final LdapSearchRequest request;
+    private final BlockingQueue<Entry> queue;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Claimed by the reader when it starts, or by {@link #abort(Future)} to keep a reader still queued from starting.
+     */
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean aborted;
+
+    /**
+     * @param pages the number of pages read ahead of the handler
+     */
+    LdapPagePrefetcher(final LdapSearchEngine engine, final LdapSearchRequest request, final int pages) {
+        this.engine = engine;
+        this.request = request;
+        queue = new ArrayBlockingQueue<>((int) Math.min(Integer.MAX_VALUE - 1, pages * request.getPageSize()) + 1);
+    }
+
+    LdapSearchOutcome search(final LdapEntryHandler handler) throws IOException, NamingException {
+        final Future<LdapSearchOutcome> reader = LdapExecutor.SHARED.submit(this::read);
+        boolean complete = false;
+        try {
+            Entry entry;
+            while ((entry = queue.take()) != END) {
+                handler.handleEntry(entry.dn, entry.attributes);
+            }
+            final LdapSearchOutcome outcome = reader.get();
+            complete = true;
+            return outcome;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the LDAP entries");
+        } catch (final ExecutionException e) {
+            throw LdapExecutor.rethrow(e.getCause());
+        } finally {
+            if (!complete) {
+                abort(reader);
+            }
+        }
+    }
+
+    private LdapSearchOutcome read() throws IOException, NamingException {
+        if (!started.compareAndSet(false, true)) {
+            // aborted before the reader started
+            return null;
+        }
+        try {
+            return engine.search(request, (dn, attributes) -> put(new Entry(dn, attributes)));
+        } finally {
+            try {
+                put(END);
+            } catch (final InterruptedIOException e) {
+                // the handler failed, nobody waits for the end
+            }
+            stopped.countDown();
+        }
+    }
+
+    private void put(final Entry entry) throws InterruptedIOException {
+        try {
+            while (!aborted) {
+                if (queue.offer(entry, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new InterruptedIOException("The LDAP search was aborted");
+    }
+
+    /**
+     * Stops the reader and waits for it if it started, so that the engine can be closed.
+     */
+    void abort(final Future<LdapSearchOutcome> reader) {
+        aborted = true;
+        reader.cancel(true);
+        queue.clear();
+        if (started.compareAndSet(false, true)) {
+            // the reader task never runs the search, it may not even run at all once cancelled
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                stopped.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Entry {
+
+        private final String dn;
+        private final List<LdapAttribute> attributes;
+
+        private Entry(final String dn, final List<LdapAttribute> attributes) {
+            this.dn = dn;
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dereferences the attributes holding DNs, such as manager or member, in the entries of a search result.
+ * The distinct DNs of the whole result are read once each, in batches read concurrently on connections of the
+ * operations pool, and the returned attributes of every referenced entry are inserted after the reference, named
+ * {@code <reference>.<attribute>}: the manager value of an entry is followed by its manager.cn values.
+ * A resolver keeps the entries it read, it is meant to be used for a single execution. The DNs of missing entries
+ * can be remembered across executions in the {@link LdapNegativeCache}.
+ */
+final class LdapReferenceResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapReferenceResolver.class);
+
+    /**
+     * The number of DNs read by a single call to the engine.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The number of batches read at the same time, each on its own connection.
+     */
+    private static final int PARALLEL_BATCHES = 4;
+
+    private static final List<LdapAttribute> NOT_FOUND = new ArrayList<>(0);
+
+    private final LdapEngine engine;
+    private final LdapConnectionSettings settings;
+    private final String[] referenceAttributes;
+    private final String[] returnedAttributes;
+    private final long negativeCacheTtl;
+    private final Map<LdapName, List<LdapAttribute>> entries = new HashMap<>();
+
+    /**
+     * @param referenceAttributes the attributes holding the DNs to dereference
+     * @param returnedAttributes the attributes of the referenced entries to insert, null for all of them
+     * @param negativeCacheTtl the milliseconds a missing entry is remembered as such, 0 to read it every time
+     */
+    LdapReferenceResolver(final LdapEngine engine, final LdapConnectionSettings settings,
+            final String[] referenceAttributes, final String[] returnedAttributes, final long negativeCacheTtl) {
+        this.engine = engine;
+        this.settings = settings;
+        this.referenceAttributes = referenceAttributes;
+        this.returnedAttributes = returnedAttributes;
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    /**
+     * Replaces every entry holding references by a copy with the attributes of the referenced entries inserted.
+     * Values that are not DNs and DNs of entries that do not exist are left as they are.
+     * <p>
+     * The estimated size of the attributes inserted in each entry is handed to the budget. If the budget throws, the
+     * entry and the following ones are removed from the result before the exception is thrown again.
+     */
+    void resolve(final List<List<LdapAttribute>> result, final Budget budget) throws NamingException, IOException {
+        read(collect(result));
+        for (int i = 0; i < result.size(); i++) {
+            final List<LdapAttribute> entry = result.get(i);
+            List<LdapAttribute> resolved = null;
+            for (int j = 0; j < entry.size(); j++) {
+                final LdapAttribute attribute = entry.get(j);
+                final List<LdapAttribute> referenced = isReference(attribute) ? get(attribute.getValue()) : null;
+                if (referenced != null && !referenced.isEmpty()) {
+                    if (resolved == null) {
+                        resolved = new ArrayList<>(entry.subList(0, j));
+                    }
+                    resolved.add(attribute);
+                    for (final LdapAttribute value : referenced) {
+                        resolved.add(new LdapAttribute(attribute.getName() + "." + value.getName(), value.getValue()));
+                    }
+                } else if (resolved != null) {
+                    resolved.add(attribute);
+                }
+            }
+            if (resolved != null) {
+                try {
+                    budget.add(LdapEntryList.estimateSize(resolved) - LdapEntryList.estimateSize(entry));
+                } catch (final IOException | RuntimeException e) {
+                    result.subList(i, result.size()).clear();
+                    throw e;
+                }
+                result.set(i, resolved);
+            }
+        }
+    }
+
+    /**
+     * @return the distinct DNs referenced by the result that were not read yet, by their original value
+     */
+    private Map<LdapName, String> collect(final List<List<LdapAttribute>> result) {
+        final Map<LdapName, String> dns = new LinkedHashMap<>();
+        for (final List<LdapAttribute> entry : result) {
+            for (final LdapAttribute attribute : entry) {
+                if (isReference(attribute)) {
+                    final LdapName name = toName(attribute.getValue());
+                    if (name == null || entries.containsKey(name)) {
+                        continue;
+                    }
+                    if (negativeCacheTtl > 0
+                            && LdapNegativeCache.isMissing(LdapNegativeCache.dnKey(settings, name.toString()))) {
+                        entries.put(name, NOT_FOUND);
+                    } else {
+                        dns.putIfAbsent(name, attribute.getValue());
+                    }
+                }
+            }
+        }
+        return dns;
+    }
+
+    private void read(final Map<LdapName, String> dns) throws NamingException, IOException {
+        if (dns.isEmpty()) {
+            return;
+        }
+        final List<LdapName> names = new ArrayList<>(dns.keySet());
+        final List<String> values = new ArrayList<>(dns.values());
+        final List<LdapExecutor.Task<List<List<LdapAttribute>>>> batches = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += BATCH_SIZE) {
+            final List<String> batch = values.subList(from, Math.min(from + BATCH_SIZE, values.size()));
+            batches.add(() -> readBatch(batch));
+        }
+        final List<List<List<LdapAttribute>>> read = batches.size() == 1
+                ? Collections.singletonList(readBatch(values))
+                : LdapExecutor.SHARED.invokeAll(batches, PARALLEL_BATCHES);
+        for (int i = 0; i < values.size(); i++) {
+            final List<LdapAttribute> entry = read.get(i / BATCH_SIZE).get(i % BATCH_SIZE);
+            if (entry != null) {
+                entries.put(names.get(i), entry);
+            } else {
+                entries.put(names.get(i), NOT_FOUND);
+                LdapNegativeCache.put(LdapNegativeCache.dnKey(settings, names.get(i).toString()), negativeCacheTtl);
+            }
+        }
+        LOGGER.debug("{} referenced entries read in {} batches", values.size(), batches.size());
+    }
+
+    private List<List<LdapAttribute>> readBatch(final List<String> dns) throws NamingException, IOException {
+        try (LdapConnectionPool.Lease lease = LdapConnectionPool.OPERATIONS.acquire(engine, settings)) {
+            try {
+                return lease.getEngine().read(dns, returnedAttributes);
+            } catch (final IOException | NamingException e) {
+                lease.invalidate();
+                throw e;
+            }
+        }
+    }
+
+    private List<LdapAttribute> get(final String dn) {
+        final LdapName name = toName(dn);
+        return name != null ? entries.get(name) : null;
+    }
+
+    private boolean isReference(final LdapAttribute attribute) {
+        for (final String referenceAttribute : referenceAttributes) {
+            if (referenceAttribute.equalsIgnoreCase(attribute.getName())) {
+                return attribute.getValue() != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the memory taken by the attributes inserted in the result.
+     */
+    @FunctionalInterface
+    interface Budget {
+
+        /**
+         * @param size the estimated size of the attributes inserted in an entry, in bytes
+         * @throws IOException to stop inserting attributes
+         */
+        void add(long size) throws IOException;
+    }
+
+    /**
+     * @return the parsed DN, which compares regardless of case and spacing, or null if the value is not a DN
+     */
+    private static LdapName toName(final String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            return new LdapName(value);
+        } catch (final InvalidNameException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
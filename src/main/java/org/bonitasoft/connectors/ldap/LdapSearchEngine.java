@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+/**
+ * A connection to a directory service able to run search and update operations.
+ * An engine is opened once, can run several operations and must be closed afterwards.
+ */
+public interface LdapSearchEngine extends Closeable {
+
+    /**
+     * Connects to the directory service, negotiates TLS if needed and authenticates.
+     */
+    void open() throws NamingException, IOException;
+
+    /**
+     * Runs a search and hands every returned entry to the given handler, in the order the server sends them.
+     *
+     * @return a summary of the search
+     */
+    LdapSearchOutcome search(LdapSearchRequest request, LdapEntryHandler handler) throws NamingException, IOException;
+
+    /**
+     * Reads the given entries with base object searches. Engines able to pipeline requests send them ahead of the
+     * responses.
+     *
+     * @param attributes the attributes to return, null for all of them
+     * @return the attributes of each entry in the order of the DNs, null for an entry that does not exist
+     */
+    List<List<LdapAttribute>> read(List<String> dns, String[] attributes) throws NamingException, IOException;
+
+    /**
+     * Applies a batch of updates in order. The failure of an operation is reported in its result; only connection
+     * failures are thrown.
+     *
+     * @param transactional true to apply every operation or none of them, in an LDAP transaction (RFC 5805)
+     * @param stopOnError true to stop sending operations after the first failure
+     * @return one result per operation, in the order of the operations
+     */
+    List<LdapWriteResult> write(List<LdapWriteOperation> operations, boolean transactional, boolean stopOnError)
+            throws NamingException, IOException;
+
+    /**
+     * Binds with the given credentials, replacing the identity of the connection.
+     *
+     * @return true if the credentials are valid, false if the server rejected them as invalid credentials
+     */
+    boolean authenticate(String dn, String password) throws NamingException, IOException;
+
+    /**
+     * @return true if the engine was opened, and not closed since as far as it knows
+     */
+    boolean isOpen();
+
+    /**
+     * Releases the connection. Errors are logged, never thrown.
+     */
+    @Override
+    void close();
+}
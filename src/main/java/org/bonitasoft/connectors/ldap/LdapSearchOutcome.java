@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * What a search engine reports once a search is over.
+ */
+public final class LdapSearchOutcome {
+
+    private final long entryCount;
+    private final int pageCount;
+    private final byte[] cookie;
+
+    public LdapSearchOutcome(final long entryCount, final int pageCount) {
+        this(entryCount, pageCount, null);
+    }
+
+    public LdapSearchOutcome(final long entryCount, final int pageCount, final byte[] cookie) {
+        this.entryCount = entryCount;
+        this.pageCount = pageCount;
+        this.cookie = cookie;
+    }
+
+    /**
+     * @return the number of entries handed to the entry handler
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the number of search requests sent to the server, 1 for a non-paged search
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the paging cookie of the next page when the search stopped at its page limit, null when it is complete
+     */
+    public byte[] getCookie() {
+        return cookie;
+    }
+
+    public boolean isComplete() {
+        return cookie == null;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses how to run a search in the AUTO search strategy:
+ * <ul>
+ * <li>without paging if the server does not support the paged results control, or if few entries are expected;</li>
+ * <li>by counting the entries first, without their attributes, if the search was never run;</li>
+ * <li>otherwise with pages sized so that a page takes about {@link #TARGET_PAGE_NANOS}, given the time per entry of
+ * the previous executions.</li>
+ * </ul>
+ * The controls of each server are read once from its root DSE. The statistics are kept per search, for the last
+ * {@link #MAX_QUERIES} searches.
+ */
+final class LdapSearchPlanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapSearchPlanner.class);
+
+    static final String PAGED_RESULTS_CONTROL = "1.2.840.113556.1.4.319";
+
+    static final long SMALL_RESULT = 500;
+    static final long DEFAULT_PAGE_SIZE = 500;
+    static final long MIN_PAGE_SIZE = 100;
+    /**
+     * The largest page many servers accept, as the default MaxPageSize of Active Directory.
+     */
+    static final long MAX_PAGE_SIZE = 1000;
+    static final long TARGET_PAGE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    static final long ROOT_DSE_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+    static final int MAX_QUERIES = 1000;
+
+    private static final String[] NO_ATTRIBUTES = { "1.1" };
+    private static final String[] SUPPORTED_CONTROL = { "supportedControl" };
+
+    private static final Map<String, RootDse> ROOT_DSES = new ConcurrentHashMap<>();
+
+    private static final Map<String, Statistics> STATISTICS = new LinkedHashMap<String, Statistics>(64, 0.75f,
+            true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Statistics> eldest) {
+            return size() > MAX_QUERIES;
+        }
+    };
+
+    private LdapSearchPlanner() {
+    }
+
+    /**
+     * @param query identifies the search in the statistics
+     */
+    static Plan plan(final LdapSearchEngine engine, final LdapConnectionSettings settings, final String query,
+            final LdapSearchRequest request) throws NamingException, IOException {
+        final boolean paging = supportsPaging(engine, settings);
+        final Plan plan = choose(paging, getStatistics(query), request.getSizeLimit());
+        if (!plan.isCountFirst()) {
+            return plan;
+        }
+        final long count = engine.search(request.copy(NO_ATTRIBUTES, MAX_PAGE_SIZE), (dn, attributes) -> {
+        }).getEntryCount();
+        record(query, count, -1);
+        return choose(paging, getStatistics(query), request.getSizeLimit()).countedFirst();
+    }
+
+    /**
+     * Chooses the plan of a search.
+     *
+     * @param statistics the statistics of the previous executions, null if there is none
+     */
+    static Plan choose(final boolean paging, final Statistics statistics, final long sizeLimit) {
+        if (!paging) {
+            return new Plan(0, false, "the server does not support paging");
+        }
+        if (sizeLimit > 0 && sizeLimit <= SMALL_RESULT) {
+            return new Plan(0, false, "the size limit is " + sizeLimit);
+        }
+        if (statistics == null) {
+            return new Plan(0, true, "the search was never run");
+        }
+        final double expected = sizeLimit > 0 ? Math.min(statistics.getEntries(), sizeLimit)
+                : statistics.getEntries();
+        final String history = String.format("expected entries: %.0f, executions: %d", expected,
+                statistics.getExecutions());
+        if (expected <= SMALL_RESULT) {
+            return new Plan(0, false, history);
+        }
+        if (Double.isNaN(statistics.getNanosPerEntry())) {
+            return new Plan(DEFAULT_PAGE_SIZE, false, history);
+        }
+        final long pageSize = Math.max(MIN_PAGE_SIZE,
+                Math.min(MAX_PAGE_SIZE, (long) (TARGET_PAGE_NANOS / Math.max(statistics.getNanosPerEntry(), 1))));
+        return new Plan(pageSize, false, String.format("%s, µs per entry: %.0f", history,
+                statistics.getNanosPerEntry() / 1000));
+    }
+
+    /**
+     * Records an execution of the search.
+     *
+     * @param nanos the duration of the search, negative if unknown
+     */
+    static void record(final String query, final long entries, final long nanos) {
+        synchronized (STATISTICS) {
+            STATISTICS.computeIfAbsent(query, q -> new Statistics()).add(entries, nanos);
+        }
+    }
+
+    static Statistics getStatistics(final String query) {
+        synchronized (STATISTICS) {
+            return STATISTICS.get(query);
+        }
+    }
+
+    static void clear() {
+        synchronized (STATISTICS) {
+            STATISTICS.clear();
+        }
+        ROOT_DSES.clear();
+    }
+
+    private static boolean supportsPaging(final LdapSearchEngine engine, final LdapConnectionSettings settings)
+            throws NamingException, IOException {
+        final String server = LdapContinuationToken.server(settings);
+        final RootDse cached = ROOT_DSES.get(server);
+        final long now = System.currentTimeMillis();
+        if (cached != null && now - cached.readAt <= ROOT_DSE_TIME_TO_LIVE) {
+            return cached.paging;
+        }
+        boolean paging = true;
+        final List<LdapAttribute> rootDse = engine.read(Collections.singletonList(""), SUPPORTED_CONTROL).get(0);
+        if (rootDse != null && !rootDse.isEmpty()) {
+            paging = rootDse.stream().anyMatch(control -> PAGED_RESULTS_CONTROL.equals(control.getValue()));
+        } else {
+            // the paged results control is sent as non critical, a server not supporting it ignores it
+            LOGGER.debug("The root DSE of {} does not list its controls, paging is assumed to be supported", server);
+        }
+        ROOT_DSES.put(server, new RootDse(paging, now));
+        return paging;
+    }
+
+    /**
+     * How a search is run.
+     */
+    static final class Plan {
+
+        private final long pageSize;
+        private final boolean countFirst;
+        private final String reason;
+        private boolean counted;
+
+        private Plan(final long pageSize, final boolean countFirst, final String reason) {
+            this.pageSize = pageSize;
+            this.countFirst = countFirst;
+            this.reason = reason;
+        }
+
+        private Plan countedFirst() {
+            counted = true;
+            return this;
+        }
+
+        /**
+         * @return the page size, 0 not to page the search
+         */
+        long getPageSize() {
+            return pageSize;
+        }
+
+        /**
+         * @return true if the entries must be counted to choose the plan
+         */
+        boolean isCountFirst() {
+            return countFirst;
+        }
+
+        @Override
+        public String toString() {
+            return (pageSize > 0 ? "paged by " + pageSize : "not paged") + (counted ? ", counted first" : "") + ": "
+                    + reason;
+        }
+    }
+
+    /**
+     * The averages of the previous executions of a search, weighting the last execution by {@link #WEIGHT}.
+     */
+    static final class Statistics {
+
+        static final double WEIGHT = 0.3;
+
+        private int executions;
+        private double entries;
+        private double nanosPerEntry = Double.NaN;
+
+        void add(final long entryCount, final long nanos) {
+            entries = executions == 0 ? entryCount : entries + WEIGHT * (entryCount - entries);
+            executions++;
+            if (nanos >= 0 && entryCount > 0) {
+                final double perEntry = (double) nanos / entryCount;
+                nanosPerEntry = Double.isNaN(nanosPerEntry) ? perEntry
+                        : nanosPerEntry + WEIGHT * (perEntry - nanosPerEntry);
+            }
+        }
+
+        int getExecutions() {
+            return executions;
+        }
+
+        double getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the average time to read an entry, NaN if unknown
+         */
+        double getNanosPerEntry() {
+            return nanosPerEntry;
+        }
+    }
+
+    private static final class RootDse {
+
+        private final boolean paging;
+        private final long readAt;
+
+        private RootDse(final boolean paging, final long readAt) {
+            this.paging = paging;
+            this.readAt = readAt;
+        }
+    }
+}
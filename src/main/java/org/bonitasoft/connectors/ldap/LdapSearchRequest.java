@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import javax.naming.directory.InvalidSearchFilterException;
+
+/**
+ * The criteria of a search operation, independent of the engine running it.
+ */
+public final class LdapSearchRequest {
+
+    private final String baseObject;
+    private final String filter;
+    private final LdapScope scope;
+    private final String[] attributes;
+    private final long sizeLimit;
+    private final int timeLimit;
+    private final long pageSize;
+    private byte[] cookie;
+    private int maxPages;
+    private LdapFilter parsedFilter;
+
+    /**
+     * @param attributes the attributes to return, null for all of them
+     * @param sizeLimit the maximum number of entries, 0 for no limit
+     * @param timeLimit the search time limit in seconds, 0 for no limit
+     * @param pageSize the page size of a paged search, 0 or less for a non-paged search
+     */
+    public LdapSearchRequest(final String baseObject, final String filter, final LdapScope scope,
+            final String[] attributes, final long sizeLimit, final int timeLimit, final long pageSize) {
+        this.baseObject = baseObject;
+        this.filter = filter;
+        this.scope = scope;
+        this.attributes = attributes;
+        this.sizeLimit = sizeLimit;
+        this.timeLimit = timeLimit;
+        this.pageSize = pageSize;
+    }
+
+    public String getBaseObject() {
+        return baseObject;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the filter, parsed once for all the searches using it
+     */
+    LdapFilter getParsedFilter() throws InvalidSearchFilterException {
+        if (parsedFilter == null) {
+            parsedFilter = LdapFilterTemplate.parse(filter);
+        }
+        return parsedFilter;
+    }
+
+    void setParsedFilter(final LdapFilter parsedFilter) {
+        this.parsedFilter = parsedFilter;
+    }
+
+    public LdapScope getScope() {
+        return scope;
+    }
+
+    public String[] getAttributes() {
+        return attributes;
+    }
+
+    public long getSizeLimit() {
+        return sizeLimit;
+    }
+
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    public boolean isPaged() {
+        return pageSize > 0;
+    }
+
+    /**
+     * @return the paging cookie to resume a paged search from, null to start from the first page
+     */
+    public byte[] getCookie() {
+        return cookie;
+    }
+
+    public void setCookie(final byte[] cookie) {
+        this.cookie = cookie;
+    }
+
+    /**
+     * @return the maximum number of pages to read before returning, 0 to read all of them
+     */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public void setMaxPages(final int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * @return a copy of this request from the first page, returning other attributes with another page size
+     */
+    LdapSearchRequest copy(final String[] attributes, final long pageSize) {
+        final LdapSearchRequest copy = new LdapSearchRequest(baseObject, filter, scope, attributes, sizeLimit,
+                timeLimit, pageSize);
+        copy.parsedFilter = parsedFilter;
+        copy.maxPages = maxPages;
+        return copy;
+    }
+
+    /**
+     * @return true when the given number of pages was read and the search must stop even if more pages remain
+     */
+    boolean isPageLimitReached(final int pages) {
+        return maxPages > 0 && pages >= maxPages;
+    }
+}
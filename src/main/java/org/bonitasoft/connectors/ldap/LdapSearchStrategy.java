@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * How the connector chooses to page a search.
+ * <ul>
+ * <li>MANUAL: pages with the given pageSize, or does not page if it is 0</li>
+ * <li>AUTO: chooses from the controls the server supports and from the previous executions of the same search, and
+ * counts the entries first when the search was never run</li>
+ * </ul>
+ */
+public enum LdapSearchStrategy {
+    MANUAL, AUTO
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the engines of unfinished paged searches open between connector executions.
+ * Most servers bind a paging cookie to the connection it was issued on, so resuming a search needs the same
+ * connection. A session is only handed back to an execution with the credentials that opened it, since its engine
+ * is bound with them. Sessions left unused longer than the idle timeout are closed by a background sweep, and the
+ * oldest session is closed when too many are parked, so that abandoned searches cannot hold every connection the
+ * server accepts.
+ */
+final class LdapSessionRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapSessionRegistry.class);
+
+    static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    static final int MAX_SESSIONS = 64;
+
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+    private static final AtomicLong PARK_ORDER = new AtomicLong();
+
+    /**
+     * Salts the hashes of the credentials, so that the keys of the sessions reveal nothing of the passwords.
+     */
+    private static final byte[] SALT = new byte[16];
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(task -> {
+        final Thread thread = new Thread(task, "ldap-session-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // nextBytes rather than generateSeed, which may block on the entropy of the system
+        new SecureRandom().nextBytes(SALT);
+        SWEEPER.scheduleWithFixedDelay(LdapSessionRegistry::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private LdapSessionRegistry() {
+    }
+
+    static String newSessionId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * @return a salted hash of the user and the password the engines of a connection are bound with
+     */
+    static String identity(final LdapConnectionSettings settings) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(SALT);
+            digest.update(String.valueOf(settings.getUserName()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(settings.getPassword()).getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(final String sessionId, final String identity) {
+        return sessionId + '|' + identity;
+    }
+
+    /**
+     * Keeps an opened engine until the next page is asked for.
+     *
+     * @param identity the {@link #identity(LdapConnectionSettings)} of the credentials the engine is bound with
+     */
+    static void park(final String sessionId, final String identity, final LdapSearchEngine engine) {
+        evictExpired();
+        final Session previous = SESSIONS.put(key(sessionId, identity), new Session(engine));
+        if (previous != null && previous.engine != engine) {
+            previous.engine.close();
+        }
+        while (SESSIONS.size() > MAX_SESSIONS) {
+            evictOldest();
+        }
+    }
+
+    private static void evictOldest() {
+        Map.Entry<String, Session> oldest = null;
+        for (final Map.Entry<String, Session> entry : SESSIONS.entrySet()) {
+            if (oldest == null || entry.getValue().order < oldest.getValue().order) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null && SESSIONS.remove(oldest.getKey(), oldest.getValue())) {
+            LOGGER.warn("Closing the LDAP paging session {}: more than {} sessions are parked",
+                    sessionId(oldest.getKey()), MAX_SESSIONS);
+            oldest.getValue().engine.close();
+        }
+    }
+
+    /**
+     * Removes a session from the registry, the caller becoming the owner of its engine.
+     *
+     * @param identity the {@link #identity(LdapConnectionSettings)} of the credentials of the caller
+     * @return the engine, or null if the session expired, was opened on another node or with other credentials
+     */
+    static LdapSearchEngine take(final String sessionId, final String identity) {
+        evictExpired();
+        final Session session = SESSIONS.remove(key(sessionId, identity));
+        return session == null ? null : session.engine;
+    }
+
+    static int size() {
+        return SESSIONS.size();
+    }
+
+    private static void sweep() {
+        try {
+            evictExpired();
+        } catch (final RuntimeException e) {
+            // a failed sweep must not cancel the next ones
+            LOGGER.warn("Error closing the expired LDAP paging sessions", e);
+        }
+    }
+
+    static void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, Session>> iterator = SESSIONS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Session> entry = iterator.next();
+            if (now - entry.getValue().parkedAt > IDLE_TIMEOUT && SESSIONS.remove(entry.getKey(), entry.getValue())) {
+                LOGGER.debug("Closing the expired LDAP paging session {}", sessionId(entry.getKey()));
+                entry.getValue().engine.close();
+            }
+        }
+    }
+
+    private static String sessionId(final String key) {
+        return key.substring(0, key.indexOf('|'));
+    }
+
+    private static final class Session {
+
+        private final LdapSearchEngine engine;
+        private final long parkedAt = System.currentTimeMillis();
+        private final long order = PARK_ORDER.incrementAndGet();
+
+        private Session(final LdapSearchEngine engine) {
+            this.engine = engine;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * A timed LDAP operation reported to an {@link LdapTracer}. A span is closed on the thread that started it, and the
+ * spans started in between are closed before it.
+ */
+public interface LdapSpan extends AutoCloseable {
+
+    /**
+     * The span of the default tracer, which records nothing.
+     */
+    LdapSpan NOOP = new LdapSpan() {
+
+        @Override
+        public LdapSpan setAttribute(final String key, final Object value) {
+            return this;
+        }
+
+        @Override
+        public void setError(final Throwable error) {
+            // nothing to record
+        }
+
+        @Override
+        public void close() {
+            // nothing to record
+        }
+    };
+
+    /**
+     * @param value a String, Boolean, Integer or Long
+     * @return this span
+     */
+    LdapSpan setAttribute(String key, Object value);
+
+    /**
+     * Marks the operation as failed. Called before the span is closed.
+     */
+    void setError(Throwable error);
+
+    /**
+     * Ends the operation. Errors are never thrown.
+     */
+    @Override
+    void close();
+}
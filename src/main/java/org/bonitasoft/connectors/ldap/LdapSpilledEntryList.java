@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ldapAttributeList output once the entries exceeded the result memory budget: the entries are appended to a
+ * temporary file and read back from it, so that only their offsets stay in memory. Reading the entries in order
+ * streams the file; reading them at random seeks to each one.
+ * <p>
+ * The list is read only once built. Its serialized form is streamed from the file in chunks, deflated if asked for,
+ * and deserializes as a new list spilled to its own file, so that storing the output in a process variable or reading
+ * it back never holds all the entries in memory at once. The serialized form still holds every entry, and nothing
+ * closes a deserialized list: its file is only deleted when the list is garbage collected, so each read of a stored
+ * output keeps a file in the temporary folder until then. The file of the list built by the connector is deleted
+ * when it is closed or garbage collected.
+ * <p>
+ * The list is thread safe: reads share a single file position, so they are serialized.
+ */
+final class LdapSpilledEntryList extends AbstractList<List<LdapAttribute>> implements Serializable, Closeable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapSpilledEntryList.class);
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final transient Storage storage;
+    private final transient Cleaner.Cleanable cleanable;
+    private final transient ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final boolean compressed;
+    private transient long[] offsets = new long[1024];
+    private transient int size;
+    private transient long length;
+    private transient int nextIndex = -1;
+
+    /**
+     * @param compressed true to deflate the serialized form, as {@link LdapEntryList}
+     */
+    LdapSpilledEntryList(final boolean compressed) throws IOException {
+        this.compressed = compressed;
+        storage = new Storage(Files.createTempFile("ldap-result", ".entries"));
+        cleanable = CLEANER.register(this, storage);
+    }
+
+    /**
+     * Appends an entry to the file.
+     */
+    synchronized void append(final List<LdapAttribute> entry) throws IOException {
+        record.reset();
+        final DataOutputStream out = new DataOutputStream(record);
+        LdapEntryList.writeVarInt(out, entry.size());
+        for (final LdapAttribute attribute : entry) {
+            LdapEntryList.writeString(out, attribute.getName());
+            LdapEntryList.writeString(out, attribute.getValue());
+        }
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size++] = length;
+        length += record.size();
+        record.writeTo(storage.output());
+        // the next read seeks, as the read buffer may end before the appended entry
+        nextIndex = -1;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(final List<LdapAttribute> entry) {
+        try {
+            append(entry);
+            return true;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<LdapAttribute> get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        try {
+            final DataInputStream in = storage.input(index == nextIndex ? -1 : offsets[index]);
+            nextIndex = index + 1;
+            final int count = LdapEntryList.readVarInt(in);
+            final List<LdapAttribute> entry = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entry.add(new LdapAttribute(LdapEntryList.readString(in), LdapEntryList.readString(in)));
+            }
+            return entry;
+        } catch (final IOException e) {
+            nextIndex = -1;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the size of the file, in bytes
+     */
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return a new stream on the file, from its first entry, not moving the position of the reads
+     */
+    private synchronized InputStream openFile() throws IOException {
+        return storage.open();
+    }
+
+    /**
+     * Deletes the file.
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    /**
+     * The serialized form: the compression flag, the entry count, the file length, then the file in chunks, each
+     * written as its length followed by its bytes, deflated if asked for.
+     */
+    private static final class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient LdapSpilledEntryList list;
+
+        private SerializedForm(final LdapSpilledEntryList list) {
+            this.list = list;
+        }
+
+        private void writeObject(final ObjectOutputStream out) throws IOException {
+            final int size;
+            final long length;
+            synchronized (list) {
+                size = list.size;
+                length = list.length;
+            }
+            out.writeBoolean(list.compressed);
+            out.writeInt(size);
+            out.writeLong(length);
+            final byte[] chunk = new byte[BUFFER_SIZE];
+            final byte[] deflated = new byte[BUFFER_SIZE + BUFFER_SIZE / 16 + 64];
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (InputStream in = list.openFile()) {
+                long remaining = length;
+                while (remaining > 0) {
+                    final int read = in.readNBytes(chunk, 0, (int) Math.min(chunk.length, remaining));
+                    if (read <= 0) {
+                        throw new EOFException("The result file ends before its last entry");
+                    }
+                    remaining -= read;
+                    if (list.compressed) {
+                        deflater.reset();
+                        deflater.setInput(chunk, 0, read);
+                        deflater.finish();
+                        final int written = deflater.deflate(deflated);
+                        if (!deflater.finished()) {
+                            throw new IOException("A chunk of the LDAP result does not fit in its deflate buffer");
+                        }
+                        out.writeInt(written);
+                        out.write(deflated, 0, written);
+                    } else {
+                        out.writeInt(read);
+                        out.write(chunk, 0, read);
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void readObject(final ObjectInputStream in) throws IOException {
+            final boolean compressed = in.readBoolean();
+            final int size = in.readInt();
+            final long length = in.readLong();
+            list = new LdapSpilledEntryList(compressed);
+            final DataInputStream entries = new DataInputStream(new ChunkInputStream(in, length, compressed));
+            for (int i = 0; i < size; i++) {
+                final int count = LdapEntryList.readVarInt(entries);
+                final List<LdapAttribute> entry = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    entry.add(new LdapAttribute(LdapEntryList.readString(entries), LdapEntryList.readString(entries)));
+                }
+                list.append(entry);
+            }
+        }
+
+        private Object readResolve() {
+            return list;
+        }
+    }
+
+    /**
+     * Reads the chunks of the serialized form back as a single stream, one chunk in memory at a time.
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        private final ObjectInputStream in;
+        private final boolean compressed;
+        private final Inflater inflater = new Inflater();
+        private byte[] chunk = new byte[0];
+        private int position;
+        private int limit;
+        private long remaining;
+
+        ChunkInputStream(final ObjectInputStream in, final long length, final boolean compressed) {
+            this.in = in;
+            this.remaining = length;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextChunk()) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (position == limit && !nextChunk()) {
+                return -1;
+            }
+            final int read = Math.min(len, limit - position);
+            System.arraycopy(chunk, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (remaining <= 0) {
+                inflater.end();
+                return false;
+            }
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            if (compressed) {
+                if (chunk.length < BUFFER_SIZE) {
+                    chunk = new byte[BUFFER_SIZE];
+                }
+                inflater.reset();
+                inflater.setInput(bytes);
+                try {
+                    limit = inflater.inflate(chunk);
+                } catch (final DataFormatException e) {
+                    throw new IOException("Invalid chunk in a serialized LDAP result", e);
+                }
+            } else {
+                chunk = bytes;
+                limit = bytes.length;
+            }
+            position = 0;
+            remaining -= limit;
+            return limit > 0;
+        }
+    }
+
+    /**
+     * The file, kept apart from the list so that it can be deleted once the list is unreachable.
+     */
+    private static final class Storage implements Runnable {
+
+        private final Path path;
+        private OutputStream output;
+        private RandomAccessFile file;
+        private DataInputStream input;
+
+        Storage(final Path path) {
+            this.path = path;
+        }
+
+        OutputStream output() throws IOException {
+            if (output == null) {
+                output = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+            }
+            return output;
+        }
+
+        /**
+         * @return a new stream on the file, from its start
+         */
+        InputStream open() throws IOException {
+            if (output != null) {
+                output.flush();
+            }
+            return new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        }
+
+        /**
+         * @param offset the position to read from, negative to go on reading where the previous entry ended
+         */
+        DataInputStream input(final long offset) throws IOException {
+            if (output != null) {
+                output.flush();
+            }
+            if (file == null) {
+                file = new RandomAccessFile(path.toFile(), "r");
+            }
+            if (input == null || offset >= 0) {
+                file.seek(Math.max(offset, 0));
+                input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel()),
+                        BUFFER_SIZE));
+            }
+            return input;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+                if (file != null) {
+                    file.close();
+                }
+                Files.deleteIfExists(path);
+            } catch (final IOException e) {
+                LOGGER.warn("Error deleting the result file {}", path, e);
+            }
+        }
+    }
+}
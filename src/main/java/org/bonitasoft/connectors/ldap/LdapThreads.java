@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads running LDAP operations concurrently. This version runs them on a bounded pool of platform
+ * threads; the connector jar is a multi-release jar whose Java 21 version of this class runs each operation on its own
+ * virtual thread instead.
+ */
+final class LdapThreads {
+
+    /**
+     * The number of platform threads, beyond which the operations wait in the queue of the pool.
+     */
+    static final int MAX_PLATFORM_THREADS = 32;
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private LdapThreads() {
+    }
+
+    static ExecutorService newExecutor(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = task -> {
+            final Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PLATFORM_THREADS, MAX_PLATFORM_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return true if the operations run on virtual threads
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+/**
+ * Receives the spans of the LDAP operations run by the connector: ldap.connect, ldap.starttls, ldap.bind, one
+ * ldap.search.page span per page read and ldap.convert for the work done on the entries once read. Entries are
+ * converted as they are received, so the conversion of unsorted entries is part of the page spans.
+ * <p>
+ * The tracer is the first implementation found by {@link java.util.ServiceLoader} in the class loader of the connector,
+ * listed in META-INF/services/org.bonitasoft.connectors.ldap.LdapTracer. Without one, spans cost a method call that
+ * returns {@link LdapSpan#NOOP}. Spans nest strictly on a single thread, so an implementation can keep the current span
+ * in a thread local to parent the next one, as OpenTelemetry does with its context.
+ */
+@FunctionalInterface
+public interface LdapTracer {
+
+    /**
+     * The default tracer, which records nothing.
+     */
+    LdapTracer NOOP = name -> LdapSpan.NOOP;
+
+    /**
+     * Starts a span, child of the current span if the implementation tracks one.
+     */
+    LdapSpan startSpan(String name);
+}
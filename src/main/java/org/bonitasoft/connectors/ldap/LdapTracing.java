@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the spans of the LDAP operations on the tracer found at class loading, and names their attributes.
+ */
+final class LdapTracing {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapTracing.class);
+
+    static final String CONNECT = "ldap.connect";
+    static final String START_TLS = "ldap.starttls";
+    static final String BIND = "ldap.bind";
+    static final String SEARCH_PAGE = "ldap.search.page";
+    static final String CONVERT = "ldap.convert";
+
+    static final String SERVER_ADDRESS = "server.address";
+    static final String SERVER_PORT = "server.port";
+    static final String BASE = "ldap.base";
+    static final String SCOPE = "ldap.scope";
+    static final String PAGE_SIZE = "ldap.page_size";
+    static final String PAGE = "ldap.page";
+    static final String ENTRY_COUNT = "ldap.entry_count";
+    static final String RESULT_CODE = "ldap.result_code";
+
+    private static volatile LdapTracer tracer = load();
+
+    private LdapTracing() {
+    }
+
+    private static LdapTracer load() {
+        try {
+            return ServiceLoader.load(LdapTracer.class, LdapTracer.class.getClassLoader()).findFirst()
+                    .orElse(LdapTracer.NOOP);
+        } catch (final ServiceConfigurationError e) {
+            LOGGER.warn("Error loading the LDAP tracer, the LDAP operations are not traced", e);
+            return LdapTracer.NOOP;
+        }
+    }
+
+    static LdapTracer getTracer() {
+        return tracer;
+    }
+
+    static void setTracer(final LdapTracer tracer) {
+        LdapTracing.tracer = tracer;
+    }
+
+    static LdapSpan startSpan(final String name) {
+        return tracer.startSpan(name);
+    }
+
+    /**
+     * Starts a span tagged with the server.
+     */
+    static LdapSpan startSpan(final String name, final LdapConnectionSettings settings) {
+        return tracer.startSpan(name)
+                .setAttribute(SERVER_ADDRESS, settings.getHost())
+                .setAttribute(SERVER_PORT, settings.getPort());
+    }
+
+    /**
+     * Starts the span of a search page, tagged with the server and the search.
+     *
+     * @param page the number of the page in this execution, from 1
+     */
+    static LdapSpan startPage(final LdapConnectionSettings settings, final LdapSearchRequest request, final int page) {
+        return startSpan(SEARCH_PAGE, settings)
+                .setAttribute(BASE, request.getBaseObject())
+                .setAttribute(SCOPE, request.getScope().name())
+                .setAttribute(PAGE_SIZE, request.getPageSize())
+                .setAttribute(PAGE, page);
+    }
+
+    /**
+     * Marks the span as failed, with the LDAP result code of the error if known.
+     */
+    static void fail(final LdapSpan span, final Exception error) {
+        if (error instanceof NamingException) {
+            span.setAttribute(RESULT_CODE, JndiSearchEngine.resultCode((NamingException) error));
+        }
+        span.setError(error);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingException;
+
+import org.bonitasoft.engine.connector.ConnectorValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the connections of connector configurations before the first executions, typically from a handler run
+ * when the engine starts or a tenant resumes: the server addresses are resolved, authenticated connections are opened
+ * in the pool, TLS is negotiated and the root DSE is read once on each server, and the filter templates are compiled.
+ * <p>
+ * Idle connections are closed after {@link LdapConnectionPool#IDLE_TIMEOUT}, so the warm-up is best run shortly before
+ * the expected traffic. Failures are logged, never thrown: a server that cannot be reached is reached again by the
+ * first execution.
+ */
+public final class LdapWarmUp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapWarmUp.class);
+
+    private static final List<String> ROOT_DSE = Collections.singletonList("");
+    private static final String[] ROOT_DSE_ATTRIBUTES = { "subschemaSubentry", "supportedControl",
+            "supportedExtension" };
+
+    private LdapWarmUp() {
+    }
+
+    /**
+     * @param configurations the input parameters of the connector executions to prepare
+     * @param connections the number of idle connections to open for each server and credentials
+     * @return the number of connections opened
+     */
+    public static int warmUp(final Collection<Map<String, Object>> configurations, final int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1");
+        }
+        final Set<List<Object>> prepared = new HashSet<>();
+        int opened = 0;
+        for (final Map<String, Object> configuration : configurations) {
+            final LdapConnector connector = new LdapConnector();
+            connector.setInputParameters(configuration);
+            try {
+                connector.validateInputParameters();
+            } catch (final ConnectorValidationException e) {
+                LOGGER.warn("Skipping the warm-up of an invalid LDAP connector configuration: {}", e.getMessage());
+                continue;
+            }
+            final boolean authentication = LdapOperation.AUTHENTICATE.equals(connector.getOperation());
+            final String filter = authentication ? connector.getAuthenticationFilter() : connector.getFilter();
+            final LdapConnectionSettings settings = connector.getConnectionSettings();
+            try {
+                if (filter != null) {
+                    LdapFilterTemplate.compile(filter);
+                }
+                if (!prepared.add(Arrays.asList(connector.getEngine(), settings, authentication))) {
+                    continue;
+                }
+                LdapAddressCache.resolve(settings.getHost());
+                opened += prepare(LdapConnectionPool.OPERATIONS, connector.getEngine(), settings, connections);
+                if (authentication) {
+                    opened += prepare(LdapConnectionPool.BINDS, connector.getEngine(),
+                            LdapAuthenticator.bindSettings(settings), connections);
+                }
+            } catch (final IOException | NamingException e) {
+                LOGGER.warn("Error warming up the LDAP connections to {}:{}", settings.getHost(), settings.getPort(),
+                        e);
+            }
+        }
+        LOGGER.info("LDAP warm-up opened {} connections", opened);
+        return opened;
+    }
+
+    private static int prepare(final LdapConnectionPool pool, final LdapEngine engine,
+            final LdapConnectionSettings settings, final int connections) throws NamingException, IOException {
+        final int opened = pool.prewarm(engine, settings, connections);
+        try (LdapConnectionPool.Lease lease = pool.acquire(engine, settings)) {
+            try {
+                lease.getEngine().read(ROOT_DSE, ROOT_DSE_ATTRIBUTES);
+            } catch (final IOException | NamingException e) {
+                lease.invalidate();
+                throw e;
+            }
+        }
+        return opened;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * Tracks the results of a batch of write operations, and what remains to be sent.
+ * When the batch stops at the first failure, or runs in a transaction (RFC 5805), the operations left are reported
+ * as canceled; in a transaction that is rolled back, the operations already accepted are reported as canceled too.
+ */
+final class LdapWriteBatch {
+
+    static final String START_TRANSACTION_OID = "1.3.6.1.1.21.1";
+    static final String TRANSACTION_SPECIFICATION_OID = "1.3.6.1.1.21.2";
+    static final String END_TRANSACTION_OID = "1.3.6.1.1.21.3";
+
+    private final List<LdapWriteOperation> operations;
+    private final boolean stopOnError;
+    private final LdapWriteResult[] results;
+    private boolean failed;
+
+    LdapWriteBatch(final List<LdapWriteOperation> operations, final boolean transactional, final boolean stopOnError) {
+        this.operations = operations;
+        this.stopOnError = transactional || stopOnError;
+        results = new LdapWriteResult[operations.size()];
+    }
+
+    /**
+     * @return true when no more operation must be sent
+     */
+    boolean isStopped() {
+        return stopOnError && failed;
+    }
+
+    boolean hasFailure() {
+        return failed;
+    }
+
+    void record(final int index, final int resultCode, final String diagnosticMessage) {
+        results[index] = LdapWriteResult.of(operations.get(index), resultCode, diagnosticMessage);
+        failed |= resultCode != LdapWriteResult.SUCCESS;
+    }
+
+    /**
+     * Reports every operation as failed with the given result, when a transaction could not be committed.
+     */
+    void failAll(final int resultCode, final String diagnosticMessage) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null || results[i].isSuccess()) {
+                results[i] = LdapWriteResult.of(operations.get(i), resultCode, diagnosticMessage);
+            }
+        }
+        failed = true;
+    }
+
+    /**
+     * Reports the operations applied in a transaction that was aborted as canceled.
+     */
+    void rollBack() {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null && results[i].isSuccess()) {
+                results[i] = LdapWriteResult.of(operations.get(i), LdapWriteResult.CANCELED,
+                        "Transaction rolled back");
+            }
+        }
+    }
+
+    /**
+     * @return one result per operation, in the order of the operations
+     */
+    List<LdapWriteResult> getResults() {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = LdapWriteResult.of(operations.get(i), LdapWriteResult.CANCELED,
+                        "Not sent after a previous failure");
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @return the control attaching an update operation to a transaction
+     */
+    static Control transactionSpecification(final byte[] transactionId) {
+        return new BasicControl(TRANSACTION_SPECIFICATION_OID, Control.CRITICAL, transactionId);
+    }
+
+    /**
+     * @return the value of the end transaction request: SEQUENCE { commit BOOLEAN DEFAULT TRUE, identifier }
+     */
+    static byte[] endTransactionValue(final boolean commit, final byte[] transactionId) {
+        final BerEncoder encoder = new BerEncoder(transactionId.length + 8);
+        encoder.beginSequence(BerEncoder.SEQUENCE);
+        if (!commit) {
+            encoder.writeBoolean(false);
+        }
+        return encoder.writeOctetString(BerEncoder.OCTET_STRING, transactionId).endSequence().toByteArray();
+    }
+}
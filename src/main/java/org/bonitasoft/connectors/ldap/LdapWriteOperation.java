@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An update of the directory: the addition, modification, deletion or renaming of one entry.
+ * Batches of operations are usually read from LDIF change records with {@link #parse(String)}. As with JNDI, a value is
+ * either a String or, when it was base64 encoded in the LDIF, the byte[] it decodes to, so that binary values are sent
+ * unchanged.
+ */
+public final class LdapWriteOperation implements Serializable {
+
+    private static final long serialVersionUID = 4190453322384761530L;
+
+    static final int MODIFY_REQUEST = 0x66;
+    static final int ADD_REQUEST = 0x68;
+    static final int DELETE_REQUEST = 0x4A;
+    static final int MODIFY_DN_REQUEST = 0x6C;
+    private static final int NEW_SUPERIOR = 0x80;
+
+    public enum Type {
+        ADD, DELETE, MODIFY, MODIFY_DN
+    }
+
+    private final Type type;
+    private final String dn;
+    private final Map<String, List<Object>> attributes;
+    private final List<Modification> modifications;
+    private final String newRdn;
+    private final boolean deleteOldRdn;
+    private final String newSuperior;
+
+    private LdapWriteOperation(final Type type, final String dn, final Map<String, List<Object>> attributes,
+            final List<Modification> modifications, final String newRdn, final boolean deleteOldRdn,
+            final String newSuperior) {
+        this.type = type;
+        this.dn = dn;
+        this.attributes = attributes;
+        this.modifications = modifications;
+        this.newRdn = newRdn;
+        this.deleteOldRdn = deleteOldRdn;
+        this.newSuperior = newSuperior;
+    }
+
+    public static LdapWriteOperation add(final String dn, final List<LdapAttribute> attributes) {
+        final Map<String, List<Object>> values = new LinkedHashMap<>();
+        for (final LdapAttribute attribute : attributes) {
+            values.computeIfAbsent(attribute.getName(), name -> new ArrayList<>(1)).add(attribute.getValue());
+        }
+        return add(dn, values);
+    }
+
+    /**
+     * @param attributes the values of each attribute of the added entry, String or byte[]
+     */
+    public static LdapWriteOperation add(final String dn, final Map<String, List<Object>> attributes) {
+        return new LdapWriteOperation(Type.ADD, dn, attributes, Collections.emptyList(), null, false, null);
+    }
+
+    public static LdapWriteOperation delete(final String dn) {
+        return new LdapWriteOperation(Type.DELETE, dn, Collections.emptyMap(), Collections.emptyList(), null, false,
+                null);
+    }
+
+    public static LdapWriteOperation modify(final String dn, final List<Modification> modifications) {
+        return new LdapWriteOperation(Type.MODIFY, dn, Collections.emptyMap(), modifications, null, false, null);
+    }
+
+    /**
+     * @param newSuperior the DN of the new parent entry, null to keep the entry under its current parent
+     */
+    public static LdapWriteOperation modifyDn(final String dn, final String newRdn, final boolean deleteOldRdn,
+            final String newSuperior) {
+        return new LdapWriteOperation(Type.MODIFY_DN, dn, Collections.emptyMap(), Collections.emptyList(), newRdn,
+                deleteOldRdn, newSuperior);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    /**
+     * @return the values of each attribute of the added entry, String or byte[], in the order they were given
+     */
+    public Map<String, List<Object>> getAttributes() {
+        return attributes;
+    }
+
+    public List<Modification> getModifications() {
+        return modifications;
+    }
+
+    public String getNewRdn() {
+        return newRdn;
+    }
+
+    public boolean isDeleteOldRdn() {
+        return deleteOldRdn;
+    }
+
+    public String getNewSuperior() {
+        return newSuperior;
+    }
+
+    /**
+     * Writes the protocol operation of the request (RFC 4511 section 4.6 to 4.9).
+     */
+    void encode(final BerEncoder encoder) {
+        switch (type) {
+            case ADD:
+                encoder.beginSequence(ADD_REQUEST).writeOctetString(dn).beginSequence(BerEncoder.SEQUENCE);
+                for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+                    encodeAttribute(encoder, attribute.getKey(), attribute.getValue());
+                }
+                encoder.endSequence().endSequence();
+                break;
+            case DELETE:
+                encoder.writeOctetString(DELETE_REQUEST, dn);
+                break;
+            case MODIFY:
+                encoder.beginSequence(MODIFY_REQUEST).writeOctetString(dn).beginSequence(BerEncoder.SEQUENCE);
+                for (final Modification modification : modifications) {
+                    encoder.beginSequence(BerEncoder.SEQUENCE).writeEnumerated(modification.getType().ordinal());
+                    encodeAttribute(encoder, modification.getAttribute(), modification.getValues());
+                    encoder.endSequence();
+                }
+                encoder.endSequence().endSequence();
+                break;
+            default:
+                encoder.beginSequence(MODIFY_DN_REQUEST)
+                        .writeOctetString(dn)
+                        .writeOctetString(newRdn)
+                        .writeBoolean(deleteOldRdn);
+                if (newSuperior != null) {
+                    encoder.writeOctetString(NEW_SUPERIOR, newSuperior);
+                }
+                encoder.endSequence();
+                break;
+        }
+    }
+
+    private static void encodeAttribute(final BerEncoder encoder, final String name, final List<Object> values) {
+        encoder.beginSequence(BerEncoder.SEQUENCE).writeOctetString(name).beginSequence(BerEncoder.SET);
+        for (final Object value : values) {
+            if (value instanceof byte[]) {
+                encoder.writeOctetString(BerEncoder.OCTET_STRING, (byte[]) value);
+            } else {
+                encoder.writeOctetString((String) value);
+            }
+        }
+        encoder.endSequence().endSequence();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + dn;
+    }
+
+    /**
+     * Reads LDIF change records (RFC 2849). A record without changetype is an addition, as in LDIF content files.
+     *
+     * @throws IllegalArgumentException if the LDIF is malformed, with the line of the error
+     */
+    public static List<LdapWriteOperation> parse(final String ldif) {
+        return new Parser(ldif).parse();
+    }
+
+    /**
+     * A change of the values of one attribute, as part of a MODIFY operation.
+     * The modification types are declared in their protocol order.
+     */
+    public static final class Modification implements Serializable {
+
+        private static final long serialVersionUID = -6683452616325683270L;
+
+        public enum Type {
+            ADD, DELETE, REPLACE
+        }
+
+        private final Type type;
+        private final String attribute;
+        private final List<Object> values;
+
+        /**
+         * @param values the values to add, delete or set, String or byte[]; empty to delete or replace every value
+         */
+        public Modification(final Type type, final String attribute, final List<?> values) {
+            this.type = type;
+            this.attribute = attribute;
+            this.values = new ArrayList<>(values);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getAttribute() {
+            return attribute;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+    }
+
+    private static final class Parser {
+
+        private final List<String> lines = new ArrayList<>();
+        private final List<Integer> lineNumbers = new ArrayList<>();
+        private int position;
+
+        private Parser(final String ldif) {
+            final String[] rawLines = ldif.split("\r?\n", -1);
+            boolean comment = false;
+            for (int i = 0; i < rawLines.length; i++) {
+                final String line = rawLines[i];
+                if (line.startsWith(" ")) {
+                    // folded line, continuing the previous one
+                    if (!comment && !lines.isEmpty()) {
+                        final int last = lines.size() - 1;
+                        lines.set(last, lines.get(last) + line.substring(1));
+                    }
+                } else {
+                    comment = line.startsWith("#");
+                    if (!comment) {
+                        lines.add(line);
+                        lineNumbers.add(i + 1);
+                    }
+                }
+            }
+        }
+
+        List<LdapWriteOperation> parse() {
+            final List<LdapWriteOperation> operations = new ArrayList<>();
+            skipBlankLines();
+            if (position < lines.size() && lines.get(position).startsWith("version:")) {
+                if (!"1".equals(value(lines.get(position)))) {
+                    throw error("unsupported LDIF version");
+                }
+                position++;
+                skipBlankLines();
+            }
+            while (position < lines.size()) {
+                operations.add(readRecord());
+                skipBlankLines();
+            }
+            return operations;
+        }
+
+        private LdapWriteOperation readRecord() {
+            final String dn = expect("dn");
+            if (position < lines.size() && name(lines.get(position)).equalsIgnoreCase("control")) {
+                throw error("LDIF controls are not supported");
+            }
+            String changeType = "add";
+            if (position < lines.size() && name(lines.get(position)).equalsIgnoreCase("changetype")) {
+                changeType = value(lines.get(position)).toLowerCase();
+                position++;
+            }
+            switch (changeType) {
+                case "add":
+                    return add(dn, readAttributes());
+                case "delete":
+                    if (!isRecordEnd()) {
+                        throw error("a delete record cannot have attributes");
+                    }
+                    return delete(dn);
+                case "modify":
+                    return modify(dn, readModifications());
+                case "modrdn":
+                case "moddn":
+                    final String newRdn = expect("newrdn");
+                    final String deleteOldRdn = expect("deleteoldrdn");
+                    if (!"0".equals(deleteOldRdn) && !"1".equals(deleteOldRdn)) {
+                        position--;
+                        throw error("deleteoldrdn must be 0 or 1");
+                    }
+                    final String newSuperior = isRecordEnd() ? null : expect("newsuperior");
+                    if (!isRecordEnd()) {
+                        throw error("unexpected line in a modrdn record");
+                    }
+                    return modifyDn(dn, newRdn, "1".equals(deleteOldRdn), newSuperior);
+                default:
+                    position--;
+                    throw error("unknown changetype " + changeType);
+            }
+        }
+
+        private Map<String, List<Object>> readAttributes() {
+            final Map<String, List<Object>> attributes = new LinkedHashMap<>();
+            while (!isRecordEnd()) {
+                final String line = lines.get(position);
+                attributes.computeIfAbsent(name(line), name -> new ArrayList<>(1)).add(binaryOrText(line));
+                position++;
+            }
+            if (attributes.isEmpty()) {
+                throw error("an add record needs attributes");
+            }
+            return attributes;
+        }
+
+        private List<Modification> readModifications() {
+            final List<Modification> modifications = new ArrayList<>();
+            while (!isRecordEnd()) {
+                final String line = lines.get(position);
+                final Modification.Type type;
+                try {
+                    type = Modification.Type.valueOf(name(line).toUpperCase());
+                } catch (final IllegalArgumentException e) {
+                    throw error("expecting add, delete or replace");
+                }
+                final String attribute = value(line);
+                position++;
+                final List<Object> values = new ArrayList<>();
+                while (!isRecordEnd() && !"-".equals(lines.get(position))) {
+                    final String valueLine = lines.get(position);
+                    if (!name(valueLine).equalsIgnoreCase(attribute)) {
+                        throw error("expecting a value of " + attribute);
+                    }
+                    values.add(binaryOrText(valueLine));
+                    position++;
+                }
+                if (!isRecordEnd()) {
+                    position++;
+                }
+                modifications.add(new Modification(type, attribute, values));
+            }
+            return modifications;
+        }
+
+        private String expect(final String name) {
+            if (isRecordEnd() || !name(lines.get(position)).equalsIgnoreCase(name)) {
+                throw error("expecting " + name);
+            }
+            return value(lines.get(position++));
+        }
+
+        private boolean isRecordEnd() {
+            return position >= lines.size() || lines.get(position).isEmpty();
+        }
+
+        private void skipBlankLines() {
+            while (position < lines.size() && lines.get(position).trim().isEmpty()) {
+                position++;
+            }
+        }
+
+        private String name(final String line) {
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw error("expecting an attribute description followed by ':'");
+            }
+            return line.substring(0, colon);
+        }
+
+        /**
+         * @return the value of the line, decoded to a byte[] when it is base64 encoded
+         */
+        private Object binaryOrText(final String line) {
+            final int colon = line.indexOf(':');
+            if (colon > 0 && line.startsWith(":", colon + 1)) {
+                try {
+                    return Base64.getMimeDecoder().decode(line.substring(colon + 2).trim());
+                } catch (final IllegalArgumentException e) {
+                    throw error("invalid base64 value");
+                }
+            }
+            return value(line);
+        }
+
+        private String value(final String line) {
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw error("expecting an attribute description followed by ':'");
+            }
+            final String rest = line.substring(colon + 1);
+            if (rest.startsWith(":")) {
+                try {
+                    return new String(Base64.getMimeDecoder().decode(rest.substring(1).trim()),
+                            StandardCharsets.UTF_8);
+                } catch (final IllegalArgumentException e) {
+                    throw error("invalid base64 value");
+                }
+            }
+            if (rest.startsWith("<")) {
+                throw error("URL values are not supported");
+            }
+            int start = 0;
+            while (start < rest.length() && rest.charAt(start) == ' ') {
+                start++;
+            }
+            return rest.substring(start);
+        }
+
+        private IllegalArgumentException error(final String message) {
+            final int line = position < lineNumbers.size() ? lineNumbers.get(position)
+                    : lineNumbers.isEmpty() ? 1 : lineNumbers.get(lineNumbers.size() - 1);
+            return new IllegalArgumentException("Invalid LDIF at line " + line + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of one {@link LdapWriteOperation}, as returned by the server.
+ */
+public final class LdapWriteResult implements Serializable {
+
+    private static final long serialVersionUID = -3391964251186330772L;
+
+    static final int SUCCESS = 0;
+    static final int OTHER = 80;
+    /**
+     * The operation was not applied: it was not sent after a previous failure, or its transaction was rolled back.
+     */
+    static final int CANCELED = 118;
+
+    private final LdapWriteOperation.Type type;
+    private final String dn;
+    private final int resultCode;
+    private final String diagnosticMessage;
+
+    public LdapWriteResult(final LdapWriteOperation.Type type, final String dn, final int resultCode,
+            final String diagnosticMessage) {
+        this.type = type;
+        this.dn = dn;
+        this.resultCode = resultCode;
+        this.diagnosticMessage = diagnosticMessage;
+    }
+
+    static LdapWriteResult of(final LdapWriteOperation operation, final int resultCode,
+            final String diagnosticMessage) {
+        return new LdapWriteResult(operation.getType(), operation.getDn(), resultCode, diagnosticMessage);
+    }
+
+    public LdapWriteOperation.Type getType() {
+        return type;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    /**
+     * @return the LDAP result code, 0 on success
+     */
+    public int getResultCode() {
+        return resultCode;
+    }
+
+    public String getDiagnosticMessage() {
+        return diagnosticMessage;
+    }
+
+    public boolean isSuccess() {
+        return resultCode == SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + dn + ": [LDAP: error code " + resultCode + " - " + diagnosticMessage + "]";
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.naming.AuthenticationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.NoPermissionException;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import org.bonitasoft.connectors.ldap.BerDecoder.BerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single LDAPv3 connection on a socket channel, on which several operations can be in flight at the same time.
+ * Requests are written by the calling threads; a reader thread decodes the responses and dispatches them to the
+ * pending operation owning their message ID.
+ */
+final class NioLdapConnection implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioLdapConnection.class);
+
+    static final int BIND_REQUEST = 0x60;
+    static final int BIND_RESPONSE = 0x61;
+    static final int UNBIND_REQUEST = 0x42;
+    static final int SEARCH_REQUEST = 0x63;
+    static final int SEARCH_RESULT_ENTRY = 0x64;
+    static final int SEARCH_RESULT_DONE = 0x65;
+    static final int SEARCH_RESULT_REFERENCE = 0x73;
+    static final int EXTENDED_RESPONSE = 0x78;
+
+    static final int SUCCESS = 0;
+    static final int TIME_LIMIT_EXCEEDED = 3;
+    static final int SIZE_LIMIT_EXCEEDED = 4;
+    static final int NO_SUCH_OBJECT = 32;
+    static final int INVALID_CREDENTIALS = 49;
+
+    private static final int CONTROLS = 0xA0;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT = 30_000;
+    static final long READ_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    /** A response larger than this is taken for a corrupted length rather than buffered. */
+    static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    private final SocketChannel channel;
+    private final Object writeLock = new Object();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final Map<Integer, Operation> operations = new ConcurrentHashMap<>();
+    private final Thread reader;
+    private final long readTimeout;
+    private volatile IOException failure;
+
+    NioLdapConnection(final InetSocketAddress address) throws IOException {
+        this(address, READ_TIMEOUT);
+    }
+
+    /**
+     * @param readTimeout how long to wait for a response, in milliseconds, before failing the connection
+     */
+    NioLdapConnection(final InetSocketAddress address, final long readTimeout) throws IOException {
+        this.readTimeout = readTimeout;
+        channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(address, CONNECT_TIMEOUT);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        reader = new Thread(this::readResponses, "ldap-nio-reader-" + address.getHostString() + ":" + address.getPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request. The responses can then be read from the returned operation, which must be closed once the
+     * final response is received.
+     */
+    Operation send(final Consumer<BerEncoder> protocolOp, final Control... controls) throws IOException {
+        final int messageId = nextMessageId();
+        final BerEncoder encoder = new BerEncoder();
+        encoder.beginSequence(BerEncoder.SEQUENCE).writeInteger(messageId);
+        protocolOp.accept(encoder);
+        if (controls.length > 0) {
+            encoder.beginSequence(CONTROLS);
+            for (final Control control : controls) {
+                encoder.beginSequence(BerEncoder.SEQUENCE).writeOctetString(control.getID());
+                if (control.isCritical()) {
+                    encoder.writeBoolean(true);
+                }
+                if (control.getEncodedValue() != null) {
+                    encoder.writeOctetString(BerEncoder.OCTET_STRING, control.getEncodedValue());
+                }
+                encoder.endSequence();
+            }
+            encoder.endSequence();
+        }
+        encoder.endSequence();
+        final Operation operation = new Operation(messageId);
+        operations.put(messageId, operation);
+        try {
+            // checked once registered: a failure from now on is reported to the operation by fail()
+            checkOpen();
+            write(encoder.toByteBuffer());
+        } catch (final IOException e) {
+            operations.remove(messageId);
+            throw e;
+        }
+        return operation;
+    }
+
+    private int nextMessageId() {
+        // message IDs are positive 32 bits integers, 0 being reserved to unsolicited notifications
+        return messageIds.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+        synchronized (writeLock) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    boolean isOpen() {
+        return failure == null && channel.isOpen();
+    }
+
+    private void readResponses() {
+        ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try {
+            while (true) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                in.flip();
+                int size;
+                while ((size = BerDecoder.completeElementSize(in, MAX_MESSAGE_SIZE)) > 0) {
+                    final ByteBuffer message = ByteBuffer.allocate(size);
+                    final ByteBuffer slice = in.slice();
+                    slice.limit(size);
+                    message.put(slice).flip();
+                    in.position(in.position() + size);
+                    dispatch(message);
+                }
+                in.compact();
+                if (!in.hasRemaining() && size < -1) {
+                    // the pending message does not fit, grow the buffer to hold it entirely
+                    final ByteBuffer bigger = ByteBuffer.allocateDirect(-size - 1);
+                    in.flip();
+                    bigger.put(in);
+                    in = bigger;
+                }
+            }
+        } catch (final IOException e) {
+            fail(e);
+        } catch (final RuntimeException e) {
+            fail(new IOException("Unexpected error reading LDAP responses", e));
+        }
+    }
+
+    private void dispatch(final ByteBuffer buffer) throws BerException {
+        final BerDecoder message = new BerDecoder(buffer).readSequence();
+        final int messageId = message.readInteger();
+        final int tag = message.peekTag();
+        final ByteBuffer protocolOp = message.readContent(tag);
+        final List<Control> controls = message.hasRemaining() && message.peekTag() == CONTROLS
+                ? readControls(message.readSequence(CONTROLS))
+                : Collections.emptyList();
+        final Message response = new Message(tag, protocolOp, controls);
+        if (messageId == 0) {
+            // unsolicited notification, the only one defined is the notice of disconnection
+            final Result result = response.readResult();
+            fail(new IOException("Notice of disconnection: " + result));
+            return;
+        }
+        final Operation operation = operations.get(messageId);
+        if (operation == null) {
+            LOGGER.debug("Ignoring LDAP response for unknown message {}", messageId);
+        } else {
+            operation.responses.add(response);
+        }
+    }
+
+    private static List<Control> readControls(final BerDecoder decoder) throws BerException {
+        final List<Control> controls = new ArrayList<>();
+        while (decoder.hasRemaining()) {
+            final BerDecoder control = decoder.readSequence();
+            final String oid = control.readString();
+            boolean critical = false;
+            if (control.hasRemaining() && control.peekTag() == BerEncoder.BOOLEAN) {
+                critical = control.readBoolean();
+            }
+            final byte[] value = control.hasRemaining() ? control.readBytes() : null;
+            controls.add(new BasicControl(oid, critical, value));
+        }
+        return controls;
+    }
+
+    private void fail(final IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        for (final Operation operation : operations.values()) {
+            operation.responses.add(Message.FAILURE);
+        }
+        try {
+            channel.close();
+        } catch (final IOException closeError) {
+            LOGGER.debug("Error closing the LDAP channel", closeError);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel.isOpen() && failure == null) {
+            try {
+                final BerEncoder encoder = new BerEncoder(16);
+                encoder.beginSequence(BerEncoder.SEQUENCE)
+                        .writeInteger(nextMessageId())
+                        .writeNull(UNBIND_REQUEST)
+                        .endSequence();
+                write(encoder.toByteBuffer());
+            } catch (final IOException e) {
+                LOGGER.debug("Error sending the unbind request", e);
+            }
+        }
+        fail(new ClosedChannelException());
+    }
+
+    /**
+     * An operation in flight, identified by its message ID.
+     */
+    final class Operation implements AutoCloseable {
+
+        private final int messageId;
+        private final BlockingQueue<Message> responses = new LinkedBlockingQueue<>();
+
+        private Operation(final int messageId) {
+            this.messageId = messageId;
+        }
+
+        int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * Waits for the next response of this operation.
+         */
+        Message next() throws IOException {
+            final Message message;
+            try {
+                message = responses.poll(readTimeout, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for message " + messageId, e);
+            }
+            if (message == null) {
+                // the connection is in an unknown state, responses of the other operations could be lost as well
+                final SocketTimeoutException timeout = new SocketTimeoutException(
+                        "No response to message " + messageId + " within " + readTimeout + " ms");
+                fail(timeout);
+                throw timeout;
+            }
+            if (message == Message.FAILURE) {
+                final IOException cause = failure;
+                throw new IOException("LDAP connection failed", cause);
+            }
+            return message;
+        }
+
+        @Override
+        public void close() {
+            operations.remove(messageId);
+        }
+    }
+
+    /**
+     * A response, whose protocol operation is decoded lazily from the received bytes.
+     */
+    static final class Message {
+
+        private static final Message FAILURE = new Message(-1, null, Collections.emptyList());
+
+        private final int tag;
+        private final ByteBuffer protocolOp;
+        private final List<Control> controls;
+
+        private Message(final int tag, final ByteBuffer protocolOp, final List<Control> controls) {
+            this.tag = tag;
+            this.protocolOp = protocolOp;
+            this.controls = controls;
+        }
+
+        int getTag() {
+            return tag;
+        }
+
+        BerDecoder getProtocolOp() {
+            return new BerDecoder(protocolOp.duplicate());
+        }
+
+        List<Control> getControls() {
+            return controls;
+        }
+
+        Result readResult() throws BerException {
+            final BerDecoder decoder = getProtocolOp();
+            return new Result(decoder.readEnumerated(), decoder.readString(), decoder.readString());
+        }
+    }
+
+    /**
+     * The LDAPResult part of a response.
+     */
+    static final class Result {
+
+        private final int resultCode;
+        private final String matchedDn;
+        private final String diagnosticMessage;
+
+        Result(final int resultCode, final String matchedDn, final String diagnosticMessage) {
+            this.resultCode = resultCode;
+            this.matchedDn = matchedDn;
+            this.diagnosticMessage = diagnosticMessage;
+        }
+
+        int getResultCode() {
+            return resultCode;
+        }
+
+        String getMatchedDn() {
+            return matchedDn;
+        }
+
+        String getDiagnosticMessage() {
+            return diagnosticMessage;
+        }
+
+        boolean isSuccess() {
+            return resultCode == SUCCESS;
+        }
+
+        /**
+         * @return the exception the JNDI provider would raise for the same result
+         */
+        NamingException toException() {
+            final String message = toString();
+            switch (resultCode) {
+                case TIME_LIMIT_EXCEEDED:
+                    return new TimeLimitExceededException(message);
+                case 32:
+                    return new NameNotFoundException(message);
+                case INVALID_CREDENTIALS:
+                    return new AuthenticationException(message);
+                case 50:
+                    return new NoPermissionException(message);
+                default:
+                    return new NamingException(message);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "[LDAP: error code " + resultCode + " - " + diagnosticMessage + "]";
+        }
+    }
+}
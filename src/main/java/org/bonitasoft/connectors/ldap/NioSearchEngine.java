@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.bonitasoft.connectors.ldap.BerDecoder.BerException;
+import org.bonitasoft.connectors.ldap.NioLdapConnection.Message;
+import org.bonitasoft.connectors.ldap.NioLdapConnection.Operation;
+import org.bonitasoft.connectors.ldap.NioLdapConnection.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search engine speaking LDAPv3 directly over a {@link NioLdapConnection}. Entries are decoded straight from the
+ * received buffers, without the intermediate JNDI attribute structures.
+ */
+class NioSearchEngine implements LdapSearchEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioSearchEngine.class);
+
+    private static final int SIMPLE_AUTHENTICATION = 0x80;
+    private static final int ATTRIBUTE_VALUES = BerEncoder.SET;
+    private static final int EXTENDED_REQUEST = 0x77;
+    private static final int EXTENDED_REQUEST_NAME = 0x80;
+    private static final int EXTENDED_REQUEST_VALUE = 0x81;
+    private static final int EXTENDED_RESPONSE_VALUE = 0x8B;
+
+    /**
+     * The number of requests sent ahead of their responses.
+     */
+    private static final int MAX_OUTSTANDING_REQUESTS = 64;
+
+    private static final String ANY_ENTRY = "(objectClass=*)";
+
+    private final LdapConnectionSettings settings;
+
+    private NioLdapConnection connection;
+
+    NioSearchEngine(final LdapConnectionSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public void open() throws NamingException, IOException {
+        if (!LdapProtocol.LDAP.equals(settings.getProtocol())) {
+            throw new NamingException("The NIO engine does not support the " + settings.getProtocol() + " protocol");
+        }
+        final LdapSpan span = LdapTracing.startSpan(LdapTracing.CONNECT, settings);
+        try {
+            connection = new NioLdapConnection(new InetSocketAddress(LdapAddressCache.resolve(settings.getHost()),
+                    settings.getPort()));
+        } catch (final IOException | RuntimeException e) {
+            // the server may have moved to another address
+            LdapAddressCache.evict(settings.getHost());
+            LdapTracing.fail(span, e);
+            throw e;
+        } finally {
+            span.close();
+        }
+        if (settings.isAuthenticated()) {
+            final Result result = bind(settings.getUserName(), settings.getPassword());
+            if (!result.isSuccess()) {
+                throw result.toException();
+            }
+        }
+    }
+
+    NioLdapConnection getConnection() {
+        return connection;
+    }
+
+    Result bind(final String name, final String password) throws IOException {
+        final LdapSpan span = LdapTracing.startSpan(LdapTracing.BIND, settings);
+        try (Operation operation = connection.send(encoder -> encoder.beginSequence(NioLdapConnection.BIND_REQUEST)
+                .writeInteger(3)
+                .writeOctetString(name)
+                .writeOctetString(SIMPLE_AUTHENTICATION, password)
+                .endSequence())) {
+            final Message response = operation.next();
+            final Result result = response.readResult();
+            span.setAttribute(LdapTracing.RESULT_CODE, result.getResultCode());
+            return result;
+        } catch (final IOException | RuntimeException e) {
+            LdapTracing.fail(span, e);
+            throw e;
+        } finally {
+            span.close();
+        }
+    }
+
+    @Override
+    public LdapSearchOutcome search(final LdapSearchRequest request, final LdapEntryHandler handler)
+            throws NamingException, IOException {
+        final LdapFilter filter = request.getParsedFilter();
+        byte[] cookie = request.getCookie();
+        long entries = 0;
+        int pages = 0;
+        do {
+            final Control[] controls = request.isPaged()
+                    ? new Control[] { new PagedResultsControl((int) request.getPageSize(), cookie,
+                            cookie == null ? Control.NONCRITICAL : Control.CRITICAL) }
+                    : new Control[0];
+            pages++;
+            long pageEntries = 0;
+            final LdapSpan span = LdapTracing.startPage(settings, request, pages);
+            try (Operation operation = connection.send(encoder -> encodeSearch(encoder, request, filter), controls)) {
+                Message response = operation.next();
+                while (response.getTag() != NioLdapConnection.SEARCH_RESULT_DONE) {
+                    if (response.getTag() == NioLdapConnection.SEARCH_RESULT_ENTRY) {
+                        pageEntries++;
+                        handleEntry(response.getProtocolOp(), handler);
+                    }
+                    // search result references are ignored, as with the default referral handling
+                    response = operation.next();
+                }
+                final Result result = response.readResult();
+                span.setAttribute(LdapTracing.RESULT_CODE, result.getResultCode());
+                if (result.getResultCode() == NioLdapConnection.SIZE_LIMIT_EXCEEDED) {
+                    cookie = null;
+                    break;
+                }
+                if (!result.isSuccess()) {
+                    throw result.toException();
+                }
+                cookie = getCookie(response.getControls());
+            } catch (final IOException | NamingException | RuntimeException e) {
+                LdapTracing.fail(span, e);
+                throw e;
+            } finally {
+                entries += pageEntries;
+                span.setAttribute(LdapTracing.ENTRY_COUNT, pageEntries).close();
+            }
+        } while (cookie != null && !request.isPageLimitReached(pages));
+        return new LdapSearchOutcome(entries, pages, cookie);
+    }
+
+    private void encodeSearch(final BerEncoder encoder, final LdapSearchRequest request, final LdapFilter filter) {
+        encoder.beginSequence(NioLdapConnection.SEARCH_REQUEST)
+                .writeOctetString(request.getBaseObject())
+                .writeEnumerated(request.getScope().value())
+                .writeEnumerated(derefAliases())
+                .writeInteger(request.getSizeLimit())
+                .writeInteger(request.getTimeLimit())
+                .writeBoolean(false);
+        filter.encode(encoder);
+        encoder.beginSequence(BerEncoder.SEQUENCE);
+        if (request.getAttributes() != null) {
+            for (final String attribute : request.getAttributes()) {
+                encoder.writeOctetString(attribute);
+            }
+        }
+        encoder.endSequence().endSequence();
+    }
+
+    private int derefAliases() {
+        switch (settings.getDerefAliases()) {
+            case SEARCHING:
+                return 1;
+            case FINDING:
+                return 2;
+            case ALWAYS:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    private static void handleEntry(final BerDecoder entry, final LdapEntryHandler handler) throws IOException {
+        final String dn = entry.readString();
+        final BerDecoder attributes = entry.readSequence();
+        final List<LdapAttribute> elements = new ArrayList<>();
+        while (attributes.hasRemaining()) {
+            final BerDecoder attribute = attributes.readSequence();
+            final String name = attribute.readString();
+            final BerDecoder values = attribute.readSequence(ATTRIBUTE_VALUES);
+            while (values.hasRemaining()) {
+                elements.add(new LdapAttribute(name, values.readString()));
+            }
+        }
+        handler.handleEntry(dn, elements);
+    }
+
+    private static byte[] getCookie(final List<Control> controls) throws BerException {
+        for (final Control control : controls) {
+            if (PagedResultsControl.OID.equals(control.getID())) {
+                try {
+                    return new PagedResultsResponseControl(control.getID(), control.isCritical(),
+                            control.getEncodedValue()).getCookie();
+                } catch (final IOException e) {
+                    throw new BerException("Invalid paged results response control: " + e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<List<LdapAttribute>> read(final List<String> dns, final String[] attributes)
+            throws NamingException, IOException {
+        final LdapFilter filter = LdapFilterTemplate.parse(ANY_ENTRY);
+        final List<List<LdapAttribute>> entries = new ArrayList<>(dns.size());
+        final Deque<Operation> pending = new ArrayDeque<>();
+        int sent = 0;
+        try {
+            while (entries.size() < dns.size()) {
+                while (sent < dns.size() && pending.size() < MAX_OUTSTANDING_REQUESTS) {
+                    final LdapSearchRequest request = new LdapSearchRequest(dns.get(sent++), ANY_ENTRY, LdapScope.BASE,
+                            attributes, 0, 0, 0);
+                    pending.add(connection.send(encoder -> encodeSearch(encoder, request, filter)));
+                }
+                try (Operation operation = pending.poll()) {
+                    final List<List<LdapAttribute>> found = new ArrayList<>(1);
+                    Message response = operation.next();
+                    while (response.getTag() != NioLdapConnection.SEARCH_RESULT_DONE) {
+                        if (response.getTag() == NioLdapConnection.SEARCH_RESULT_ENTRY) {
+                            handleEntry(response.getProtocolOp(), (dn, elements) -> found.add(elements));
+                        }
+                        response = operation.next();
+                    }
+                    final Result result = response.readResult();
+                    if (result.getResultCode() != NioLdapConnection.NO_SUCH_OBJECT && !result.isSuccess()) {
+                        throw result.toException();
+                    }
+                    entries.add(found.isEmpty() ? null : found.get(0));
+                }
+            }
+        } finally {
+            pending.forEach(Operation::close);
+        }
+        return entries;
+    }
+
+    @Override
+    public List<LdapWriteResult> write(final List<LdapWriteOperation> operations, final boolean transactional,
+            final boolean stopOnError) throws NamingException, IOException {
+        final LdapWriteBatch batch = new LdapWriteBatch(operations, transactional, stopOnError);
+        final byte[] transactionId = transactional ? startTransaction() : null;
+        final Control[] controls = transactional
+                ? new Control[] { LdapWriteBatch.transactionSpecification(transactionId) }
+                : new Control[0];
+        // requests are pipelined, unless the response of each one decides whether the next one is sent
+        final int window = stopOnError ? 1 : MAX_OUTSTANDING_REQUESTS;
+        final Deque<Operation> pending = new ArrayDeque<>();
+        int sent = 0;
+        int received = 0;
+        try {
+            while (!pending.isEmpty() || sent < operations.size() && !batch.isStopped()) {
+                while (sent < operations.size() && pending.size() < window && !batch.isStopped()) {
+                    pending.add(connection.send(operations.get(sent++)::encode, controls));
+                }
+                try (Operation operation = pending.poll()) {
+                    final Result result = operation.next().readResult();
+                    batch.record(received++, result.getResultCode(), result.getDiagnosticMessage());
+                }
+            }
+        } finally {
+            pending.forEach(Operation::close);
+        }
+        if (transactional) {
+            endTransaction(batch, transactionId);
+        }
+        return batch.getResults();
+    }
+
+    private byte[] startTransaction() throws NamingException, IOException {
+        final Message response = extendedOperation(LdapWriteBatch.START_TRANSACTION_OID, null);
+        final Result result = response.readResult();
+        if (!result.isSuccess()) {
+            throw result.toException();
+        }
+        final BerDecoder decoder = response.getProtocolOp();
+        // skips the result code, matched DN and diagnostic message, then the optional referral and response name
+        decoder.skip();
+        decoder.skip();
+        decoder.skip();
+        while (decoder.hasRemaining()) {
+            if (decoder.peekTag() == EXTENDED_RESPONSE_VALUE) {
+                return decoder.readBytes(EXTENDED_RESPONSE_VALUE);
+            }
+            decoder.skip();
+        }
+        throw new NamingException("The start transaction response has no transaction identifier");
+    }
+
+    private void endTransaction(final LdapWriteBatch batch, final byte[] transactionId) throws IOException {
+        final boolean commit = !batch.hasFailure();
+        final Result result = extendedOperation(LdapWriteBatch.END_TRANSACTION_OID,
+                LdapWriteBatch.endTransactionValue(commit, transactionId)).readResult();
+        if (!commit) {
+            if (!result.isSuccess()) {
+                LOGGER.debug("Error aborting the LDAP transaction: {}", result);
+            }
+            batch.rollBack();
+        } else if (!result.isSuccess()) {
+            batch.failAll(result.getResultCode(), result.getDiagnosticMessage());
+        }
+    }
+
+    private Message extendedOperation(final String oid, final byte[] value) throws IOException {
+        try (Operation operation = connection.send(encoder -> {
+            encoder.beginSequence(EXTENDED_REQUEST).writeOctetString(EXTENDED_REQUEST_NAME, oid);
+            if (value != null) {
+                encoder.writeOctetString(EXTENDED_REQUEST_VALUE, value);
+            }
+            encoder.endSequence();
+        })) {
+            return operation.next();
+        }
+    }
+
+    @Override
+    public boolean authenticate(final String dn, final String password) throws NamingException, IOException {
+        final Result result = bind(dn, password);
+        if (result.getResultCode() == NioLdapConnection.INVALID_CREDENTIALS) {
+            return false;
+        }
+        if (!result.isSuccess()) {
+            throw result.toException();
+        }
+        // a pooled connection must not stay bound as the last user
+        final Result restored = settings.isAuthenticated() ? bind(settings.getUserName(), settings.getPassword())
+                : bind("", "");
+        if (!restored.isSuccess()) {
+            throw restored.toException();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return connection != null && connection.isOpen();
+    }
+
+    @Override
+    public void close() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+}
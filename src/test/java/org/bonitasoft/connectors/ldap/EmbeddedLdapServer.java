@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldif.LDIFException;
+
+/**
+ * An in-memory directory service listening on a random local port, holding dc=bonita,dc=org.
+ */
+class EmbeddedLdapServer implements AutoCloseable {
+
+    static final String BASE_DN = "dc=bonita,dc=org";
+    static final String PEOPLE_DN = "ou=people," + BASE_DN;
+    static final String ADMIN_DN = "cn=admin," + BASE_DN;
+    static final String ADMIN_PASSWORD = "bpm";
+
+    private final InMemoryDirectoryServer server;
+
+    EmbeddedLdapServer() throws LDAPException, LDIFException {
+        final InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        server = new InMemoryDirectoryServer(config);
+        server.startListening();
+        server.add("dn: " + BASE_DN, "objectClass: top", "objectClass: domain", "dc: bonita");
+        server.add("dn: " + PEOPLE_DN, "objectClass: top", "objectClass: organizationalUnit", "ou: people");
+    }
+
+    int getPort() {
+        return server.getListenPort();
+    }
+
+    InMemoryDirectoryServer getServer() {
+        return server;
+    }
+
+    /**
+     * Adds the users user0 to user{count - 1}, with their cn, sn, mail and department number.
+     */
+    EmbeddedLdapServer addPeople(final int count) throws LDAPException, LDIFException {
+        for (int i = 0; i < count; i++) {
+            addPerson("user" + i, "User " + i, "dep" + (i % 3));
+        }
+        return this;
+    }
+
+    void addPerson(final String uid, final String cn, final String departmentNumber) throws LDAPException, LDIFException {
+        server.add("dn: uid=" + uid + "," + PEOPLE_DN,
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "uid: " + uid,
+                "cn: " + cn,
+                "sn: " + cn.substring(cn.lastIndexOf(' ') + 1),
+                "mail: " + uid + "@bonita.org",
+                "departmentNumber: " + departmentNumber,
+                "userPassword: " + uid + "-pwd");
+    }
+
+    LdapConnector newConnector(final LdapEngine engine) {
+        final LdapConnector connector = new LdapConnector();
+        connector.setHost("localhost");
+        connector.setPort(getPort());
+        connector.setProtocol(LdapProtocol.LDAP);
+        connector.setUserName(ADMIN_DN);
+        connector.setPassword(ADMIN_PASSWORD);
+        connector.setBaseObject(PEOPLE_DN);
+        connector.setScope(LdapScope.ONELEVEL);
+        connector.setFilter("(objectClass=person)");
+        connector.setEngine(engine);
+        return connector;
+    }
+
+    LdapConnectionSettings newSettings() {
+        return new LdapConnectionSettings("localhost", getPort(), LdapProtocol.LDAP, ADMIN_DN, ADMIN_PASSWORD,
+                LdapDereferencingAlias.ALWAYS, "ignore");
+    }
+
+    @Override
+    public void close() {
+        server.shutDown(true);
+    }
+}
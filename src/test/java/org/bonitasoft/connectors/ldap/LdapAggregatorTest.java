@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class LdapAggregatorTest {
+
+    private static Object aggregate(final LdapAggregation aggregation, final String... values) throws Exception {
+        final LdapAggregator aggregator = LdapAggregator.create(aggregation, "l");
+        aggregator.handleEntry("cn=none", Arrays.asList(new LdapAttribute("cn", "none")));
+        for (final String value : values) {
+            aggregator.handleEntry("cn=" + value, Arrays.asList(new LdapAttribute("cn", value),
+                    new LdapAttribute("L", value)));
+        }
+        return aggregator.getResult();
+    }
+
+    @Test
+    void should_count_every_entry() throws Exception {
+        assertThat(aggregate(LdapAggregation.COUNT, "Paris", "Paris", "Lyon")).isEqualTo(4L);
+    }
+
+    @Test
+    void should_count_entries_per_value() throws Exception {
+        assertThat(aggregate(LdapAggregation.GROUP_COUNT, "Paris", "Lyon", "Paris")).isInstanceOf(Map.class)
+                .hasToString("{Lyon=1, Paris=2}");
+    }
+
+    @Test
+    void should_list_distinct_values() throws Exception {
+        assertThat(aggregate(LdapAggregation.DISTINCT, "Paris", "Lyon", "Paris"))
+                .isEqualTo(Arrays.asList("Lyon", "Paris"));
+    }
+
+    @Test
+    void should_compare_integers_as_numbers() throws Exception {
+        assertThat(aggregate(LdapAggregation.MAX, "9", "10", "-3")).isEqualTo("10");
+        assertThat(aggregate(LdapAggregation.MIN, "9", "10", "-3")).isEqualTo("-3");
+        assertThat(aggregate(LdapAggregation.MAX, "20200101000000Z", "20191231235959Z")).isEqualTo("20200101000000Z");
+        assertThat(aggregate(LdapAggregation.MIN)).isNull();
+    }
+}
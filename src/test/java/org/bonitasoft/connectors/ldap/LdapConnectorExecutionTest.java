@@ -0,0 +1,719 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.bonitasoft.engine.bpm.document.DocumentValue;
+import org.bonitasoft.engine.connector.ConnectorException;
+import org.bonitasoft.engine.connector.ConnectorValidationException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+
+/**
+ * Runs the connector against an in-memory directory service.
+ */
+class LdapConnectorExecutionTest {
+
+    private static EmbeddedLdapServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedLdapServer().addPeople(25);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        LdapConnectionPool.OPERATIONS.clear();
+        LdapConnectionPool.BINDS.clear();
+        server.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<LdapAttribute>> entries(final Map<String, Object> outputs) {
+        return (List<List<LdapAttribute>>) outputs.get(LdapConnector.LDAP_ATTRIBUTE_LIST_OUTPUT);
+    }
+
+    @Test
+    void should_read_a_paged_search_over_several_executions() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final Set<String> uids = new HashSet<>();
+            String token = null;
+            int executions = 0;
+            do {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setAttributes("uid");
+                connector.setPageSize(10L);
+                connector.setMaxPages(1L);
+                connector.setResumeToken(token);
+                connector.validateInputParameters();
+
+                final Map<String, Object> outputs = connector.execute();
+
+                executions++;
+                assertThat(entries(outputs)).hasSizeLessThanOrEqualTo(10);
+                entries(outputs).forEach(entry -> uids.add(entry.get(0).getValue()));
+                token = (String) outputs.get(LdapConnector.CONTINUATION_TOKEN_OUTPUT);
+            } while (token != null);
+
+            assertThat(executions).as(engine.name()).isEqualTo(3);
+            assertThat(uids).as(engine.name()).hasSize(25);
+        }
+        assertThat(LdapSessionRegistry.size()).isZero();
+    }
+
+    @Test
+    void should_not_return_a_token_when_every_page_is_read() throws Exception {
+        final LdapConnector connector = server.newConnector(LdapEngine.JNDI);
+        connector.setPageSize(10L);
+
+        final Map<String, Object> outputs = connector.execute();
+
+        assertThat(entries(outputs)).hasSize(25);
+        assertThat(outputs.get(LdapConnector.CONTINUATION_TOKEN_OUTPUT)).isNull();
+    }
+
+    @Test
+    void should_reject_a_token_issued_for_another_search() throws Exception {
+        final LdapConnector first = server.newConnector(LdapEngine.JNDI);
+        first.setPageSize(10L);
+        first.setMaxPages(1L);
+        final String token = (String) first.execute().get(LdapConnector.CONTINUATION_TOKEN_OUTPUT);
+
+        final LdapConnector second = server.newConnector(LdapEngine.JNDI);
+        second.setFilter("(uid=*)");
+        second.setPageSize(10L);
+        second.setMaxPages(1L);
+        second.setResumeToken(token);
+
+        final ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                second::validateInputParameters);
+        assertThat(exception).hasMessageContaining("resumeToken was issued for another search");
+
+        LdapSessionRegistry.take(LdapContinuationToken.decode(token).getSessionId(),
+                LdapSessionRegistry.identity(first.getConnectionSettings())).close();
+    }
+
+    @Test
+    void should_tell_apart_searches_whose_criteria_run_together() {
+        final LdapSearchRequest first = new LdapSearchRequest(EmbeddedLdapServer.PEOPLE_DN, "(uid=*)",
+                LdapScope.ONELEVEL, new String[] { "ab", "c" }, 0, 0, 10);
+        final LdapSearchRequest second = new LdapSearchRequest(EmbeddedLdapServer.PEOPLE_DN, "(uid=*)",
+                LdapScope.ONELEVEL, new String[] { "a", "bc" }, 0, 0, 10);
+        final LdapSearchRequest same = new LdapSearchRequest(EmbeddedLdapServer.PEOPLE_DN, "(uid=*)",
+                LdapScope.ONELEVEL, new String[] { "ab", "c" }, 0, 0, 10);
+
+        assertThat(LdapContinuationToken.fingerprint(first)).isNotEqualTo(LdapContinuationToken.fingerprint(second))
+                .isEqualTo(LdapContinuationToken.fingerprint(same)).hasSize(22);
+    }
+
+    @Test
+    void should_close_the_oldest_paging_session_beyond_the_limit() throws Exception {
+        final String identity = LdapSessionRegistry.identity(server.newSettings());
+        final List<String> sessionIds = new ArrayList<>();
+        final List<LdapSearchEngine> engines = new ArrayList<>();
+        for (int i = 0; i <= LdapSessionRegistry.MAX_SESSIONS; i++) {
+            final LdapSearchEngine engine = LdapEngine.NIO.createSearchEngine(server.newSettings());
+            engine.open();
+            sessionIds.add(LdapSessionRegistry.newSessionId());
+            engines.add(engine);
+            LdapSessionRegistry.park(sessionIds.get(i), identity, engine);
+        }
+
+        assertThat(LdapSessionRegistry.size()).isEqualTo(LdapSessionRegistry.MAX_SESSIONS);
+        assertThat(engines.get(0).isOpen()).isFalse();
+        assertThat(LdapSessionRegistry.take(sessionIds.get(0), identity)).isNull();
+        for (int i = 1; i < sessionIds.size(); i++) {
+            assertThat(LdapSessionRegistry.take(sessionIds.get(i), identity)).isSameAs(engines.get(i));
+            engines.get(i).close();
+        }
+    }
+
+    @Test
+    void should_not_hand_a_paging_session_to_other_credentials() throws Exception {
+        final LdapConnector first = server.newConnector(LdapEngine.JNDI);
+        first.setPageSize(10L);
+        first.setMaxPages(1L);
+        final String token = (String) first.execute().get(LdapConnector.CONTINUATION_TOKEN_OUTPUT);
+        final String sessionId = LdapContinuationToken.decode(token).getSessionId();
+
+        final LdapConnector second = server.newConnector(LdapEngine.JNDI);
+        second.setUserName("uid=user1," + EmbeddedLdapServer.PEOPLE_DN);
+        second.setPassword("user1-pwd");
+
+        assertThat(LdapSessionRegistry.take(sessionId, LdapSessionRegistry.identity(second.getConnectionSettings())))
+                .isNull();
+        final LdapSearchEngine engine = LdapSessionRegistry.take(sessionId,
+                LdapSessionRegistry.identity(first.getConnectionSettings()));
+        assertThat(engine).isNotNull();
+        engine.close();
+    }
+
+    @Test
+    void should_export_entries_to_a_file_without_returning_them(@TempDir final Path folder) throws Exception {
+        final Path file = folder.resolve("people.csv");
+        final LdapConnector connector = server.newConnector(LdapEngine.JNDI);
+        connector.setAttributes("uid,mail");
+        connector.setPageSize(10L);
+        connector.setOutputMode(LdapOutputMode.EXPORT);
+        connector.setExportFormat(LdapExportFormat.CSV);
+        connector.setExportFile(file.toString());
+        connector.validateInputParameters();
+
+        final Map<String, Object> outputs = connector.execute();
+
+        assertThat(entries(outputs)).isEmpty();
+        assertThat(outputs.get(LdapConnector.EXPORTED_ENTRY_COUNT_OUTPUT)).isEqualTo(25L);
+        assertThat(Files.readAllLines(file)).hasSize(26).first().isEqualTo("dn,uid,mail");
+    }
+
+    @Test
+    void should_export_entries_to_a_compressed_document() throws Exception {
+        final LdapConnector connector = server.newConnector(LdapEngine.NIO);
+        connector.setOutputMode(LdapOutputMode.EXPORT);
+        connector.setExportFormat(LdapExportFormat.JSON);
+        connector.setExportCompressed(true);
+        connector.setExportToDocument(true);
+        connector.validateInputParameters();
+
+        final DocumentValue document = (DocumentValue) connector.execute().get(LdapConnector.EXPORT_DOCUMENT_OUTPUT);
+
+        assertThat(document.getFileName()).isEqualTo("ldap-export.jsonl.gz");
+        assertThat(document.getMimeType()).isEqualTo("application/gzip");
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(document.getContent()))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")).hasSize(25);
+        }
+    }
+
+    private static Map<String, Object> authenticate(final LdapEngine engine, final String login,
+            final String password) throws Exception {
+        final LdapConnector connector = server.newConnector(engine);
+        connector.setOperation(LdapOperation.AUTHENTICATE);
+        connector.setAuthenticationLogin(login);
+        connector.setAuthenticationPassword(password);
+        connector.validateInputParameters();
+        return connector.execute();
+    }
+
+    @Test
+    void should_verify_credentials_with_a_bind() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final String dn = "uid=user3," + EmbeddedLdapServer.PEOPLE_DN;
+
+            final Map<String, Object> valid = authenticate(engine, "user3", "user3-pwd");
+            assertThat(valid.get(LdapConnector.AUTHENTICATED_OUTPUT)).as(engine.name()).isEqualTo(true);
+            assertThat(valid.get(LdapConnector.AUTHENTICATED_DN_OUTPUT)).isEqualTo(dn);
+            assertThat(entries(valid)).isEmpty();
+
+            assertThat(authenticate(engine, "user3", "wrong").get(LdapConnector.AUTHENTICATED_OUTPUT)).isEqualTo(false);
+            assertThat(authenticate(engine, "user3", "").get(LdapConnector.AUTHENTICATED_OUTPUT)).isEqualTo(false);
+            assertThat(authenticate(engine, "nobody", "pwd").get(LdapConnector.AUTHENTICATED_OUTPUT)).isEqualTo(false);
+            assertThat(authenticate(engine, "*", "user3-pwd").get(LdapConnector.AUTHENTICATED_OUTPUT))
+                    .isEqualTo(false);
+            assertThat(authenticate(engine, dn, "user3-pwd").get(LdapConnector.AUTHENTICATED_DN_OUTPUT)).isEqualTo(dn);
+        }
+        assertThat(LdapConnectionPool.BINDS.idleCount()).isEqualTo(2);
+    }
+
+    @Test
+    void should_replace_pooled_connections_dropped_by_the_server() throws Exception {
+        // checks every idle connection, however short its idle time
+        final LdapConnectionPool pool = new LdapConnectionPool("test", 0);
+        try {
+            for (final LdapEngine engine : LdapEngine.values()) {
+                pool.acquire(engine, server.newSettings()).close();
+            }
+            assertThat(pool.idleCount()).isEqualTo(2);
+
+            server.getServer().closeAllConnections(false);
+
+            for (final LdapEngine engine : LdapEngine.values()) {
+                try (LdapConnectionPool.Lease lease = pool.acquire(engine, server.newSettings())) {
+                    assertThat(lease.getEngine().read(Collections.singletonList(EmbeddedLdapServer.PEOPLE_DN), null))
+                            .as(engine.name()).doesNotContainNull();
+                }
+            }
+            assertThat(pool.idleCount()).isEqualTo(2);
+        } finally {
+            pool.clear();
+        }
+    }
+
+    @Test
+    void should_reject_a_dn_login_outside_the_user_filter_or_the_base() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            for (final String user : new String[] { "user3", "user4" }) {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setOperation(LdapOperation.AUTHENTICATE);
+                connector.setAuthenticationFilter("(&(uid={0})(departmentNumber=dep0))");
+                connector.setAuthenticationLogin("uid=" + user + "," + EmbeddedLdapServer.PEOPLE_DN);
+                connector.setAuthenticationPassword(user + "-pwd");
+                connector.validateInputParameters();
+
+                // user3 is in dep0, user4 in dep1
+                assertThat(connector.execute().get(LdapConnector.AUTHENTICATED_OUTPUT)).as(engine + " " + user)
+                        .isEqualTo("user3".equals(user));
+            }
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setOperation(LdapOperation.AUTHENTICATE);
+            connector.setBaseObject("ou=other," + EmbeddedLdapServer.BASE_DN);
+            connector.setAuthenticationLogin("uid=user3," + EmbeddedLdapServer.PEOPLE_DN);
+            connector.setAuthenticationPassword("user3-pwd");
+            connector.validateInputParameters();
+
+            assertThat(connector.execute().get(LdapConnector.AUTHENTICATED_OUTPUT)).as(engine.name()).isEqualTo(false);
+        }
+    }
+
+    @Test
+    void should_resolve_the_login_again_when_the_cached_dn_is_stale() throws Exception {
+        final LdapConnector connector = server.newConnector(LdapEngine.NIO);
+        final String key = LdapDnCache.key(connector.getConnectionSettings(), new LdapSearchRequest(
+                EmbeddedLdapServer.PEOPLE_DN, "(uid=user4)", LdapScope.ONELEVEL, null, 0, 0, 0));
+        LdapDnCache.put(key, "uid=renamed," + EmbeddedLdapServer.PEOPLE_DN);
+
+        final Map<String, Object> outputs = authenticate(LdapEngine.NIO, "user4", "user4-pwd");
+
+        assertThat(outputs.get(LdapConnector.AUTHENTICATED_OUTPUT)).isEqualTo(true);
+        assertThat(LdapDnCache.get(key)).isEqualTo("uid=user4," + EmbeddedLdapServer.PEOPLE_DN);
+    }
+
+    @Test
+    void should_insert_the_attributes_of_referenced_entries() throws Exception {
+        final String manager = "uid=user0," + EmbeddedLdapServer.PEOPLE_DN;
+        for (int i = 1; i < 6; i++) {
+            // the same DN written differently is read once
+            server.getServer().modify("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN,
+                    new Modification(ModificationType.ADD, "manager", i % 2 == 0 ? manager : manager.toUpperCase()));
+        }
+        server.getServer().modify("uid=user6," + EmbeddedLdapServer.PEOPLE_DN,
+                new Modification(ModificationType.ADD, "manager", "uid=gone," + EmbeddedLdapServer.PEOPLE_DN));
+        try {
+            for (final LdapEngine engine : LdapEngine.values()) {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setFilter("(manager=*)");
+                connector.setAttributes("uid,manager");
+                connector.setReferenceAttributes("manager");
+                connector.setReferencedEntryAttributes("cn,mail");
+                connector.validateInputParameters();
+
+                final List<List<LdapAttribute>> entries = entries(connector.execute());
+
+                assertThat(entries).as(engine.name()).hasSize(6);
+                for (final List<LdapAttribute> entry : entries) {
+                    final String uid = entry.stream().filter(attribute -> "uid".equals(attribute.getName()))
+                            .findFirst().get().getValue();
+                    if ("user6".equals(uid)) {
+                        assertThat(entry).hasSize(2);
+                    } else {
+                        assertThat(entry).as(uid).hasSize(4).contains(
+                                new LdapAttribute("manager.cn", "User 0"),
+                                new LdapAttribute("manager.mail", "user0@bonita.org"));
+                    }
+                }
+            }
+        } finally {
+            for (int i = 1; i < 7; i++) {
+                server.getServer().modify("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN,
+                        new Modification(ModificationType.DELETE, "manager"));
+            }
+        }
+    }
+
+    private static LdapConnector largeEntriesConnector(final LdapMemoryPolicy policy) throws Exception {
+        final LdapConnector connector = server.newConnector(LdapEngine.NIO);
+        connector.setFilter("(description=*)");
+        connector.setAttributes("uid,description");
+        connector.setResultMemoryBudget(1L);
+        connector.setResultMemoryPolicy(policy);
+        connector.validateInputParameters();
+        return connector;
+    }
+
+    @Test
+    void should_apply_the_policy_once_the_result_memory_budget_is_exceeded() throws Exception {
+        // each description is estimated at 400 KB, so the third entry exceeds 1 MB
+        final char[] description = new char[200_000];
+        Arrays.fill(description, 'x');
+        for (int i = 1; i < 5; i++) {
+            server.getServer().modify("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN,
+                    new Modification(ModificationType.ADD, "description", new String(description)));
+        }
+        try {
+            final ConnectorException exception = assertThrows(ConnectorException.class,
+                    () -> largeEntriesConnector(LdapMemoryPolicy.FAIL).execute());
+            assertThat(exception).hasMessageContaining("exceeds the memory budget of 1 MB after 2 entries");
+
+            final Map<String, Object> truncated = largeEntriesConnector(LdapMemoryPolicy.TRUNCATE).execute();
+            assertThat(entries(truncated)).hasSize(2);
+            assertThat(truncated.get(LdapConnector.TRUNCATED_OUTPUT)).isEqualTo(true);
+
+            final Map<String, Object> spilled = largeEntriesConnector(LdapMemoryPolicy.SPILL).execute();
+            assertThat(entries(spilled)).isInstanceOf(LdapSpilledEntryList.class).hasSize(4)
+                    .allMatch(entry -> entry.get(1).getValue().length() == description.length);
+            assertThat(spilled.get(LdapConnector.TRUNCATED_OUTPUT)).isEqualTo(false);
+            ((LdapSpilledEntryList) entries(spilled)).close();
+        } finally {
+            for (int i = 1; i < 5; i++) {
+                server.getServer().modify("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN,
+                        new Modification(ModificationType.DELETE, "description"));
+            }
+        }
+    }
+
+    private static LdapConnector referencingConnector(final LdapMemoryPolicy policy) throws Exception {
+        final LdapConnector connector = server.newConnector(LdapEngine.JNDI);
+        connector.setFilter("(manager=*)");
+        connector.setAttributes("uid,manager");
+        connector.setReferenceAttributes("manager");
+        connector.setReferencedEntryAttributes("description");
+        connector.setResultMemoryBudget(1L);
+        connector.setResultMemoryPolicy(policy);
+        connector.validateInputParameters();
+        return connector;
+    }
+
+    @Test
+    void should_count_the_referenced_attributes_against_the_result_memory_budget() throws Exception {
+        // the description of the manager is estimated at 400 KB, so its third copy exceeds 1 MB
+        final char[] description = new char[200_000];
+        Arrays.fill(description, 'x');
+        final String manager = "uid=user0," + EmbeddedLdapServer.PEOPLE_DN;
+        server.getServer().modify(manager,
+                new Modification(ModificationType.ADD, "description", new String(description)));
+        for (int i = 1; i < 5; i++) {
+            server.getServer().modify("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN,
+                    new Modification(ModificationType.ADD, "manager", manager));
+        }
+        try {
+            final ConnectorException exception = assertThrows(ConnectorException.class,
+                    () -> referencingConnector(LdapMemoryPolicy.FAIL).execute());
+            assertThat(exception).hasMessageContaining("once the referenced entries are inserted");
+
+            final Map<String, Object> truncated = referencingConnector(LdapMemoryPolicy.TRUNCATE).execute();
+            assertThat(entries(truncated)).hasSize(2).allMatch(entry -> entry.size() == 3);
+            assertThat(truncated.get(LdapConnector.TRUNCATED_OUTPUT)).isEqualTo(true);
+        } finally {
+            server.getServer().modify(manager, new Modification(ModificationType.DELETE, "description"));
+            for (int i = 1; i < 5; i++) {
+                server.getServer().modify("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN,
+                        new Modification(ModificationType.DELETE, "manager"));
+            }
+        }
+    }
+
+    @Test
+    void should_report_a_span_per_connection_step_and_page() throws Exception {
+        final List<Map<String, Object>> spans = new ArrayList<>();
+        final LdapTracer tracer = LdapTracing.getTracer();
+        LdapTracing.setTracer(name -> {
+            final Map<String, Object> attributes = new HashMap<>();
+            attributes.put("name", name);
+            return new LdapSpan() {
+
+                @Override
+                public LdapSpan setAttribute(final String key, final Object value) {
+                    attributes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public void setError(final Throwable error) {
+                    attributes.put("error", error);
+                }
+
+                @Override
+                public void close() {
+                    spans.add(attributes);
+                }
+            };
+        });
+        // a pooled connection would skip the connect and bind steps
+        LdapConnectionPool.OPERATIONS.clear();
+        try {
+            final LdapConnector connector = server.newConnector(LdapEngine.NIO);
+            connector.setPageSize(10L);
+            connector.execute();
+        } finally {
+            LdapTracing.setTracer(tracer);
+        }
+
+        assertThat(spans).extracting(span -> span.get("name")).containsExactly(LdapTracing.CONNECT,
+                LdapTracing.BIND, LdapTracing.SEARCH_PAGE, LdapTracing.SEARCH_PAGE, LdapTracing.SEARCH_PAGE);
+        assertThat(spans).allMatch(span -> span.get(LdapTracing.SERVER_PORT).equals(server.getPort()))
+                .noneMatch(span -> span.containsKey("error"));
+        assertThat(spans.get(1).get(LdapTracing.RESULT_CODE)).isEqualTo(0);
+        assertThat(spans.get(4)).containsEntry(LdapTracing.BASE, EmbeddedLdapServer.PEOPLE_DN)
+                .containsEntry(LdapTracing.SCOPE, "ONELEVEL").containsEntry(LdapTracing.PAGE_SIZE, 10L)
+                .containsEntry(LdapTracing.PAGE, 3).containsEntry(LdapTracing.ENTRY_COUNT, 5L)
+                .containsEntry(LdapTracing.RESULT_CODE, 0);
+    }
+
+    @Test
+    void should_open_pooled_connections_before_the_first_execution() throws Exception {
+        LdapConnectionPool.OPERATIONS.clear();
+        LdapConnectionPool.BINDS.clear();
+        LdapAddressCache.clear();
+        final List<Map<String, Object>> configurations = new ArrayList<>();
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final Map<String, Object> search = new HashMap<>();
+            search.put(LdapConnector.HOST_PARAMETER, "localhost");
+            search.put(LdapConnector.PORT_PARAMETER, server.getPort());
+            search.put(LdapConnector.USERNAME_PARAMETER, EmbeddedLdapServer.ADMIN_DN);
+            search.put(LdapConnector.PASSWORD_PARAMETER, EmbeddedLdapServer.ADMIN_PASSWORD);
+            search.put(LdapConnector.PROTOCOL_PARAMETER, LdapProtocol.LDAP.name());
+            search.put(LdapConnector.BASE_OBJECT_PARAMETER, EmbeddedLdapServer.PEOPLE_DN);
+            search.put(LdapConnector.SCOPE_PARAMETER, LdapScope.ONELEVEL.name());
+            search.put(LdapConnector.FILTER_PARAMETER, "(objectClass=person)");
+            search.put(LdapConnector.SIZE_LIMIT_PARAMETER, 0L);
+            search.put(LdapConnector.TIME_LIMIT_PARAMETER, 0L);
+            search.put(LdapConnector.REFERRAL_HANDLING_PARAMETER, "ignore");
+            search.put(LdapConnector.DEREF_ALIASES_PARAMETER, LdapDereferencingAlias.ALWAYS.name());
+            search.put(LdapConnector.ENGINE_PARAMETER, engine.name());
+            configurations.add(search);
+            configurations.add(new HashMap<>(search));
+        }
+        final Map<String, Object> authentication = new HashMap<>(configurations.get(0));
+        authentication.put(LdapConnector.OPERATION_PARAMETER, LdapOperation.AUTHENTICATE.name());
+        authentication.put(LdapConnector.AUTHENTICATION_LOGIN_PARAMETER, "user1");
+        authentication.put(LdapConnector.AUTHENTICATION_PASSWORD_PARAMETER, "user1-pwd");
+        configurations.add(authentication);
+
+        assertThat(LdapWarmUp.warmUp(configurations, 3)).isEqualTo(9);
+        assertThat(LdapConnectionPool.OPERATIONS.idleCount()).isEqualTo(6);
+        assertThat(LdapConnectionPool.BINDS.idleCount()).isEqualTo(3);
+        assertThat(LdapAddressCache.size()).isEqualTo(1);
+
+        assertThat(LdapWarmUp.warmUp(configurations, 3)).isZero();
+
+        // the searches borrow the warmed up connections instead of opening new ones
+        final List<String> spans = new ArrayList<>();
+        final LdapTracer tracer = LdapTracing.getTracer();
+        LdapTracing.setTracer(name -> new LdapSpan() {
+
+            @Override
+            public LdapSpan setAttribute(final String key, final Object value) {
+                return this;
+            }
+
+            @Override
+            public void setError(final Throwable error) {
+            }
+
+            @Override
+            public void close() {
+                spans.add(name);
+            }
+        });
+        try {
+            for (final LdapEngine engine : LdapEngine.values()) {
+                assertThat(entries(server.newConnector(engine).execute())).hasSize(25);
+            }
+        } finally {
+            LdapTracing.setTracer(tracer);
+        }
+        assertThat(spans).doesNotContain(LdapTracing.CONNECT, LdapTracing.BIND);
+        assertThat(LdapConnectionPool.OPERATIONS.idleCount()).isEqualTo(6);
+    }
+
+    @Test
+    void should_plan_the_search_from_the_previous_executions() throws Exception {
+        LdapSearchPlanner.clear();
+        for (final LdapEngine engine : LdapEngine.values()) {
+            for (final String plan : new String[] { "not paged, counted first: expected entries: 25, executions: 1",
+                    "not paged: expected entries: 25, executions: 2" }) {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setSearchStrategy(LdapSearchStrategy.AUTO);
+                connector.validateInputParameters();
+
+                final Map<String, Object> outputs = connector.execute();
+
+                assertThat(entries(outputs)).hasSize(25);
+                assertThat(outputs.get(LdapConnector.SEARCH_PLAN_OUTPUT)).as(engine.name()).isEqualTo(plan);
+            }
+            LdapSearchPlanner.clear();
+        }
+    }
+
+    @Test
+    void should_read_pages_ahead_of_their_handling() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setAttributes("uid");
+            connector.setPageSize(4L);
+            connector.setPrefetchPages(2L);
+            connector.validateInputParameters();
+
+            final List<List<LdapAttribute>> entries = entries(connector.execute());
+
+            assertThat(entries).as(engine.name()).hasSize(25);
+            assertThat(entries.stream().map(entry -> entry.get(0).getValue()).distinct()).hasSize(25);
+        }
+    }
+
+    @Test
+    void should_answer_a_recent_miss_until_it_is_invalidated() throws Exception {
+        final String dn = "uid=user20," + EmbeddedLdapServer.PEOPLE_DN;
+        for (final LdapEngine engine : LdapEngine.values()) {
+            LdapNegativeCache.clear();
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setFilter("(description=ghost)");
+            connector.setNegativeCacheTtl(60L);
+            connector.validateInputParameters();
+            assertThat(entries(connector.execute())).as(engine.name()).isEmpty();
+
+            server.getServer().modify(dn, new Modification(ModificationType.REPLACE, "description", "ghost"));
+            try {
+                assertThat(entries(connector.execute())).as(engine.name()).isEmpty();
+                LdapNegativeCache.invalidate("localhost", server.getPort());
+                assertThat(entries(connector.execute())).as(engine.name()).hasSize(1);
+            } finally {
+                server.getServer().modify(dn, new Modification(ModificationType.DELETE, "description"));
+            }
+        }
+        LdapNegativeCache.clear();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void should_index_the_entries_by_key() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setAttributes("uid,departmentNumber");
+            connector.setOutputMode(LdapOutputMode.INDEX);
+            connector.setIndexAttributes("uid");
+            connector.setIndexIgnoreCase(true);
+            connector.validateInputParameters();
+
+            final Map<String, Object> index = (Map<String, Object>) connector.execute()
+                    .get(LdapConnector.LDAP_INDEX_OUTPUT);
+
+            assertThat(index).as(engine.name()).hasSize(25).containsKey("user7");
+            assertThat((List<LdapAttribute>) index.get("user7")).contains(new LdapAttribute("departmentNumber", "dep1"));
+
+            connector.setIndexAttributes("departmentNumber");
+            connector.setIndexDuplicates(LdapIndexDuplicates.LIST);
+            final Map<String, Object> departments = (Map<String, Object>) connector.execute()
+                    .get(LdapConnector.LDAP_INDEX_OUTPUT);
+
+            assertThat(departments).as(engine.name()).containsOnlyKeys("dep0", "dep1", "dep2");
+            assertThat((List<?>) departments.get("dep0")).hasSize(9);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void should_output_the_entries_changed_since_the_previous_run(@TempDir final Path folder) throws Exception {
+        final String dn = "uid=user21," + EmbeddedLdapServer.PEOPLE_DN;
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setAttributes("uid,cn,description");
+            connector.setOutputMode(LdapOutputMode.DIFF);
+            connector.setFingerprintFile(folder.resolve(engine.name() + ".fingerprints").toString());
+            connector.validateInputParameters();
+            assertThat((List<String>) connector.execute().get(LdapConnector.ADDED_DNS_OUTPUT)).as(engine.name())
+                    .hasSize(25);
+
+            server.getServer().modify(dn, new Modification(ModificationType.REPLACE, "description", "moved"));
+            try {
+                final Map<String, Object> outputs = connector.execute();
+
+                assertThat((List<String>) outputs.get(LdapConnector.ADDED_DNS_OUTPUT)).as(engine.name()).isEmpty();
+                assertThat((List<String>) outputs.get(LdapConnector.MODIFIED_DNS_OUTPUT)).containsExactly(dn);
+                assertThat((List<String>) outputs.get(LdapConnector.REMOVED_DNS_OUTPUT)).isEmpty();
+            } finally {
+                server.getServer().modify(dn, new Modification(ModificationType.DELETE, "description"));
+            }
+        }
+    }
+
+    @Test
+    void should_search_with_a_filter_template() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setFilter("(&(objectClass=person)(|(uid={0})(uid={1})))");
+            connector.setFilterParameters(Arrays.asList("user7", "*"));
+            connector.setAttributes("uid");
+            connector.setIndexedAttributes("uid");
+            connector.validateInputParameters();
+
+            final List<List<LdapAttribute>> entries = entries(connector.execute());
+
+            assertThat(entries).as(engine.name()).containsExactly(Arrays.asList(new LdapAttribute("uid", "user7")));
+        }
+    }
+
+    @Test
+    void should_only_return_the_aggregate() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setPageSize(10L);
+            connector.setOutputMode(LdapOutputMode.AGGREGATE);
+            connector.setAggregation(LdapAggregation.GROUP_COUNT);
+            connector.setAggregateAttribute("departmentNumber");
+            connector.validateInputParameters();
+
+            final Map<String, Object> outputs = connector.execute();
+
+            assertThat(entries(outputs)).isEmpty();
+            assertThat(outputs.get(LdapConnector.AGGREGATE_OUTPUT)).as(engine.name())
+                    .hasToString("{dep0=9, dep1=8, dep2=8}");
+
+            connector.setAggregation(LdapAggregation.COUNT);
+            assertThat(connector.execute().get(LdapConnector.AGGREGATE_OUTPUT)).isEqualTo(25L);
+        }
+    }
+
+    @Test
+    void should_sort_entries_on_the_client_side() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnector connector = server.newConnector(engine);
+            connector.setAttributes("uid,departmentNumber");
+            connector.setPageSize(10L);
+            connector.setSortAttributes("-departmentNumber, uid");
+            connector.validateInputParameters();
+
+            final List<List<LdapAttribute>> entries = entries(connector.execute());
+
+            assertThat(entries).as(engine.name()).hasSize(25);
+            assertThat(entries.get(0)).contains(new LdapAttribute("uid", "user11"));
+            assertThat(entries.get(24)).contains(new LdapAttribute("uid", "user9"));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives concurrent connector executions against a large embedded directory. Excluded from the default build, run
+ * with the load-test profile. The sizes can be changed with system properties:
+ * <ul>
+ * <li>ldap.load.users: the number of users of the dataset, 100000 by default</li>
+ * <li>ldap.load.threads: the number of concurrent executions, 16 by default</li>
+ * <li>ldap.load.executions: the number of executions of the short scenarios, 5000 by default</li>
+ * </ul>
+ * Every result is logged and appended to load-test.csv in the ldap.load.reportDirectory directory.
+ */
+@Tag("load")
+class LdapConnectorLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapConnectorLoadTest.class);
+
+    private static final int USERS = Integer.getInteger("ldap.load.users", 100_000);
+    private static final int THREADS = Integer.getInteger("ldap.load.threads", 16);
+    private static final int EXECUTIONS = Integer.getInteger("ldap.load.executions", 5_000);
+    private static final Path REPORT = Paths.get(System.getProperty("ldap.load.reportDirectory", "target/load-reports"),
+            "load-test.csv");
+    private static final String VERSION = System.getProperty("project.version", "dev");
+
+    private static EmbeddedLdapServer server;
+    private static LdapDatasetGenerator dataset;
+    private static final List<LdapLoadRunner.Result> results = new ArrayList<>();
+
+    @BeforeAll
+    static void generateDataset() throws Exception {
+        server = new EmbeddedLdapServer();
+        dataset = new LdapDatasetGenerator().users(USERS);
+        final long start = System.nanoTime();
+        dataset.populate(server.getServer());
+        LOGGER.info("Generated {} users in {} ms", USERS, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        results.forEach(result -> LOGGER.info("{}", result));
+        LdapConnectionPool.OPERATIONS.clear();
+        LdapConnectionPool.BINDS.clear();
+        server.close();
+    }
+
+    private static void record(final LdapLoadRunner.Result result) throws Exception {
+        results.add(result);
+        result.appendTo(REPORT, VERSION);
+        assertThat(result.getErrors()).as(result.toString()).isZero();
+    }
+
+    private static int user(final int index) {
+        // spreads the executions over the dataset instead of reading consecutive entries
+        return (int) ((index * 7919L) % USERS);
+    }
+
+    @Test
+    void lookup_by_uid() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            record(new LdapLoadRunner(THREADS, 500).run("lookup-by-uid-" + engine, EXECUTIONS, index -> {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setFilter("(uid=" + LdapDatasetGenerator.uid(user(index)) + ")");
+                connector.setAttributes("cn,mail");
+                final Map<String, Object> outputs = connector.execute();
+                assertThat((List<?>) outputs.get(LdapConnector.LDAP_ATTRIBUTE_LIST_OUTPUT)).hasSize(1);
+            }));
+        }
+    }
+
+    @Test
+    void paged_search_of_a_department() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            record(new LdapLoadRunner(THREADS, 20).run("department-paged-" + engine, EXECUTIONS / 50, index -> {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setFilter("(departmentNumber="
+                        + LdapDatasetGenerator.department(index % dataset.getDepartments()) + ")");
+                connector.setAttributes("uid,cn,mail,telephoneNumber");
+                connector.setPageSize(500L);
+                connector.execute();
+            }));
+        }
+    }
+
+    @Test
+    void authenticate() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            record(new LdapLoadRunner(THREADS, 500).run("authenticate-" + engine, EXECUTIONS, index -> {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setOperation(LdapOperation.AUTHENTICATE);
+                connector.setAuthenticationLogin(LdapDatasetGenerator.uid(user(index)));
+                connector.setAuthenticationPassword(LdapDatasetGenerator.password(user(index)));
+                assertThat(connector.execute().get(LdapConnector.AUTHENTICATED_OUTPUT)).isEqualTo(true);
+            }));
+        }
+    }
+
+    @Test
+    void read_large_multi_valued_attributes() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            record(new LdapLoadRunner(THREADS, 100).run("large-attribute-" + engine, EXECUTIONS / 5, index -> {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setBaseObject(LdapDatasetGenerator.userDn(0));
+                connector.setScope(LdapScope.BASE);
+                connector.setFilter("(objectClass=*)");
+                connector.setAttributes("description");
+                connector.execute();
+            }));
+            record(new LdapLoadRunner(THREADS, 100).run("nested-group-" + engine, EXECUTIONS / 5, index -> {
+                final LdapConnector connector = server.newConnector(engine);
+                connector.setBaseObject(dataset.topGroupDn());
+                connector.setScope(LdapScope.BASE);
+                connector.setFilter("(objectClass=groupOfNames)");
+                connector.setAttributes("member");
+                connector.execute();
+            }));
+        }
+    }
+
+    @Test
+    void export_every_user() throws Exception {
+        final Path file = Files.createTempFile("ldap-load", ".csv");
+        try {
+            for (final LdapEngine engine : LdapEngine.values()) {
+                record(new LdapLoadRunner(1, 1).run("export-all-" + engine, 3, index -> {
+                    final LdapConnector connector = server.newConnector(engine);
+                    connector.setAttributes("uid,cn,mail,departmentNumber");
+                    connector.setPageSize(1000L);
+                    connector.setOutputMode(LdapOutputMode.EXPORT);
+                    connector.setExportFormat(LdapExportFormat.CSV);
+                    connector.setExportFile(file.toString());
+                    assertThat(connector.execute().get(LdapConnector.EXPORTED_ENTRY_COUNT_OUTPUT))
+                            .isEqualTo((long) USERS);
+                }));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -23,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.Arrays;
+
 import org.assertj.core.api.Assertions;
 import org.bonitasoft.engine.connector.ConnectorValidationException;
 import org.bonitasoft.engine.exception.BonitaException;
@@ -395,4 +397,112 @@ class LdapConnectorTest {
         connector.setReferralHandling("follow");
         connector.validateInputParameters();
     }
+
+    @Test
+    void testSetEngine() {
+        LdapConnector connector = getBasicSettings();
+        assertEquals(LdapEngine.JNDI, connector.getEngine());
+        connector.setEngine("nio");
+        assertEquals(LdapEngine.NIO, connector.getEngine());
+        connector.setEngine((String) null);
+        assertEquals(LdapEngine.JNDI, connector.getEngine());
+    }
+
+    @Test
+    void testNioEngineWithSecuredProtocol() {
+        LdapConnector connector = getBasicSettings();
+        connector.setEngine(LdapEngine.NIO);
+        connector.setProtocol(LdapProtocol.LDAPS);
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("the NIO engine only supports the LDAP protocol");
+    }
+
+    @Test
+    void testNioEngineFollowingReferrals() {
+        LdapConnector connector = getBasicSettings();
+        connector.setEngine(LdapEngine.NIO);
+        connector.setReferralHandling("follow");
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("the NIO engine does not follow referrals");
+    }
+
+    @Test
+    void testMaxPagesRequiresPageSize() {
+        LdapConnector connector = getBasicSettings();
+        connector.setMaxPages(2L);
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("maxPages requires a pageSize greater than 0");
+    }
+
+    @Test
+    void testInvalidResumeToken() {
+        LdapConnector connector = getBasicSettings();
+        connector.setResumeToken("not a token");
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("resumeToken is not a valid continuation token");
+    }
+
+    @Test
+    void testWriteDoesNotNeedSearchCriteria() throws Exception {
+        LdapConnector connector = getBasicSettings();
+        connector.setOperation("write");
+        connector.setBaseObject(null);
+        connector.setFilter(null);
+        connector.setChanges("dn: cn=a,dc=bonita,dc=org\nchangetype: delete");
+
+        connector.validateInputParameters();
+    }
+
+    @Test
+    void testWriteRequiresValidChanges() {
+        LdapConnector connector = getBasicSettings();
+        connector.setOperation(LdapOperation.WRITE);
+        connector.setChanges("dn: cn=a,dc=bonita,dc=org\nchangetype: rename");
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("Invalid LDIF at line 2: unknown changetype rename");
+    }
+
+    @Test
+    void testAuthenticationFilterMustUseTheLogin() {
+        LdapConnector connector = getBasicSettings();
+        connector.setOperation("authenticate");
+        connector.setAuthenticationLogin("jdoe");
+        connector.setAuthenticationFilter("(uid=jdoe)");
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("authenticationFilter must contain {0}");
+    }
+
+    @Test
+    void testReferenceAttributesMustBeReturned() {
+        LdapConnector connector = getBasicSettings();
+        connector.setAttributes("uid,cn");
+        connector.setReferenceAttributes("manager");
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("the reference attribute manager must be one of the attributes");
+    }
+
+    @Test
+    void testFilterTemplateNeedsEveryParameter() {
+        LdapConnector connector = getBasicSettings();
+        connector.setFilter("(&(uid={0})(mail={1}))");
+        connector.setFilterParameters(Arrays.asList("jdoe"));
+
+        ConnectorValidationException exception = assertThrows(ConnectorValidationException.class,
+                () -> connector.validateInputParameters());
+        assertThat(exception).hasMessageContaining("The filter template needs 2 parameters, 1 given");
+    }
 }
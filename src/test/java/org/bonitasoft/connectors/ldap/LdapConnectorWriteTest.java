@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Applies change records to an in-memory directory service.
+ */
+class LdapConnectorWriteTest {
+
+    private static EmbeddedLdapServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        // the connections left by the other tests are counted with those of this one otherwise
+        LdapConnectionPool.OPERATIONS.clear();
+        server = new EmbeddedLdapServer();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        LdapConnectionPool.OPERATIONS.clear();
+        server.close();
+    }
+
+    private static String addRecord(final String uid) {
+        return "dn: uid=" + uid + "," + EmbeddedLdapServer.PEOPLE_DN + "\n"
+                + "objectClass: inetOrgPerson\n"
+                + "uid: " + uid + "\n"
+                + "cn: " + uid + "\n"
+                + "sn: " + uid + "\n\n";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<LdapWriteResult> write(final LdapEngine engine, final String changes,
+            final boolean transactional, final boolean stopOnError) throws Exception {
+        final LdapConnector connector = server.newConnector(engine);
+        connector.setOperation(LdapOperation.WRITE);
+        connector.setChanges(changes);
+        connector.setTransactional(transactional);
+        connector.setStopOnError(stopOnError);
+        connector.validateInputParameters();
+        final Map<String, Object> outputs = connector.execute();
+        return (List<LdapWriteResult>) outputs.get(LdapConnector.WRITE_RESULTS_OUTPUT);
+    }
+
+    private static Entry entry(final String uid) throws Exception {
+        return server.getServer().getEntry("uid=" + uid + "," + EmbeddedLdapServer.PEOPLE_DN);
+    }
+
+    @Test
+    void should_apply_a_batch_of_changes() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final String prefix = engine.name().toLowerCase();
+            final String changes = IntStream.range(0, 200)
+                    .mapToObj(i -> addRecord(prefix + i))
+                    .collect(Collectors.joining())
+                    + "dn: uid=" + prefix + "0," + EmbeddedLdapServer.PEOPLE_DN + "\n"
+                    + "changetype: modify\nreplace: cn\ncn: Renamed\n-\nadd: mail\nmail: a@bonita.org\n\n"
+                    + "dn: uid=" + prefix + "1," + EmbeddedLdapServer.PEOPLE_DN + "\n"
+                    + "changetype: modrdn\nnewrdn: uid=" + prefix + "-moved\ndeleteoldrdn: 1\n\n"
+                    + "dn: uid=" + prefix + "2," + EmbeddedLdapServer.PEOPLE_DN + "\n"
+                    + "changetype: delete\n";
+
+            final List<LdapWriteResult> results = write(engine, changes, false, false);
+
+            assertThat(results).hasSize(203).allMatch(LdapWriteResult::isSuccess, engine.name());
+            assertThat(entry(prefix + "0").getAttributeValue("cn")).isEqualTo("Renamed");
+            assertThat(entry(prefix + "0").getAttributeValue("mail")).isEqualTo("a@bonita.org");
+            assertThat(entry(prefix + "1")).isNull();
+            assertThat(entry(prefix + "-moved")).isNotNull();
+            assertThat(entry(prefix + "2")).isNull();
+            assertThat(entry(prefix + "199")).isNotNull();
+        }
+        assertThat(LdapConnectionPool.OPERATIONS.idleCount()).isEqualTo(2);
+    }
+
+    @Test
+    void should_keep_base64_values_binary() throws Exception {
+        final byte[] photo = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0x00, 0x10, (byte) 0x80 };
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final String uid = engine.name().toLowerCase() + "-photo";
+            final String changes = addRecord(uid)
+                    + "dn: uid=" + uid + "," + EmbeddedLdapServer.PEOPLE_DN + "\n"
+                    + "changetype: modify\nadd: jpegPhoto\njpegPhoto:: " + Base64.getEncoder().encodeToString(photo)
+                    + "\n-\n";
+
+            assertThat(write(engine, changes, false, false)).allMatch(LdapWriteResult::isSuccess, engine.name());
+            assertThat(entry(uid).getAttributeValueBytes("jpegPhoto")).as(engine.name()).isEqualTo(photo);
+        }
+    }
+
+    @Test
+    void should_report_failures_and_continue() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final String uid = engine.name().toLowerCase() + "-dup";
+            final List<LdapWriteResult> results = write(engine, addRecord(uid) + addRecord(uid)
+                    + addRecord(uid + "-next"), false, false);
+
+            assertThat(results).extracting(LdapWriteResult::getResultCode).as(engine.name())
+                    .containsExactly(0, 68, 0);
+            assertThat(entry(uid + "-next")).isNotNull();
+        }
+    }
+
+    @Test
+    void should_stop_at_the_first_failure() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final String uid = engine.name().toLowerCase() + "-stop";
+            final List<LdapWriteResult> results = write(engine, addRecord(uid) + addRecord(uid)
+                    + addRecord(uid + "-next"), false, true);
+
+            assertThat(results).extracting(LdapWriteResult::getResultCode).as(engine.name())
+                    .containsExactly(0, 68, LdapWriteResult.CANCELED);
+            assertThat(entry(uid + "-next")).isNull();
+        }
+    }
+
+    @Test
+    void should_apply_all_changes_or_none_in_a_transaction() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final String uid = engine.name().toLowerCase() + "-tx";
+
+            assertThat(write(engine, addRecord(uid) + addRecord(uid + "-2"), true, false))
+                    .allMatch(LdapWriteResult::isSuccess, engine.name());
+            assertThat(entry(uid + "-2")).isNotNull();
+
+            final List<LdapWriteResult> results = write(engine, addRecord(uid + "-3") + addRecord(uid), true, false);
+
+            assertThat(results).noneMatch(LdapWriteResult::isSuccess);
+            assertThat(entry(uid + "-3")).as(engine.name()).isNull();
+        }
+    }
+}
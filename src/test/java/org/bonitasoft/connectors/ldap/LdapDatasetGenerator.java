@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * Fills an embedded directory with a synthetic, reproducible dataset:
+ * <ul>
+ * <li>users load0 to load{users - 1} under ou=people, spread over departments, a few of them carrying a large
+ * multi-valued description</li>
+ * <li>groups under ou=groups nested on several levels: the groups of the first level hold users, the groups of each
+ * next level hold groups of the previous one</li>
+ * </ul>
+ */
+class LdapDatasetGenerator {
+
+    static final String GROUPS_DN = "ou=groups," + EmbeddedLdapServer.BASE_DN;
+
+    private int users = 100_000;
+    private int departments = 100;
+    private int groups = 1_000;
+    private int nestingLevels = 3;
+    private int largeAttributeValues = 1_000;
+    private int largeAttributeEvery = 1_000;
+    private long seed = 42;
+
+    LdapDatasetGenerator users(final int users) {
+        this.users = users;
+        return this;
+    }
+
+    LdapDatasetGenerator departments(final int departments) {
+        this.departments = departments;
+        return this;
+    }
+
+    LdapDatasetGenerator groups(final int groups) {
+        this.groups = groups;
+        return this;
+    }
+
+    LdapDatasetGenerator nestingLevels(final int nestingLevels) {
+        this.nestingLevels = nestingLevels;
+        return this;
+    }
+
+    /**
+     * @param values the number of values of the large attribute
+     * @param every one user in every given number carries the large attribute
+     */
+    LdapDatasetGenerator largeAttribute(final int values, final int every) {
+        this.largeAttributeValues = values;
+        this.largeAttributeEvery = every;
+        return this;
+    }
+
+    LdapDatasetGenerator seed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    int getUsers() {
+        return users;
+    }
+
+    int getDepartments() {
+        return departments;
+    }
+
+    static String uid(final int user) {
+        return "load" + user;
+    }
+
+    static String userDn(final int user) {
+        return "uid=" + uid(user) + "," + EmbeddedLdapServer.PEOPLE_DN;
+    }
+
+    static String password(final int user) {
+        return uid(user) + "-pwd";
+    }
+
+    static String department(final int department) {
+        return "dep" + department;
+    }
+
+    static String groupDn(final int level, final int group) {
+        return "cn=group-" + level + "-" + group + "," + GROUPS_DN;
+    }
+
+    /**
+     * @return the DN of the group at the top of the nesting, holding every group of the level below
+     */
+    String topGroupDn() {
+        return groupDn(nestingLevels - 1, 0);
+    }
+
+    void populate(final InMemoryDirectoryServer server) throws LDAPException {
+        final Random random = new Random(seed);
+        for (int i = 0; i < users; i++) {
+            server.add(user(i, random));
+        }
+        server.add(new Entry(GROUPS_DN, new Attribute("objectClass", "top", "organizationalUnit"),
+                new Attribute("ou", "groups")));
+        // each level holds fewer groups than the previous one, the last level a single group
+        int previousCount = users;
+        for (int level = 0; level < nestingLevels; level++) {
+            final int count = level == nestingLevels - 1 ? 1 : Math.max(1, groups / (1 << (level * 2)));
+            for (int group = 0; group < count; group++) {
+                final List<String> members = new ArrayList<>();
+                for (int member = group; member < previousCount; member += count) {
+                    members.add(level == 0 ? userDn(member) : groupDn(level - 1, member));
+                }
+                server.add(new Entry(groupDn(level, group),
+                        new Attribute("objectClass", "top", "groupOfNames"),
+                        new Attribute("cn", "group-" + level + "-" + group),
+                        new Attribute("member", members)));
+            }
+            previousCount = count;
+        }
+    }
+
+    private Entry user(final int i, final Random random) {
+        final String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        final String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        final Entry entry = new Entry(userDn(i),
+                new Attribute("objectClass", "top", "person", "organizationalPerson", "inetOrgPerson"),
+                new Attribute("uid", uid(i)),
+                new Attribute("cn", firstName + " " + lastName + " " + i),
+                new Attribute("givenName", firstName),
+                new Attribute("sn", lastName),
+                new Attribute("mail", uid(i) + "@bonita.org"),
+                new Attribute("employeeNumber", String.valueOf(i)),
+                new Attribute("departmentNumber", department(i % departments)),
+                new Attribute("telephoneNumber", String.format("+33 4 %02d %02d %02d %02d", random.nextInt(100),
+                        random.nextInt(100), random.nextInt(100), random.nextInt(100))),
+                new Attribute("userPassword", password(i)));
+        if (largeAttributeEvery > 0 && i % largeAttributeEvery == 0) {
+            final List<String> values = new ArrayList<>(largeAttributeValues);
+            for (int value = 0; value < largeAttributeValues; value++) {
+                values.add("Note " + value + " of " + uid(i) + ": " + Long.toHexString(random.nextLong()));
+            }
+            entry.addAttribute(new Attribute("description", values));
+        }
+        return entry;
+    }
+
+    private static final String[] FIRST_NAMES = { "Walter", "April", "Helen", "Isabelle", "Virginie", "Anthony",
+            "Jan", "Misa", "Norio", "Giovanna", "Daniela", "Zachary", "Joseph", "Thorsten", "Guillaume", "Mauro" };
+
+    private static final String[] LAST_NAMES = { "Bates", "Sanchez", "Kelly", "Martin", "Jobs", "Nichols", "Fisher",
+            "Kumada", "Yamazaki", "Almeida", "Angelo", "Chase", "Pulman", "Wagner", "Moreau", "Rossi" };
+}
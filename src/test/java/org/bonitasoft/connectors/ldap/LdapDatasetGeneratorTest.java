@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Keeps the load-test harness working with a small dataset, as the load tests only run on demand.
+ */
+class LdapDatasetGeneratorTest {
+
+    @Test
+    void should_generate_users_and_nested_groups() throws Exception {
+        try (EmbeddedLdapServer server = new EmbeddedLdapServer()) {
+            final LdapDatasetGenerator dataset = new LdapDatasetGenerator().users(200).departments(4).groups(16)
+                    .nestingLevels(3).largeAttribute(50, 100);
+
+            dataset.populate(server.getServer());
+
+            assertThat(server.getServer().countEntriesBelow(EmbeddedLdapServer.PEOPLE_DN)).isEqualTo(201);
+            final Entry user = server.getServer().getEntry(LdapDatasetGenerator.userDn(100));
+            assertThat(user.getAttributeValues("description")).hasSize(50);
+            assertThat(server.getServer().getEntry(dataset.topGroupDn()).getAttributeValues("member")).hasSize(4)
+                    .allMatch(member -> member.startsWith("cn=group-1-"));
+            assertThat(server.getServer().getEntry(LdapDatasetGenerator.groupDn(0, 3)).getAttributeValues("member"))
+                    .hasSize(200 / 16 + 1).allMatch(member -> member.startsWith("uid=load"));
+        }
+    }
+
+    @Test
+    void should_measure_concurrent_executions() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+
+        final LdapLoadRunner.Result result = new LdapLoadRunner(4, 10).run("sleep", 100, index -> {
+            executions.incrementAndGet();
+            Thread.sleep(1);
+        });
+
+        assertThat(executions).hasValue(110);
+        assertThat(result.getErrors()).isZero();
+        assertThat(result.getLatency(50)).isGreaterThanOrEqualTo(1);
+        assertThat(result.getLatency(99.9)).isGreaterThanOrEqualTo(result.getLatency(50));
+        assertThat(result.toCsv("dev").split(",")).hasSize(LdapLoadRunner.Result.CSV_HEADER.split(",").length);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class LdapEntryListTest {
+
+    private static LdapEntryList people(final boolean compressed, final int count) {
+        final LdapEntryList list = new LdapEntryList(compressed);
+        for (int i = 0; i < count; i++) {
+            list.add(Arrays.asList(
+                    new LdapAttribute("uid", "user" + i),
+                    new LdapAttribute("cn", "Usér " + i),
+                    new LdapAttribute("mail", "user" + i + "@bonita.org"),
+                    new LdapAttribute("objectClass", "inetOrgPerson"),
+                    new LdapAttribute("description", "")));
+        }
+        return list;
+    }
+
+    private static byte[] serialize(final Object value) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(final byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    @Test
+    void should_restore_the_same_entries() throws Exception {
+        for (final boolean compressed : new boolean[] { false, true }) {
+            final LdapEntryList list = people(compressed, 300);
+
+            final LdapEntryList copy = (LdapEntryList) deserialize(serialize(list));
+
+            assertThat(copy).isEqualTo(list);
+            assertThat(copy.isCompressed()).isEqualTo(compressed);
+        }
+    }
+
+    @Test
+    void should_keep_null_values() throws Exception {
+        final LdapEntryList list = new LdapEntryList();
+        list.add(Arrays.asList(new LdapAttribute("description", null)));
+
+        final LdapEntryList copy = (LdapEntryList) deserialize(serialize(list));
+
+        assertThat(copy.get(0).get(0).getName()).isEqualTo("description");
+        assertThat(copy.get(0).get(0).getValue()).isNull();
+    }
+
+    @Test
+    void should_be_smaller_than_the_default_serialization() throws Exception {
+        final LdapEntryList list = people(false, 1000);
+
+        final int standard = serialize(new ArrayList<List<LdapAttribute>>(list)).length;
+        final int compact = serialize(list).length;
+        final int compressed = serialize(people(true, 1000)).length;
+
+        assertThat(compact).isLessThan(standard / 2);
+        assertThat(compressed).isLessThan(compact);
+    }
+
+    @Test
+    void should_serialize_an_empty_list() throws Exception {
+        assertThat((List<?>) deserialize(serialize(new LdapEntryList()))).isEmpty();
+    }
+}
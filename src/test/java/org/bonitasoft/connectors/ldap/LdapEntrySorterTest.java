@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class LdapEntrySorterTest {
+
+    private static List<String> sort(final LdapEntrySorter sorter, final String... entries) throws Exception {
+        for (final String entry : entries) {
+            final String[] values = entry.split(",");
+            sorter.handleEntry("uid=" + values[0], values.length > 1
+                    ? Arrays.asList(new LdapAttribute("uid", values[0]), new LdapAttribute("sn", values[1]),
+                            new LdapAttribute("age", values[2]))
+                    : Arrays.asList(new LdapAttribute("uid", values[0])));
+        }
+        final List<String> sorted = new ArrayList<>();
+        sorter.sortTo((dn, attributes) -> sorted.add(attributes.get(0).getValue()));
+        return sorted;
+    }
+
+    @Test
+    void should_sort_by_several_attributes() throws Exception {
+        try (LdapEntrySorter sorter = new LdapEntrySorter(new String[] { "SN", "-age" }, false, 1 << 20)) {
+            assertThat(sort(sorter, "a,doe,9", "b,Adams,30", "c,Doe,10", "d", "e,adams,30"))
+                    .containsExactly("b", "e", "c", "a", "d");
+            assertThat(sorter.getRunCount()).isZero();
+        }
+    }
+
+    @Test
+    void should_merge_runs_spilled_to_disk() throws Exception {
+        final String[] entries = new String[1000];
+        final String[] expected = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            // 7919 is prime, so the ages are a permutation of 0 to 999
+            final int age = i * 7919 % entries.length;
+            entries[i] = "user" + i + ",sn," + age;
+            expected[age] = "user" + i;
+        }
+        try (LdapEntrySorter sorter = new LdapEntrySorter(new String[] { "age" }, false, 10_000)) {
+            final List<String> sorted = sort(sorter, entries);
+
+            assertThat(sorter.getRunCount()).isGreaterThan(10);
+            assertThat(sorted).containsExactly(expected);
+        }
+    }
+
+    @Test
+    void should_drop_entries_returned_twice() throws Exception {
+        for (final long budget : new long[] { 1 << 20, 200 }) {
+            try (LdapEntrySorter sorter = new LdapEntrySorter(new String[0], true, budget)) {
+                assertThat(sort(sorter, "b", "a", "b", "c", "a")).containsExactly("a", "b", "c");
+            }
+        }
+    }
+
+    @Test
+    void should_count_the_received_dns_against_the_memory_budget() throws Exception {
+        try (LdapEntrySorter sorter = new LdapEntrySorter(new String[0], true, 1000)) {
+            assertThrows(LdapMemoryBudgetExceededException.class,
+                    () -> sort(sorter, IntStream.range(0, 100).mapToObj(i -> "user" + i).toArray(String[]::new)));
+        }
+    }
+
+    @Test
+    void should_order_integers_before_other_values() throws Exception {
+        final List<String> values = Arrays.asList("9", "10", "1a", "-3", "b", "A", "+10", "99999999999999999999");
+        final List<String> sorted = new ArrayList<>(values);
+        sorted.sort(LdapEntrySorter::compareValues);
+        assertThat(sorted).containsExactly("-3", "9", "+10", "10", "99999999999999999999", "1a", "A", "b");
+
+        // a large shuffled sample, on which an intransitive order makes TimSort throw
+        final Random random = new Random(42);
+        final List<String> mixed = IntStream.range(0, 5000)
+                .mapToObj(i -> random.nextBoolean() ? String.valueOf(random.nextInt(1000)) : random.nextInt(100) + "x")
+                .collect(Collectors.toList());
+        Collections.shuffle(mixed, random);
+        mixed.sort(LdapEntrySorter::compareValues);
+        for (int i = 1; i < mixed.size(); i++) {
+            assertThat(LdapEntrySorter.compareValues(mixed.get(i - 1), mixed.get(i))).isLessThanOrEqualTo(0);
+        }
+    }
+
+    @Test
+    void should_keep_the_first_copy_of_an_entry_whose_attributes_changed() throws Exception {
+        for (final long budget : new long[] { 1 << 20, 400 }) {
+            try (LdapEntrySorter sorter = new LdapEntrySorter(new String[] { "age" }, true, budget)) {
+                assertThat(sort(sorter, "a,sn,1", "b,sn,2", "A,sn,3", "c,sn,0")).containsExactly("c", "a", "b");
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.junit.jupiter.api.Test;
+
+class LdapExecutorTest {
+
+    @Test
+    void should_return_the_results_in_order_within_the_parallelism() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<LdapExecutor.Task<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final int value = i;
+            tasks.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return value * value;
+            });
+        }
+
+        final List<Integer> results = LdapExecutor.SHARED.invokeAll(tasks, 4);
+
+        assertThat(results).hasSize(50).startsWith(0, 1, 4).endsWith(49 * 49);
+        assertThat(maxRunning.get()).isBetween(1, 4);
+    }
+
+    @Test
+    void should_throw_the_first_failure_and_skip_the_remaining_tasks() {
+        final AtomicInteger started = new AtomicInteger();
+        final List<LdapExecutor.Task<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            tasks.add(() -> {
+                started.incrementAndGet();
+                if (value == 3) {
+                    throw new NamingException("task failure");
+                }
+                return value;
+            });
+        }
+
+        final NamingException exception = assertThrows(NamingException.class,
+                () -> LdapExecutor.SHARED.invokeAll(tasks, 1));
+
+        assertThat(exception).hasMessage("task failure");
+        assertThat(started.get()).isEqualTo(4);
+    }
+}
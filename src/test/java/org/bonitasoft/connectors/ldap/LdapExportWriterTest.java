@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LdapExportWriterTest {
+
+    @TempDir
+    Path folder;
+
+    private static final List<LdapAttribute> ENTRY = Arrays.asList(
+            new LdapAttribute("cn", "Doe, John"),
+            new LdapAttribute("mail", "jdoe@bonita.org"),
+            new LdapAttribute("mail", "john.doe@bonita.org"),
+            new LdapAttribute("description", "Café \"quoted\""));
+
+    private String export(final LdapExportFormat format, final String... columns) throws Exception {
+        final Path file = folder.resolve("export." + format.getExtension());
+        try (LdapExportWriter writer = LdapExportWriter.open(file, format, columns, false, false)) {
+            writer.handleEntry("uid=jdoe,ou=people,dc=bonita,dc=org", ENTRY);
+        }
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void should_write_ldif_with_base64_for_unsafe_values() throws Exception {
+        assertThat(export(LdapExportFormat.LDIF)).isEqualTo("version: 1\n\n"
+                + "dn: uid=jdoe,ou=people,dc=bonita,dc=org\n"
+                + "cn: Doe, John\n"
+                + "mail: jdoe@bonita.org\n"
+                + "mail: john.doe@bonita.org\n"
+                + "description:: Q2Fmw6kgInF1b3RlZCI=\n\n");
+    }
+
+    @Test
+    void should_fold_long_ldif_lines() throws Exception {
+        final Path file = folder.resolve("long.ldif");
+        final char[] value = new char[200];
+        Arrays.fill(value, 'a');
+        try (LdapExportWriter writer = LdapExportWriter.open(file, LdapExportFormat.LDIF, null, false, false)) {
+            writer.handleEntry("cn=long", Arrays.asList(new LdapAttribute("description", new String(value))));
+        }
+        final List<String> lines = Files.readAllLines(file);
+        assertThat(lines).allMatch(line -> line.length() <= 76);
+        assertThat(String.join("\n", lines).replace("\n ", "")).contains("description: " + new String(value));
+    }
+
+    @Test
+    void should_write_csv_columns_in_order() throws Exception {
+        assertThat(export(LdapExportFormat.CSV, "mail", "CN", "missing")).isEqualTo(
+                "dn,mail,CN,missing\r\n"
+                        + "\"uid=jdoe,ou=people,dc=bonita,dc=org\",jdoe@bonita.org|john.doe@bonita.org,\"Doe, John\",\r\n");
+    }
+
+    @Test
+    void should_write_json_lines() throws Exception {
+        assertThat(export(LdapExportFormat.JSON)).isEqualTo("{\"dn\":\"uid=jdoe,ou=people,dc=bonita,dc=org\","
+                + "\"attributes\":{\"cn\":[\"Doe, John\"],\"mail\":[\"jdoe@bonita.org\",\"john.doe@bonita.org\"],"
+                + "\"description\":[\"Café \\\"quoted\\\"\"]}}\n");
+    }
+
+    @Test
+    void should_append_gzip_members_without_repeating_the_header() throws Exception {
+        final Path file = folder.resolve("export.csv.gz");
+        for (int i = 0; i < 2; i++) {
+            try (LdapExportWriter writer = LdapExportWriter.open(file, LdapExportFormat.CSV, new String[] { "cn" },
+                    true, true)) {
+                writer.handleEntry("cn=" + i, Arrays.asList(new LdapAttribute("cn", String.valueOf(i))));
+            }
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("dn,cn\r\ncn=0,0\r\ncn=1,1\r\n");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import javax.naming.directory.InvalidSearchFilterException;
+
+import org.junit.jupiter.api.Test;
+
+import com.unboundid.ldap.sdk.Filter;
+
+class LdapFilterTemplateTest {
+
+    @Test
+    void should_bind_parameters_as_literal_values() throws Exception {
+        final LdapFilterTemplate template = LdapFilterTemplate.compile("(&(objectClass=person)(|(uid={0})(cn={1}*)))");
+
+        final LdapFilter bound = template.bind("*)(uid=*", "Jo\\hn");
+
+        assertThat(template.getParameterCount()).isEqualTo(2);
+        assertThat(bound).hasToString("(&(objectclass=person)(|(cn=Jo\\5chn*)(uid=\\2a\\29\\28uid=\\2a)))");
+        final BerEncoder encoder = new BerEncoder(8);
+        bound.encode(encoder);
+        assertThat(encoder.toByteArray()).isEqualTo(Filter.createANDFilter(
+                Filter.createEqualityFilter("objectclass", "person"),
+                Filter.createORFilter(
+                        Filter.createSubstringFilter("cn", "Jo\\hn", null, null),
+                        Filter.createEqualityFilter("uid", "*)(uid=*"))).encode().encode());
+    }
+
+    @Test
+    void should_share_the_compiled_form_of_equivalent_filters() throws Exception {
+        final LdapFilterTemplate template = LdapFilterTemplate.compile("(&(UID={0})(objectClass=person))");
+
+        assertThat(LdapFilterTemplate.compile("  (&(objectclass=person)(&(uid={0})(uid={0})))")).isSameAs(template);
+        assertThat(LdapFilterTemplate.compile("(&(UID={0})(objectClass=person))")).isSameAs(template);
+        assertThat(LdapFilterTemplate.parse("(!(!(cn=a)))")).hasToString("(cn=a)");
+        assertThat(LdapFilterTemplate.parse("(|(b=1)(a=1))")).isSameAs(LdapFilterTemplate.parse("(|(a=1)(b=1))"));
+    }
+
+    @Test
+    void should_reject_invalid_placeholders_and_missing_parameters() throws Exception {
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilterTemplate.compile("(uid={a})"));
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilterTemplate.compile("(uid={64})"));
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilterTemplate.compile("({0}=a)"));
+        final LdapFilterTemplate template = LdapFilterTemplate.compile("(&(uid={0})(mail={1}))");
+        assertThrows(IllegalArgumentException.class, () -> template.bind("jdoe"));
+        assertThrows(IllegalArgumentException.class, () -> template.bind(Arrays.asList("jdoe", null)));
+        assertThat(LdapFilterTemplate.parse("(cn={0})")).hasToString("(cn={0})");
+    }
+
+    @Test
+    void should_keep_private_use_characters_and_braces_as_literals() throws Exception {
+        final LdapFilterTemplate template = LdapFilterTemplate.compile("(cn=\uE000{0}\uE001)");
+
+        assertThat(template.getParameterCount()).isEqualTo(1);
+        assertThat(template).hasToString("(cn=\uE000{0}\uE001)");
+        assertThat(template.bind("\uE002")).hasToString("(cn=\uE000\uE002\uE001)");
+        assertThat(LdapFilterTemplate.compile("(cn=\uE000)").getParameterCount()).isZero();
+        assertThat(LdapFilterTemplate.compile("(cn=\\7b0})")).hasToString("(cn=\\7b0})")
+                .isNotSameAs(LdapFilterTemplate.compile("(cn={0})"));
+    }
+
+    @Test
+    void should_replace_the_assertions_on_parameters_by_presence_tests() throws Exception {
+        assertThat(LdapFilterTemplate.compile("(&(|(uid={0})(mail={0}@*))(!(status=locked)))").presentParameters())
+                .hasToString("(&(!(status=locked))(|(mail=*)(uid=*)))");
+        assertThat(LdapFilterTemplate.compile("(:caseExactMatch:={0})").presentParameters()).isNull();
+    }
+
+    @Test
+    void should_tell_whether_a_filter_uses_the_indexes() throws Exception {
+        final String[] indexed = { "uid", "objectClass", "CN" };
+
+        assertThat(isIndexed("(uid=jdoe)", indexed)).isTrue();
+        assertThat(isIndexed("(&(description=x)(cn=Jo*))", indexed)).isTrue();
+        assertThat(isIndexed("(|(uid=jdoe)(mail=jdoe@bonita.org))", indexed)).isFalse();
+        assertThat(isIndexed("(cn=*oe)", indexed)).isFalse();
+        assertThat(isIndexed("(!(uid=jdoe))", indexed)).isFalse();
+        assertThat(isIndexed("(&(objectClass=person)(|(uid=a)(cn=b)))", indexed)).isTrue();
+    }
+
+    private static boolean isIndexed(final String filter, final String[] indexed) throws Exception {
+        return LdapFilterTemplate.isIndexed(LdapFilterTemplate.parse(filter), indexed);
+    }
+}
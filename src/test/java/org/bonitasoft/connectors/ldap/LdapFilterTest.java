@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import javax.naming.directory.InvalidSearchFilterException;
+
+import org.junit.jupiter.api.Test;
+
+import com.unboundid.ldap.sdk.Filter;
+
+class LdapFilterTest {
+
+    private static byte[] encode(final String filter) throws Exception {
+        final BerEncoder encoder = new BerEncoder(8);
+        LdapFilter.parse(filter).encode(encoder);
+        return encoder.toByteArray();
+    }
+
+    @Test
+    void should_encode_filters_like_a_reference_implementation() throws Exception {
+        final String[] filters = {
+                "(cn=John)",
+                "(&(objectClass=person)(|(uid=jdoe)(mail=jdoe@bonita.org)))",
+                "(!(cn=*))",
+                "(cn=*o*)",
+                "(cn=Jo*n*Do*)",
+                "(cn=*Doe)",
+                "(age>=18)",
+                "(age<=65)",
+                "(sn~=Smith)",
+                "(cn:caseExactMatch:=John)",
+                "(o:dn:=Bonita)",
+                "(:1.2.3:=value)",
+                "(cn=Parens \\28and\\29 star \\2a)",
+                "(cn=caf\\c3\\a9)",
+                "(cn=café)",
+                "(objectGUID=\\01\\ff\\00)",
+        };
+        for (final String filter : filters) {
+            assertThat(encode(filter)).as(filter).isEqualTo(Filter.create(filter).encode().encode());
+        }
+    }
+
+    @Test
+    void should_accept_a_filter_without_enclosing_parentheses() throws Exception {
+        assertThat(LdapFilter.parse("uid=jdoe")).hasToString("(uid=jdoe)");
+    }
+
+    @Test
+    void should_escape_special_characters_when_printed() throws Exception {
+        assertThat(LdapFilter.parse("(cn=a\\2a\\28b\\29\\5c)")).hasToString("(cn=a\\2a\\28b\\29\\5c)");
+        assertThat(LdapFilter.parse("(objectGUID=\\01\\ff)")).hasToString("(objectGUID=\\01\\ff)");
+    }
+
+    @Test
+    void should_not_take_an_escaped_asterisk_for_a_wildcard() throws Exception {
+        assertThat(encode("(cn=a\\*b*)")).isEqualTo(
+                Filter.createSubstringFilter("cn", "a*b", null, null).encode().encode());
+        assertThat(encode("(cn=*\\2a*c)")).isEqualTo(
+                Filter.createSubstringFilter("cn", null, new String[] { "*" }, "c").encode().encode());
+        assertThat(encode("(cn=a\\\\*)")).isEqualTo(
+                Filter.createSubstringFilter("cn", "a\\", null, null).encode().encode());
+        assertThat(encode("(cn=a\\2ab)")).isEqualTo(Filter.createEqualityFilter("cn", "a*b").encode().encode());
+    }
+
+    @Test
+    void should_reject_malformed_filters() {
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilter.parse("(cn=John"));
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilter.parse("(&(cn=John)"));
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilter.parse("(=John)"));
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilter.parse("(cn=John))"));
+        assertThrows(InvalidSearchFilterException.class, () -> LdapFilter.parse(""));
+    }
+
+    @Test
+    void should_decode_what_was_encoded() throws Exception {
+        final BerEncoder encoder = new BerEncoder(4);
+        encoder.beginSequence(BerEncoder.SEQUENCE)
+                .writeInteger(300)
+                .writeInteger(-2)
+                .writeOctetString(new String(new char[200]).replace('\0', 'x'))
+                .writeBoolean(true)
+                .endSequence();
+
+        final BerDecoder decoder = new BerDecoder(encoder.toByteBuffer()).readSequence();
+
+        assertThat(decoder.readInteger()).isEqualTo(300);
+        assertThat(decoder.readInteger()).isEqualTo(-2);
+        assertThat(decoder.readString()).hasSize(200);
+        assertThat(decoder.readBoolean()).isTrue();
+        assertThat(decoder.hasRemaining()).isFalse();
+    }
+}
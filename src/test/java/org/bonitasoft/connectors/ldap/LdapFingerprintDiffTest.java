@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LdapFingerprintDiffTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void should_list_the_entries_changed_since_the_previous_run() throws Exception {
+        final Path file = folder.resolve("people.fingerprints");
+        try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(file, null)) {
+            diff.handleEntry("uid=jdoe,ou=people", Arrays.asList(new LdapAttribute("mail", "jdoe@bonita.org"),
+                    new LdapAttribute("mail", "john.doe@bonita.org")));
+            diff.handleEntry("uid=jane,ou=people", Arrays.asList(new LdapAttribute("cn", "Jane")));
+            diff.handleEntry("uid=old,ou=people", Arrays.asList(new LdapAttribute("cn", "Old")));
+            diff.finish();
+            assertThat(diff.getAdded()).hasSize(3);
+        }
+
+        try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(file, null)) {
+            // same values in another order, under the same DN written differently
+            diff.handleEntry("UID=jdoe, ou=people", Arrays.asList(new LdapAttribute("MAIL", "john.doe@bonita.org"),
+                    new LdapAttribute("mail", "jdoe@bonita.org")));
+            diff.handleEntry("uid=jane,ou=people", Arrays.asList(new LdapAttribute("cn", "Jane Doe")));
+            diff.handleEntry("uid=new,ou=people", Arrays.asList(new LdapAttribute("cn", "New")));
+            diff.finish();
+
+            assertThat(diff.getAdded()).containsExactly("uid=new,ou=people");
+            assertThat(diff.getModified()).containsExactly("uid=jane,ou=people");
+            assertThat(diff.getRemoved()).containsExactly("uid=old,ou=people");
+        }
+        assertThat(Files.readAllLines(file)).hasSize(4).last().asString().endsWith(" uid=new,ou=people");
+    }
+
+    @Test
+    void should_only_compare_the_fingerprinted_attributes() throws Exception {
+        final Path file = folder.resolve("people.fingerprints");
+        for (final String lastLogin : new String[] { "20200101", "20200102" }) {
+            try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(file, new String[] { "cn" })) {
+                diff.handleEntry("uid=jdoe", Arrays.asList(new LdapAttribute("cn", "John"),
+                        new LdapAttribute("lastLogin", lastLogin)));
+                diff.finish();
+                assertThat(diff.getModified()).isEmpty();
+            }
+        }
+    }
+
+    @Test
+    void should_compare_an_entry_returned_twice_only_once() throws Exception {
+        final Path file = folder.resolve("people.fingerprints");
+        try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(file, null)) {
+            diff.handleEntry("uid=jdoe,ou=people", Arrays.asList(new LdapAttribute("cn", "John")));
+            diff.handleEntry("UID=jdoe, ou=people", Arrays.asList(new LdapAttribute("cn", "Johnny")));
+            diff.finish();
+
+            assertThat(diff.getAdded()).containsExactly("uid=jdoe,ou=people");
+        }
+        assertThat(Files.readAllLines(file)).hasSize(2);
+    }
+
+    @Test
+    void should_normalize_dns_with_escaped_characters() {
+        assertThat(LdapFingerprintDiff.normalize("CN=a\\\\, OU=x")).isEqualTo("cn=a\\\\,ou=x");
+        assertThat(LdapFingerprintDiff.normalize("cn=a\\,b , ou=x")).isEqualTo("cn=a\\,b,ou=x");
+        assertThat(LdapFingerprintDiff.normalize("cn=a\\2cb,ou=x")).isEqualTo("cn=a\\,b,ou=x");
+        assertThat(LdapFingerprintDiff.normalize("sn=Doe+CN=John,ou=x")).isEqualTo("cn=john+sn=doe,ou=x");
+    }
+
+    @Test
+    void should_keep_the_previous_fingerprints_of_an_unfinished_run() throws Exception {
+        final Path file = folder.resolve("people.fingerprints");
+        try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(file, null)) {
+            diff.handleEntry("uid=jdoe", Arrays.asList(new LdapAttribute("cn", "John")));
+            diff.finish();
+        }
+        final byte[] fingerprints = Files.readAllBytes(file);
+
+        try (LdapFingerprintDiff diff = LdapFingerprintDiff.open(file, null)) {
+            diff.handleEntry("uid=jane", Arrays.asList(new LdapAttribute("cn", "Jane")));
+        }
+
+        assertThat(Files.readAllBytes(file)).isEqualTo(fingerprints);
+        try (var files = Files.list(folder)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+}
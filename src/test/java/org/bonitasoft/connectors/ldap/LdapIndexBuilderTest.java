@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class LdapIndexBuilderTest {
+
+    private static final List<LdapAttribute> JOHN = Arrays.asList(
+            new LdapAttribute("uid", "JDoe"),
+            new LdapAttribute("mail", "jdoe@bonita.org"),
+            new LdapAttribute("mail", "john.doe@bonita.org"));
+    private static final List<LdapAttribute> JANE = Arrays.asList(
+            new LdapAttribute("uid", "jdoe"),
+            new LdapAttribute("mail", "jane.doe@bonita.org"));
+    private static final List<LdapAttribute> ANONYMOUS = Arrays.asList(new LdapAttribute("cn", "Anonymous"));
+
+    private static LdapIndexBuilder index(final LdapIndexDuplicates duplicates, final boolean ignoreCase,
+            final String... keyAttributes) throws IOException {
+        final LdapIndexBuilder builder = new LdapIndexBuilder(keyAttributes, duplicates, ignoreCase);
+        builder.handleEntry("uid=JDoe", JOHN);
+        builder.handleEntry("uid=jdoe", JANE);
+        builder.handleEntry("cn=Anonymous", ANONYMOUS);
+        return builder;
+    }
+
+    @Test
+    void should_index_every_value_of_the_key_attributes() throws Exception {
+        final LdapIndexBuilder builder = index(LdapIndexDuplicates.FAIL, false, "UID", "mail");
+
+        assertThat(builder.getIndex()).containsOnlyKeys("JDoe", "jdoe@bonita.org", "john.doe@bonita.org", "jdoe",
+                "jane.doe@bonita.org");
+        assertThat(builder.getIndex().get("john.doe@bonita.org")).isSameAs(JOHN);
+        assertThat(builder.getDuplicateCount()).isZero();
+    }
+
+    @Test
+    void should_apply_the_duplicates_policy_to_case_insensitive_keys() throws Exception {
+        assertThat(index(LdapIndexDuplicates.FIRST, true, "uid").getIndex()).containsEntry("jdoe", JOHN).hasSize(1);
+        assertThat(index(LdapIndexDuplicates.LAST, true, "uid").getIndex()).containsEntry("jdoe", JANE).hasSize(1);
+        assertThat(index(LdapIndexDuplicates.LIST, true, "uid").getIndex().get("jdoe"))
+                .isEqualTo(Arrays.asList(JOHN, JANE));
+        assertThatThrownBy(() -> index(LdapIndexDuplicates.FAIL, true, "uid"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("jdoe");
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an execution many times from concurrent threads, and measures the throughput, the latency distribution and
+ * the memory allocated per execution.
+ */
+class LdapLoadRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapLoadRunner.class);
+
+    /**
+     * One connector execution. The given index tells executions apart, to pick different entries for instance.
+     */
+    @FunctionalInterface
+    interface Execution {
+
+        void run(int index) throws Exception;
+    }
+
+    private final int threads;
+    private final int warmupExecutions;
+
+    LdapLoadRunner(final int threads, final int warmupExecutions) {
+        this.threads = threads;
+        this.warmupExecutions = warmupExecutions;
+    }
+
+    Result run(final String scenario, final int executions, final Execution execution) throws Exception {
+        for (int i = 0; i < warmupExecutions; i++) {
+            execution.run(i);
+        }
+        System.gc();
+        final long[] latencies = new long[executions];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicLong allocatedBytes = new AtomicLong();
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long start = System.nanoTime();
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    final long allocatedBefore = allocatedBytes(threadBean);
+                    int index;
+                    while ((index = next.getAndIncrement()) < executions) {
+                        final long executionStart = System.nanoTime();
+                        try {
+                            execution.run(warmupExecutions + index);
+                        } catch (final Exception e) {
+                            if (errors.getAndIncrement() == 0) {
+                                LOGGER.error("Execution {} of {} failed, the next failures are only counted",
+                                        index, scenario, e);
+                            }
+                        }
+                        latencies[index] = System.nanoTime() - executionStart;
+                    }
+                    allocatedBytes.addAndGet(allocatedBytes(threadBean) - allocatedBefore);
+                    return null;
+                }));
+            }
+            for (final Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        final long duration = System.nanoTime() - start;
+        final long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        Arrays.sort(latencies);
+        return new Result(scenario, threads, executions, errors.get(), duration, latencies,
+                allocatedBytes.get() / executions, heapUsed);
+    }
+
+    private static long allocatedBytes(final ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    static final class Result {
+
+        static final String CSV_HEADER = "timestamp,version,scenario,threads,executions,errors,"
+                + "throughput_per_s,p50_ms,p99_ms,p999_ms,max_ms,allocated_bytes_per_execution,heap_used_mb";
+
+        private final String scenario;
+        private final int threads;
+        private final int executions;
+        private final int errors;
+        private final long durationNanos;
+        private final long[] sortedLatencies;
+        private final long allocatedBytesPerExecution;
+        private final long heapUsed;
+
+        private Result(final String scenario, final int threads, final int executions, final int errors,
+                final long durationNanos, final long[] sortedLatencies, final long allocatedBytesPerExecution,
+                final long heapUsed) {
+            this.scenario = scenario;
+            this.threads = threads;
+            this.executions = executions;
+            this.errors = errors;
+            this.durationNanos = durationNanos;
+            this.sortedLatencies = sortedLatencies;
+            this.allocatedBytesPerExecution = allocatedBytesPerExecution;
+            this.heapUsed = heapUsed;
+        }
+
+        int getErrors() {
+            return errors;
+        }
+
+        double getThroughput() {
+            return executions / (durationNanos / 1e9);
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the latency in milliseconds under which the given percentage of executions completed
+         */
+        double getLatency(final double percentile) {
+            final int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+        }
+
+        String toCsv(final String version) {
+            return String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%d,%d", Instant.now(),
+                    version, scenario, threads, executions, errors, getThroughput(), getLatency(50), getLatency(99),
+                    getLatency(99.9), getLatency(100), allocatedBytesPerExecution, heapUsed / (1024 * 1024));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%-28s %3d threads %7d executions %4d errors %9.1f/s p50 %8.3f ms p99 %8.3f ms p999 %8.3f ms "
+                            + "%,12d B/execution heap %,d MB",
+                    scenario, threads, executions, errors, getThroughput(), getLatency(50), getLatency(99),
+                    getLatency(99.9), allocatedBytesPerExecution, heapUsed / (1024 * 1024));
+        }
+
+        /**
+         * Appends this result to a CSV report, so that the measures of successive releases can be compared.
+         */
+        void appendTo(final Path report, final String version) throws IOException {
+            Files.createDirectories(report.getParent());
+            final boolean header = !Files.exists(report);
+            try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND)) {
+                if (header) {
+                    writer.write(CSV_HEADER + "\n");
+                }
+                writer.write(toCsv(version) + "\n");
+            }
+        }
+    }
+}
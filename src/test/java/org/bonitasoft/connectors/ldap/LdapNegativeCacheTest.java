@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LdapNegativeCacheTest {
+
+    private static LdapConnectionSettings settings(final String host, final String userName) {
+        return new LdapConnectionSettings(host, 389, LdapProtocol.LDAP, userName, "secret",
+                LdapDereferencingAlias.ALWAYS, "ignore");
+    }
+
+    @AfterEach
+    void clear() {
+        LdapNegativeCache.clear();
+    }
+
+    @Test
+    void should_expire_a_miss_after_its_time_to_live() throws Exception {
+        final String key = LdapNegativeCache.dnKey(settings("ldap1", "cn=admin"), "uid=Ghost,ou=people");
+        LdapNegativeCache.put(key, 50);
+
+        assertThat(LdapNegativeCache.isMissing(LdapNegativeCache.dnKey(settings("ldap1", "cn=admin"),
+                "UID=ghost,OU=people"))).isTrue();
+        assertThat(LdapNegativeCache.isMissing(LdapNegativeCache.dnKey(settings("ldap1", "cn=reader"),
+                "uid=Ghost,ou=people"))).isFalse();
+        Thread.sleep(100);
+        assertThat(LdapNegativeCache.isMissing(key)).isFalse();
+        assertThat(LdapNegativeCache.size()).isZero();
+    }
+
+    @Test
+    void should_invalidate_the_misses_of_a_server() {
+        final LdapSearchRequest request = new LdapSearchRequest("ou=people", "(uid=ghost)", LdapScope.ONELEVEL,
+                null, 0, 0, 0);
+        final String first = LdapNegativeCache.searchKey(settings("ldap1", "cn=admin"), request);
+        final String second = LdapNegativeCache.searchKey(settings("ldap2", "cn=admin"), request);
+        LdapNegativeCache.put(first, 60_000);
+        LdapNegativeCache.put(second, 60_000);
+
+        LdapNegativeCache.invalidate("ldap1", 389);
+
+        assertThat(LdapNegativeCache.isMissing(first)).isFalse();
+        assertThat(LdapNegativeCache.isMissing(second)).isTrue();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class LdapPagePrefetcherTest {
+
+    /**
+     * Sends the given number of entries, and counts those the handler accepted.
+     */
+    private static final class Engine implements LdapSearchEngine {
+
+        private final int entries;
+        private final AtomicInteger sent = new AtomicInteger();
+        private volatile boolean searching;
+
+        Engine(final int entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public LdapSearchOutcome search(final LdapSearchRequest request, final LdapEntryHandler handler)
+                throws IOException {
+            searching = true;
+            try {
+                for (int i = 0; i < entries; i++) {
+                    handler.handleEntry("uid=user" + i, Collections.singletonList(new LdapAttribute("uid",
+                            "user" + i)));
+                    sent.incrementAndGet();
+                }
+                return new LdapSearchOutcome(entries, (int) (entries / request.getPageSize()));
+            } finally {
+                searching = false;
+            }
+        }
+
+        @Override
+        public List<List<LdapAttribute>> read(final List<String> dns, final String[] attributes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<LdapWriteResult> write(final List<LdapWriteOperation> operations, final boolean transactional,
+                final boolean stopOnError) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean authenticate(final String dn, final String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static LdapSearchRequest request() {
+        return new LdapSearchRequest("dc=bonita,dc=org", "(uid=*)", LdapScope.ONELEVEL, null, 0, 0, 10);
+    }
+
+    @Test
+    void should_hand_every_entry_over_in_order() throws Exception {
+        final List<String> dns = new ArrayList<>();
+
+        final LdapSearchOutcome outcome = new LdapPagePrefetcher(new Engine(1000), request(), 2)
+                .search((dn, attributes) -> dns.add(dn));
+
+        assertThat(outcome.getEntryCount()).isEqualTo(1000);
+        assertThat(dns).hasSize(1000).startsWith("uid=user0", "uid=user1").endsWith("uid=user999");
+    }
+
+    @Test
+    void should_stop_reading_when_the_handler_fails() {
+        final Engine engine = new Engine(1000);
+
+        final IOException exception = assertThrows(IOException.class,
+                () -> new LdapPagePrefetcher(engine, request(), 2).search((dn, attributes) -> {
+                    if ("uid=user5".equals(dn)) {
+                        throw new IOException("handler failure");
+                    }
+                }));
+
+        assertThat(exception).hasMessage("handler failure");
+        assertThat(engine.searching).isFalse();
+        // the entries handled, the two pages read ahead and the end marker fill the queue; one more entry may be
+        // accepted when the reader is offering it while the abort clears the queue
+        assertThat(engine.sent.get()).isLessThanOrEqualTo(6 + 21 + 1);
+    }
+
+    @Test
+    void should_not_wait_for_a_reader_cancelled_before_it_started() {
+        final Engine engine = new Engine(10);
+        final LdapPagePrefetcher prefetcher = new LdapPagePrefetcher(engine, request(), 2);
+        // a reader still queued in the executor
+        final FutureTask<LdapSearchOutcome> reader = new FutureTask<>(() -> engine.search(request(),
+                (dn, attributes) -> {
+                }));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> prefetcher.abort(reader));
+        assertThat(reader.isCancelled()).isTrue();
+        assertThat(engine.sent.get()).isZero();
+    }
+}
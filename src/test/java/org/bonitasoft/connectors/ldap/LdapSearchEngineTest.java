@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.AuthenticationException;
+import javax.naming.NamingException;
+
+import org.bonitasoft.connectors.ldap.NioLdapConnection.Operation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class LdapSearchEngineTest {
+
+    private static EmbeddedLdapServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedLdapServer().addPeople(25);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    private static LdapSearchRequest request(final String filter, final long sizeLimit, final long pageSize) {
+        return new LdapSearchRequest(EmbeddedLdapServer.PEOPLE_DN, filter, LdapScope.ONELEVEL,
+                new String[] { "uid", "mail" }, sizeLimit, 0, pageSize);
+    }
+
+    private static List<String> search(final LdapEngine engine, final LdapSearchRequest request) throws Exception {
+        final List<String> dns = new ArrayList<>();
+        try (LdapSearchEngine searchEngine = engine.createSearchEngine(server.newSettings())) {
+            searchEngine.open();
+            final LdapSearchOutcome outcome = searchEngine.search(request, (dn, attributes) -> dns.add(dn));
+            assertThat(outcome.getEntryCount()).isEqualTo(dns.size());
+        }
+        return dns;
+    }
+
+    @Test
+    void should_return_the_same_entries_with_every_engine() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            assertThat(search(engine, request("(objectClass=person)", 0, 0))).as(engine.name()).hasSize(25);
+            assertThat(search(engine, request("(&(objectClass=person)(uid=user1*))", 0, 0))).as(engine.name())
+                    .hasSize(11);
+            assertThat(search(engine, request("(uid=user7)", 0, 0))).as(engine.name())
+                    .containsExactly("uid=user7," + EmbeddedLdapServer.PEOPLE_DN);
+        }
+    }
+
+    @Test
+    void should_read_every_page_of_a_paged_search() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            try (LdapSearchEngine searchEngine = engine.createSearchEngine(server.newSettings())) {
+                searchEngine.open();
+                final List<List<LdapAttribute>> entries = new ArrayList<>();
+                final LdapSearchOutcome outcome = searchEngine.search(request("(objectClass=person)", 0, 10),
+                        (dn, attributes) -> entries.add(attributes));
+                assertThat(entries).as(engine.name()).hasSize(25);
+                assertThat(outcome.getPageCount()).as(engine.name()).isEqualTo(3);
+                assertThat(entries.get(0)).extracting(LdapAttribute::getName).containsOnly("uid", "mail");
+            }
+        }
+    }
+
+    @Test
+    void should_stop_at_the_size_limit() throws Exception {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            assertThat(search(engine, request("(objectClass=person)", 5, 0))).as(engine.name()).hasSize(5);
+        }
+    }
+
+    @Test
+    void should_fail_to_open_with_wrong_credentials() {
+        for (final LdapEngine engine : LdapEngine.values()) {
+            final LdapConnectionSettings settings = new LdapConnectionSettings("localhost", server.getPort(),
+                    LdapProtocol.LDAP, EmbeddedLdapServer.ADMIN_DN, "wrong", LdapDereferencingAlias.ALWAYS, "ignore");
+            try (LdapSearchEngine searchEngine = engine.createSearchEngine(settings)) {
+                assertThrows(AuthenticationException.class, searchEngine::open, engine.name());
+            }
+        }
+    }
+
+    @Test
+    void should_report_server_errors_as_naming_exceptions() throws Exception {
+        try (LdapSearchEngine searchEngine = LdapEngine.NIO.createSearchEngine(server.newSettings())) {
+            searchEngine.open();
+            final LdapSearchRequest request = new LdapSearchRequest("ou=missing," + EmbeddedLdapServer.BASE_DN,
+                    "(objectClass=*)", LdapScope.SUBTREE, null, 0, 0, 0);
+            final NamingException exception = assertThrows(NamingException.class,
+                    () -> searchEngine.search(request, (dn, attributes) -> {
+                    }));
+            assertThat(exception).hasMessageContaining("error code 32");
+        }
+    }
+
+    @Test
+    void should_multiplex_concurrent_searches_on_one_nio_connection() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (LdapSearchEngine searchEngine = LdapEngine.NIO.createSearchEngine(server.newSettings())) {
+            searchEngine.open();
+            final List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                final LdapSearchRequest request = request("(uid=user" + i + ")", 0, 0);
+                futures.add(executor.submit(() -> {
+                    final List<String> dns = new ArrayList<>();
+                    searchEngine.search(request, (dn, attributes) -> dns.add(dn));
+                    return dns;
+                }));
+            }
+            for (int i = 0; i < 25; i++) {
+                assertThat(futures.get(i).get()).containsExactly("uid=user" + i + "," + EmbeddedLdapServer.PEOPLE_DN);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Operation sendBind(final NioLdapConnection connection) throws IOException {
+        return connection.send(encoder -> encoder.beginSequence(NioLdapConnection.BIND_REQUEST)
+                .writeInteger(3)
+                .writeOctetString("")
+                .writeOctetString(0x80, "") // simple authentication
+                .endSequence());
+    }
+
+    @Test
+    void should_fail_the_nio_connection_when_the_server_does_not_answer() throws Exception {
+        try (ServerSocket silentServer = new ServerSocket(0);
+                NioLdapConnection connection = new NioLdapConnection(
+                        new InetSocketAddress("localhost", silentServer.getLocalPort()), 200);
+                Socket socket = silentServer.accept();
+                Operation operation = sendBind(connection)) {
+            assertThrows(SocketTimeoutException.class, operation::next);
+            assertThat(connection.isOpen()).isFalse();
+            assertThrows(IOException.class, () -> sendBind(connection));
+        }
+    }
+
+    @Test
+    void should_reject_a_nio_response_with_an_oversized_length() throws Exception {
+        try (ServerSocket corruptedServer = new ServerSocket(0);
+                NioLdapConnection connection = new NioLdapConnection(
+                        new InetSocketAddress("localhost", corruptedServer.getLocalPort()), 10_000);
+                Socket socket = corruptedServer.accept();
+                Operation operation = sendBind(connection)) {
+            final OutputStream out = socket.getOutputStream();
+            // a sequence announcing 2 GB of content
+            out.write(new byte[] { 0x30, (byte) 0x84, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x02, 0x01, 0x01 });
+            out.flush();
+
+            final IOException exception = assertThrows(IOException.class, operation::next);
+            assertThat(exception).hasRootCauseMessage("Element length 2147483647 exceeds the limit of "
+                    + NioLdapConnection.MAX_MESSAGE_SIZE + " bytes");
+        }
+    }
+
+    @Test
+    void should_run_the_connector_with_the_nio_engine() throws Exception {
+        final LdapConnector connector = server.newConnector(LdapEngine.NIO);
+        connector.setAttributes("uid");
+        connector.validateInputParameters();
+
+        final Map<String, Object> outputs = connector.execute();
+
+        assertThat((List<?>) outputs.get(LdapConnector.LDAP_ATTRIBUTE_LIST_OUTPUT)).hasSize(25);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LdapSearchPlannerTest {
+
+    private static LdapSearchPlanner.Statistics statistics(final long entries, final long nanos) {
+        final LdapSearchPlanner.Statistics statistics = new LdapSearchPlanner.Statistics();
+        statistics.add(entries, nanos);
+        return statistics;
+    }
+
+    @Test
+    void should_count_first_a_search_never_run() {
+        final LdapSearchPlanner.Plan plan = LdapSearchPlanner.choose(true, null, 0);
+
+        assertThat(plan.isCountFirst()).isTrue();
+        assertThat(LdapSearchPlanner.choose(true, null, 100).isCountFirst()).isFalse();
+    }
+
+    @Test
+    void should_not_page_small_results_or_without_the_paging_control() {
+        assertThat(LdapSearchPlanner.choose(true, statistics(400, -1), 0).getPageSize()).isZero();
+        assertThat(LdapSearchPlanner.choose(true, statistics(100_000, -1), 300).getPageSize()).isZero();
+        assertThat(LdapSearchPlanner.choose(false, statistics(100_000, -1), 0))
+                .hasToString("not paged: the server does not support paging");
+    }
+
+    @Test
+    void should_size_pages_from_the_time_per_entry() {
+        final long second = TimeUnit.SECONDS.toNanos(1);
+
+        assertThat(LdapSearchPlanner.choose(true, statistics(10_000, -1), 0).getPageSize())
+                .isEqualTo(LdapSearchPlanner.DEFAULT_PAGE_SIZE);
+        // 100 µs per entry
+        assertThat(LdapSearchPlanner.choose(true, statistics(10_000, second), 0).getPageSize()).isEqualTo(1000);
+        // 1 ms per entry
+        assertThat(LdapSearchPlanner.choose(true, statistics(10_000, 10 * second), 0).getPageSize()).isEqualTo(200);
+        // 10 ms per entry
+        assertThat(LdapSearchPlanner.choose(true, statistics(10_000, 100 * second), 0).getPageSize())
+                .isEqualTo(LdapSearchPlanner.MIN_PAGE_SIZE);
+    }
+
+    @Test
+    void should_weight_the_last_executions() {
+        final LdapSearchPlanner.Statistics statistics = statistics(1000, -1);
+        statistics.add(2000, 2_000_000);
+
+        assertThat(statistics.getExecutions()).isEqualTo(2);
+        assertThat(statistics.getEntries()).isEqualTo(1300);
+        assertThat(statistics.getNanosPerEntry()).isEqualTo(1000);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class LdapSpilledEntryListTest {
+
+    private static List<LdapAttribute> person(final int i) {
+        return Arrays.asList(new LdapAttribute("uid", "user" + i), new LdapAttribute("cn", "Usér " + i),
+                new LdapAttribute("description", ""));
+    }
+
+    @Test
+    void should_read_the_entries_in_order_and_at_random() throws Exception {
+        try (LdapSpilledEntryList list = new LdapSpilledEntryList(false)) {
+            for (int i = 0; i < 1000; i++) {
+                list.append(person(i));
+            }
+
+            final List<List<LdapAttribute>> copy = new ArrayList<>(list);
+            assertThat(copy).hasSize(1000);
+            for (int i = 0; i < 1000; i++) {
+                assertThat(copy.get(i)).isEqualTo(person(i));
+            }
+            assertThat(list.get(742)).isEqualTo(person(742));
+            assertThat(list.get(3)).isEqualTo(person(3));
+            assertThat(list.get(4)).isEqualTo(person(4));
+            assertThat(list.getLength()).isPositive();
+        }
+    }
+
+    @Test
+    void should_read_an_entry_appended_after_a_read() throws Exception {
+        try (LdapSpilledEntryList list = new LdapSpilledEntryList(false)) {
+            list.append(person(0));
+            assertThat(list.get(0)).isEqualTo(person(0));
+            list.append(person(1));
+
+            assertThat(list.get(1)).isEqualTo(person(1));
+        }
+    }
+
+    @Test
+    void should_stream_its_serialized_form_from_and_to_a_file() throws Exception {
+        for (final boolean compressed : new boolean[] { false, true }) {
+            // enough entries for several chunks
+            try (LdapSpilledEntryList list = new LdapSpilledEntryList(compressed)) {
+                for (int i = 0; i < 5000; i++) {
+                    list.append(person(i));
+                }
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(list);
+                    out.writeObject("next");
+                }
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+                        LdapSpilledEntryList copy = (LdapSpilledEntryList) in.readObject()) {
+
+                    assertThat(copy).as("compressed: " + compressed).isEqualTo(list);
+                    assertThat(copy.getLength()).isEqualTo(list.getLength());
+                    assertThat(in.readObject()).isEqualTo("next");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2009 - 2020 Bonitasoft S.A.
+ * Bonitasoft, 32 rue Gustave Eiffel - 38000 Grenoble
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.bonitasoft.connectors.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.unboundid.asn1.ASN1Element;
+import com.unboundid.ldap.protocol.AddRequestProtocolOp;
+import com.unboundid.ldap.protocol.DeleteRequestProtocolOp;
+import com.unboundid.ldap.protocol.ModifyDNRequestProtocolOp;
+import com.unboundid.ldap.protocol.ModifyRequestProtocolOp;
+import com.unboundid.ldif.LDIFAddChangeRecord;
+import com.unboundid.ldif.LDIFChangeRecord;
+import com.unboundid.ldif.LDIFDeleteChangeRecord;
+import com.unboundid.ldif.LDIFModifyChangeRecord;
+import com.unboundid.ldif.LDIFModifyDNChangeRecord;
+import com.unboundid.ldif.LDIFReader;
+
+class LdapWriteOperationTest {
+
+    private static final String[][] RECORDS = {
+            { "dn: uid=jdoe,ou=people,dc=bonita,dc=org", "changetype: add", "objectClass: top",
+                    "objectClass: inetOrgPerson", "uid: jdoe", "cn: John Doe", "sn: Doe" },
+            { "dn: uid=jdoe,ou=people,dc=bonita,dc=org", "changetype: modify", "add: mail", "mail: jdoe@bonita.org",
+                    "-", "delete: description", "-", "replace: cn", "cn: John Doe", "cn: Johnny", "-" },
+            { "dn: uid=jdoe,ou=people,dc=bonita,dc=org", "changetype: modrdn", "newrdn: uid=john",
+                    "deleteoldrdn: 1" },
+            { "dn: uid=john,ou=people,dc=bonita,dc=org", "changetype: moddn", "newrdn: uid=jdoe",
+                    "deleteoldrdn: 0", "newsuperior: ou=staff,dc=bonita,dc=org" },
+            { "dn: uid=jdoe,ou=staff,dc=bonita,dc=org", "changetype: delete" },
+            { "dn: uid=jdoe,ou=staff,dc=bonita,dc=org", "changetype: modify", "replace: jpegPhoto",
+                    "jpegPhoto:: /9j/4AAQSkZJRgABAQ==", "-" },
+    };
+
+    private static byte[] encode(final LdapWriteOperation operation) {
+        final BerEncoder encoder = new BerEncoder(8);
+        operation.encode(encoder);
+        return encoder.toByteArray();
+    }
+
+    private static byte[] encodeReference(final LDIFChangeRecord record) {
+        final ASN1Element element;
+        if (record instanceof LDIFAddChangeRecord) {
+            element = new AddRequestProtocolOp(((LDIFAddChangeRecord) record).toAddRequest()).encodeProtocolOp();
+        } else if (record instanceof LDIFModifyChangeRecord) {
+            element = new ModifyRequestProtocolOp(((LDIFModifyChangeRecord) record).toModifyRequest())
+                    .encodeProtocolOp();
+        } else if (record instanceof LDIFModifyDNChangeRecord) {
+            element = new ModifyDNRequestProtocolOp(((LDIFModifyDNChangeRecord) record).toModifyDNRequest())
+                    .encodeProtocolOp();
+        } else {
+            element = new DeleteRequestProtocolOp(((LDIFDeleteChangeRecord) record).getDN()).encodeProtocolOp();
+        }
+        return element.encode();
+    }
+
+    @Test
+    void should_encode_operations_like_a_reference_implementation() throws Exception {
+        for (final String[] record : RECORDS) {
+            final List<LdapWriteOperation> operations = LdapWriteOperation.parse(String.join("\n", record));
+
+            assertThat(operations).hasSize(1);
+            assertThat(encode(operations.get(0))).as(record[1])
+                    .isEqualTo(encodeReference(LDIFReader.decodeChangeRecord(record)));
+        }
+    }
+
+    @Test
+    void should_read_several_records() {
+        final String ldif = "version: 1\n"
+                + "# provisioning\n"
+                + "\n"
+                + "dn: uid=jdoe,ou=people,dc=bonita,dc=org\n"
+                + "objectClass: inetOrgPerson\n"
+                + "cn:: Sm9zw6kgRG9l\n"
+                + "description: a long description\n"
+                + "  folded on two lines\n"
+                + "\n"
+                + "\n"
+                + "dn: uid=old,ou=people,dc=bonita,dc=org\r\n"
+                + "changetype: delete\r\n";
+
+        final List<LdapWriteOperation> operations = LdapWriteOperation.parse(ldif);
+
+        assertThat(operations).extracting(LdapWriteOperation::getType)
+                .containsExactly(LdapWriteOperation.Type.ADD, LdapWriteOperation.Type.DELETE);
+        final Map<String, List<Object>> attributes = operations.get(0).getAttributes();
+        assertThat(attributes).containsOnlyKeys("objectClass", "cn", "description");
+        assertThat(attributes.get("objectClass")).containsExactly("inetOrgPerson");
+        assertThat(attributes.get("cn")).containsExactly("José Doe".getBytes(StandardCharsets.UTF_8));
+        assertThat(attributes.get("description")).containsExactly("a long description folded on two lines");
+        assertThat(operations.get(1).getDn()).isEqualTo("uid=old,ou=people,dc=bonita,dc=org");
+    }
+
+    @Test
+    void should_report_the_line_of_an_error() {
+        final String ldif = "dn: cn=a,dc=bonita,dc=org\n"
+                + "changetype: delete\n"
+                + "\n"
+                + "dn: cn=b,dc=bonita,dc=org\n"
+                + "changetype: modify\n"
+                + "remove: cn\n";
+
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> LdapWriteOperation.parse(ldif));
+
+        assertThat(exception).hasMessage("Invalid LDIF at line 6: expecting add, delete or replace");
+    }
+
+    @Test
+    void should_reject_malformed_records() {
+        final String[] malformed = {
+                "cn: no dn",
+                "dn: cn=a\nchangetype: rename",
+                "dn: cn=a\nchangetype: add",
+                "dn: cn=a\nchangetype: delete\ncn: a",
+                "dn: cn=a\nchangetype: modrdn\nnewrdn: cn=b\ndeleteoldrdn: yes",
+                "dn: cn=a\nchangetype: modify\nreplace: cn\nsn: b",
+                "dn: cn=a\ncn:< file:///etc/passwd",
+        };
+        for (final String ldif : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> LdapWriteOperation.parse(ldif), ldif);
+        }
+    }
+}